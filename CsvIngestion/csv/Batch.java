@@ -0,0 +1,76 @@
+package csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A group of objects converted from consecutive records, passed to a
+ * {@link RecordSink}. The text of the lines is kept in a single buffer
+ * and a string is created only for the lines that are rejected.
+ *
+ * @param <T> the type of the objects
+ */
+public final class Batch<T> {
+
+	private final CsvIngestion<?>.Run run;
+	private final ArrayList<T> items;
+	private long[] lineNumbers;
+	private int[] lineEnds;
+	private char[] text = new char[1 << 12];
+	private int used;
+
+	Batch(CsvIngestion<?>.Run run, int capacity) {
+		this.run = run;
+		items = new ArrayList<>(capacity);
+		lineNumbers = new long[capacity];
+		lineEnds = new int[capacity];
+	}
+
+	void add(T item, CsvRecord r) {
+		int n = items.size();
+		if(n==lineNumbers.length) {
+			lineNumbers = Arrays.copyOf(lineNumbers, n*2);
+			lineEnds = Arrays.copyOf(lineEnds, n*2);
+		}
+		int len = r.lineEnd()-r.lineStart();
+		if(used+len>text.length)
+			text = Arrays.copyOf(text, Math.max(text.length*2, used+len));
+		System.arraycopy(r.buffer(), r.lineStart(), text, used, len);
+		used += len;
+		lineEnds[n] = used;
+		lineNumbers[n] = r.getLineNumber();
+		items.add(item);
+	}
+
+	void clear() {
+		items.clear();
+		used = 0;
+	}
+
+	public int size() {
+		return items.size();
+	}
+
+	public T get(int i) {
+		return items.get(i);
+	}
+
+	public long getLineNumber(int i) {
+		return lineNumbers[i];
+	}
+
+	public String getLine(int i) {
+		int from = i==0 ? 0 : lineEnds[i-1];
+		return new String(text, from, lineEnds[i]-from);
+	}
+
+	/**
+	 * Reject an object of the batch.
+	 *
+	 * @param i the index of the object
+	 * @param cause the reason
+	 */
+	public void reject(int i, Exception cause) {
+		run.reject(lineNumbers[i], getLine(i), cause);
+	}
+}
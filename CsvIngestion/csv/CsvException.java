@@ -0,0 +1,26 @@
+package csv;
+
+/**
+ * The input cannot be ingested, e.g. because of a wrong header.
+ *
+ */
+public class CsvException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final long lineNumber;
+	private final String line;
+
+	public CsvException(long lineNumber, String line, String message) {
+		super(message);
+		this.lineNumber = lineNumber;
+		this.line = line;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	public String getLine() {
+		return line;
+	}
+}
@@ -0,0 +1,20 @@
+package csv;
+
+/**
+ * A field of a record is missing or cannot be decoded.
+ *
+ */
+public class CsvFieldException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	private final int column;
+
+	public CsvFieldException(int column, String message) {
+		super(message);
+		this.column = column;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+}
@@ -0,0 +1,88 @@
+package csv;
+
+import java.util.Arrays;
+
+/**
+ * Binding of the columns needed by a loader to their position in a file.
+ *
+ * The columns are looked up by name once, in the header line; then
+ * {@link #col(int)} gives the position of the {@code i}-th needed column.
+ *
+ */
+public class CsvHeader {
+
+	private final String[] names;
+	private final int[] cols;
+	private final int size;
+
+	private CsvHeader(String[] names, int[] cols, int size) {
+		this.names = names;
+		this.cols = cols;
+		this.size = size;
+	}
+
+	/**
+	 * Bind the needed columns to the header line of a file.
+	 *
+	 * @param header the header line
+	 * @param exact {@code true} if the header must contain only the needed columns
+	 * @param names the needed columns
+	 * @return the binding
+	 * @throws CsvException if a column is missing or, when {@code exact}, if there are other columns
+	 */
+	public static CsvHeader bind(CsvRecord header, boolean exact, String... names) throws CsvException {
+		int[] cols = new int[names.length];
+		for(int i=0; i<names.length; i++) {
+			cols[i] = -1;
+			for(int c=0; c<header.size() && cols[i]<0; c++)
+				if(header.equals(c, names[i]))
+					cols[i] = c;
+			if(cols[i]<0)
+				throw new CsvException(header.getLineNumber(), header.getLine(), "Missing column " + names[i]);
+		}
+		if(exact && header.size()!=names.length)
+			throw new CsvException(header.getLineNumber(), header.getLine(), "Unexpected columns in header");
+		return new CsvHeader(names.clone(), cols, header.size());
+	}
+
+	/**
+	 * Binding for lines without header, where the columns are in the given order.
+	 *
+	 * @param names the columns
+	 * @return the binding
+	 */
+	public static CsvHeader positional(String... names) {
+		int[] cols = new int[names.length];
+		Arrays.setAll(cols, i->i);
+		return new CsvHeader(names.clone(), cols, names.length);
+	}
+
+	/**
+	 * Position of a needed column.
+	 *
+	 * @param i index of the column among the needed ones
+	 * @return index of the field in the records
+	 */
+	public int col(int i) {
+		return cols[i];
+	}
+
+	/**
+	 * Name of a needed column.
+	 *
+	 * @param i index of the column among the needed ones
+	 * @return the name
+	 */
+	public String name(int i) {
+		return names[i];
+	}
+
+	/**
+	 * Number of columns of the file.
+	 *
+	 * @return the number of columns
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,231 @@
+package csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Pipeline loading a delimited file with a header line.
+ *
+ * The header is bound to the needed columns, then each line is converted
+ * by a {@link RecordMapper} and the objects are passed to a
+ * {@link RecordSink} in batches. Lines that cannot be converted or
+ * stored go to a {@link RejectHandler} and are skipped; blank lines are
+ * ignored. A wrong header stops the load with a {@link CsvException}.
+ *
+ * The pipeline gives the loaders the same handling of headers and bad
+ * lines; it is not faster than reading the lines and splitting them,
+ * parsing being a small part of the time of a load.
+ *
+ * <pre>
+ * Stats s = new CsvIngestion&lt;&gt;(mapper, sink, "SSN", "LAST", "FIRST", "YEAR")
+ *         .delimiter(',')
+ *         .onReject((n, line, e) -&gt; ...)
+ *         .run(reader);
+ * </pre>
+ *
+ * @param <T> the type of the objects built from the lines
+ */
+public class CsvIngestion<T> {
+
+	private final RecordMapper<T> mapper;
+	private final RecordSink<T> sink;
+	private final String[] columns;
+	private char delimiter = ',';
+	private int batchSize = 1024;
+	private boolean exactHeader = false;
+	private boolean checkLength = true;
+	private RejectHandler rejects = RejectHandler.log();
+
+	/**
+	 * Create a pipeline.
+	 *
+	 * @param mapper converts the records
+	 * @param sink stores the objects
+	 * @param columns the columns needed by the mapper, bound by name to the header
+	 */
+	public CsvIngestion(RecordMapper<T> mapper, RecordSink<T> sink, String... columns) {
+		this.mapper = mapper;
+		this.sink = sink;
+		this.columns = columns.clone();
+	}
+
+	public CsvIngestion<T> delimiter(char delimiter) {
+		this.delimiter = delimiter;
+		return this;
+	}
+
+	public CsvIngestion<T> batchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+		return this;
+	}
+
+	/**
+	 * Require the header to contain only the needed columns.
+	 *
+	 * @param exact {@code true} to reject headers with other columns
+	 * @return this pipeline
+	 */
+	public CsvIngestion<T> exactHeader(boolean exact) {
+		this.exactHeader = exact;
+		return this;
+	}
+
+	/**
+	 * Reject the lines whose number of fields differs from the header; enabled by default.
+	 *
+	 * @param check {@code false} to accept lines of any length
+	 * @return this pipeline
+	 */
+	public CsvIngestion<T> checkLength(boolean check) {
+		this.checkLength = check;
+		return this;
+	}
+
+	public CsvIngestion<T> onReject(RejectHandler rejects) {
+		this.rejects = rejects;
+		return this;
+	}
+
+	/**
+	 * Load from a character stream; the stream is not closed.
+	 *
+	 * @param in the stream
+	 * @return the counters of the load
+	 * @throws IOException in case of IO error
+	 * @throws CsvException in case of wrong header
+	 */
+	public Stats run(Reader in) throws IOException, CsvException {
+		return run(new CsvReader(in, delimiter));
+	}
+
+	/**
+	 * Load a file through a memory mapping.
+	 *
+	 * @param file the file
+	 * @param cs the charset of the file
+	 * @return the counters of the load
+	 * @throws IOException in case of IO error
+	 * @throws CsvException in case of wrong header
+	 */
+	public Stats run(Path file, Charset cs) throws IOException, CsvException {
+		try(CsvReader in = CsvReader.open(file, cs, delimiter)) {
+			return run(in);
+		}
+	}
+
+	/**
+	 * Load the lines of a reader, starting with the header.
+	 *
+	 * @param in the reader
+	 * @return the counters of the load
+	 * @throws IOException in case of IO error
+	 * @throws CsvException in case of wrong header
+	 */
+	public Stats run(CsvReader in) throws IOException, CsvException {
+		Run run = new Run();
+		long t0 = System.nanoTime();
+		CsvRecord r = new CsvRecord();
+		if(!in.next(r))
+			throw new CsvException(0, null, "Missing header");
+		CsvHeader h;
+		try {
+			h = CsvHeader.bind(r, exactHeader, columns);
+		} catch(CsvException e) {
+			run.reject(e.getLineNumber(), e.getLine(), e);
+			throw e;
+		}
+		Batch<T> batch = new Batch<>(run, batchSize);
+		while(in.next(r)) {
+			run.stats.lines++;
+			if(r.isBlank())
+				continue;
+			T item;
+			try {
+				if(checkLength && r.size()!=h.size())
+					throw new CsvFieldException(r.size(), "Expected " + h.size() + " fields, found " + r.size());
+				item = mapper.map(r, h);
+			} catch(Exception e) {
+				run.reject(r.getLineNumber(), r.getLine(), e);
+				continue;
+			}
+			batch.add(item, r);
+			if(batch.size()==batchSize)
+				run.flush(batch);
+		}
+		run.flush(batch);
+		run.stats.nanos = System.nanoTime()-t0;
+		return run.stats;
+	}
+
+	/**
+	 * State of a load.
+	 */
+	final class Run {
+		final Stats stats = new Stats();
+
+		void reject(long lineNumber, String line, Exception cause) {
+			stats.rejected++;
+			rejects.reject(lineNumber, line, cause);
+		}
+
+		void flush(Batch<T> batch) {
+			if(batch.size()==0)
+				return;
+			long before = stats.rejected;
+			sink.accept(batch);
+			stats.accepted += batch.size()-(stats.rejected-before);
+			stats.batches++;
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Counters of a load.
+	 */
+	public static class Stats {
+		protected long lines;
+		protected long accepted;
+		protected long rejected;
+		protected long batches;
+		protected long nanos;
+
+		/**
+		 * Number of lines read after the header, blank ones included.
+		 */
+		public long getLines() {
+			return lines;
+		}
+
+		/**
+		 * Number of objects stored by the sink.
+		 */
+		public long getAccepted() {
+			return accepted;
+		}
+
+		/**
+		 * Number of lines rejected, header included.
+		 */
+		public long getRejected() {
+			return rejected;
+		}
+
+		public long getBatches() {
+			return batches;
+		}
+
+		/**
+		 * Duration of the load, in nanoseconds.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return lines + " lines, " + accepted + " accepted, " + rejected + " rejected in " + nanos/1_000_000 + " ms";
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a delimited text file into a reusable {@link CsvRecord}.
+ *
+ * Characters are read in large blocks into a single buffer and the
+ * fields of a line are located in place; strings are created only for
+ * the fields the caller asks for. Files can be opened through a memory
+ * mapping with {@link #open}.
+ * Quoting is not supported: a field never contains the delimiter.
+ *
+ */
+public class CsvReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Reader in;
+	private final char delimiter;
+	private char[] buf = new char[BUFFER_SIZE];
+	private int pos, scan, limit;
+	private boolean eof;
+	private long lineNumber;
+
+	/**
+	 * Create a reader over a character stream.
+	 *
+	 * @param in the stream, closed by {@link #close()}
+	 * @param delimiter the field delimiter
+	 */
+	public CsvReader(Reader in, char delimiter) {
+		this.in = in;
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Open a file through a memory mapping; the bytes are decoded
+	 * block by block while the lines are read.
+	 *
+	 * @param file the file
+	 * @param cs the charset of the file
+	 * @param delimiter the field delimiter
+	 * @return the reader
+	 * @throws IOException in case of IO error
+	 */
+	public static CsvReader open(Path file, Charset cs, char delimiter) throws IOException {
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(ch.size() > Integer.MAX_VALUE)
+				return new CsvReader(Files.newBufferedReader(file, cs), delimiter);
+			return new CsvReader(new MappedReader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), cs), delimiter);
+		}
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * Number of the last line read, starting from 1.
+	 *
+	 * @return the line number
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Read the next line. The record refers to the buffer of the
+	 * reader and is valid until the next call.
+	 *
+	 * @param r the record to fill
+	 * @return {@code false} at the end of the input
+	 * @throws IOException in case of IO error
+	 */
+	public boolean next(CsvRecord r) throws IOException {
+		while(true) {
+			while(scan<limit && buf[scan]!='\n')
+				scan++;
+			int start = pos, end;
+			if(scan<limit) {
+				end = scan;
+				pos = scan = scan+1;
+			} else if(!eof) {
+				fill();
+				continue;
+			} else if(pos<limit) {
+				end = limit;
+				pos = scan = limit;
+			} else {
+				return false;
+			}
+			if(end>start && buf[end-1]=='\r')
+				end--;
+			r.set(buf, start, end, ++lineNumber, delimiter);
+			return true;
+		}
+	}
+
+	private void fill() throws IOException {
+		if(pos>0) {
+			System.arraycopy(buf, pos, buf, 0, limit-pos);
+			limit -= pos;
+			scan -= pos;
+			pos = 0;
+		}
+		// a surrogate pair needs two free chars
+		if(buf.length-limit<2)
+			buf = Arrays.copyOf(buf, buf.length*2);
+		int n = in.read(buf, limit, buf.length-limit);
+		if(n<0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Decodes a mapped file into characters on demand.
+	 */
+	private static final class MappedReader extends Reader {
+		private final ByteBuffer bytes;
+		private final CharsetDecoder decoder;
+		private boolean flushed;
+
+		MappedReader(ByteBuffer bytes, Charset cs) {
+			this.bytes = bytes;
+			this.decoder = cs.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		@Override
+		public int read(char[] c, int off, int len) {
+			if(flushed)
+				return -1;
+			if(len==0)
+				return 0;
+			CharBuffer out = CharBuffer.wrap(c, off, len);
+			decoder.decode(bytes, out, true);
+			if(!bytes.hasRemaining() && !flushed && decoder.flush(out).isUnderflow())
+				flushed = true;
+			int n = out.position()-off;
+			return n==0 && flushed ? -1 : n;
+		}
+
+		@Override
+		public void close() {
+			// the mapping is released by the garbage collector
+		}
+	}
+}
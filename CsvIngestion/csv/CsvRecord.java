@@ -0,0 +1,182 @@
+package csv;
+
+import java.util.Arrays;
+
+/**
+ * A line of a delimited file split into fields.
+ *
+ * The record only keeps the positions of the fields within the line:
+ * the numeric decoders read the characters in place, while
+ * {@link #getString} creates a string for the field.
+ *
+ */
+public class CsvRecord {
+
+	private char[] buf;
+	private int start, end;
+	private int[] from = new int[16];
+	private int[] to = new int[16];
+	private int size;
+	private long lineNumber;
+
+	/**
+	 * Split a single line, e.g. one read by other means.
+	 *
+	 * @param line the line, without terminator
+	 * @param delimiter the field delimiter
+	 * @return the record
+	 */
+	public static CsvRecord parse(String line, char delimiter) {
+		CsvRecord r = new CsvRecord();
+		char[] c = line.toCharArray();
+		r.set(c, 0, c.length, 0, delimiter);
+		return r;
+	}
+
+	void set(char[] buf, int start, int end, long lineNumber, char delimiter) {
+		this.buf = buf;
+		this.start = start;
+		this.end = end;
+		this.lineNumber = lineNumber;
+		int n = 0, f = start;
+		for(int i=start; i<=end; i++) {
+			if(i<end && buf[i]!=delimiter)
+				continue;
+			if(n==from.length) {
+				from = Arrays.copyOf(from, n*2);
+				to = Arrays.copyOf(to, n*2);
+			}
+			from[n] = f;
+			to[n++] = i;
+			f = i+1;
+		}
+		size = n;
+	}
+
+	/**
+	 * Number of fields; an empty line has a single empty field.
+	 *
+	 * @return the number of fields
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Tells whether the line has no characters.
+	 *
+	 * @return {@code true} for an empty line
+	 */
+	public boolean isBlank() {
+		return start==end;
+	}
+
+	/**
+	 * Text of the whole line.
+	 *
+	 * @return the line
+	 */
+	public String getLine() {
+		return new String(buf, start, end-start);
+	}
+
+	char[] buffer() {
+		return buf;
+	}
+
+	int lineStart() {
+		return start;
+	}
+
+	int lineEnd() {
+		return end;
+	}
+
+	private void check(int col) {
+		if(col<0 || col>=size)
+			throw new CsvFieldException(col, "Missing field " + col);
+	}
+
+	/**
+	 * Tells whether a field is empty.
+	 *
+	 * @param col the index of the field
+	 * @return {@code true} if the field has no characters
+	 */
+	public boolean isEmpty(int col) {
+		check(col);
+		return from[col]==to[col];
+	}
+
+	/**
+	 * Text of a field.
+	 *
+	 * @param col the index of the field
+	 * @return the text
+	 */
+	public String getString(int col) {
+		check(col);
+		return new String(buf, from[col], to[col]-from[col]);
+	}
+
+	/**
+	 * Compare a field with a string without creating a string for the field.
+	 *
+	 * @param col the index of the field
+	 * @param s the string
+	 * @return {@code true} if the field has the same characters
+	 */
+	public boolean equals(int col, String s) {
+		check(col);
+		int len = to[col]-from[col];
+		if(len!=s.length())
+			return false;
+		for(int i=0; i<len; i++)
+			if(buf[from[col]+i]!=s.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Decode a field as a decimal integer, with an optional sign.
+	 *
+	 * @param col the index of the field
+	 * @return the value
+	 * @throws CsvFieldException if the field is not a valid integer
+	 */
+	public int getInt(int col) {
+		long v = getLong(col);
+		if(v<Integer.MIN_VALUE || v>Integer.MAX_VALUE)
+			throw new CsvFieldException(col, "Integer out of range in field " + col);
+		return (int)v;
+	}
+
+	/**
+	 * Decode a field as a decimal long, with an optional sign.
+	 *
+	 * @param col the index of the field
+	 * @return the value
+	 * @throws CsvFieldException if the field is not a valid number
+	 */
+	public long getLong(int col) {
+		check(col);
+		int i = from[col], e = to[col];
+		boolean neg = false;
+		if(i<e && (buf[i]=='-' || buf[i]=='+'))
+			neg = buf[i++]=='-';
+		if(i==e)
+			throw new CsvFieldException(col, "Not a number in field " + col);
+		long v = 0;
+		for(; i<e; i++) {
+			int d = buf[i]-'0';
+			if(d<0 || d>9 || v>(Long.MAX_VALUE-d)/10)
+				throw new CsvFieldException(col, "Not a number in field " + col);
+			v = v*10+d;
+		}
+		return neg ? -v : v;
+	}
+}
@@ -0,0 +1,20 @@
+package csv;
+
+/**
+ * Converts a record into an object.
+ *
+ * @param <T> the type of the objects
+ */
+@FunctionalInterface
+public interface RecordMapper<T> {
+
+	/**
+	 * Convert a record; an exception rejects the line.
+	 *
+	 * @param r the record, valid only during the call
+	 * @param h the binding of the columns
+	 * @return the object
+	 * @throws Exception if the record is not valid
+	 */
+	T map(CsvRecord r, CsvHeader h) throws Exception;
+}
@@ -0,0 +1,18 @@
+package csv;
+
+/**
+ * Receives the objects converted from the records, a batch at a time.
+ *
+ * @param <T> the type of the objects
+ */
+@FunctionalInterface
+public interface RecordSink<T> {
+
+	/**
+	 * Consume a batch. Objects that cannot be stored are rejected
+	 * with {@link Batch#reject}.
+	 *
+	 * @param batch the batch, valid only during the call
+	 */
+	void accept(Batch<T> batch);
+}
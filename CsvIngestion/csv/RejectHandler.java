@@ -0,0 +1,27 @@
+package csv;
+
+/**
+ * Receives the lines that cannot be ingested.
+ *
+ */
+@FunctionalInterface
+public interface RejectHandler {
+
+	/**
+	 * Called for each rejected line.
+	 *
+	 * @param lineNumber the number of the line, starting from 1 with the header
+	 * @param line the text of the line
+	 * @param cause the reason
+	 */
+	void reject(long lineNumber, String line, Exception cause);
+
+	/**
+	 * Handler that prints the rejected lines on the standard error.
+	 *
+	 * @return the handler
+	 */
+	static RejectHandler log() {
+		return (n, line, cause) -> System.err.println("Skipped line " + n + ": " + line + " (" + cause.getMessage() + ")");
+	}
+}
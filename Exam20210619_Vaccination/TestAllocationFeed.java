@@ -0,0 +1,116 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import src.AllocationFeed;
+import src.VaccineException;
+import src.Vaccines;
+
+public final class TestAllocationFeed {
+
+    private Vaccines vs;
+
+    @Before
+    public void setUp() throws VaccineException {
+    	vs = new Vaccines();
+    	Random r = new Random(1971);
+    	for(int i=0; i<20000; i++)
+    		vs.addPerson("Mario", "Rossi", "CF" + i, 1922+r.nextInt(100));
+    	vs.setAgeIntervals(30,40,50,60,70);
+    	vs.defineHub("Hub 1");
+    	vs.defineHub("Hub 2");
+    	// places for everybody, so that each week publishes many events
+    	vs.setStaff("Hub 1", 70, 60, 40);
+    	vs.setStaff("Hub 2", 40, 30, 20);
+    	vs.setHours(8,8,8,8,8,6,4);
+    }
+
+    private static void await(AllocationFeed feed, AllocationFeed.Subscription s) throws InterruptedException {
+    	long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    	while(s.getSequence()<feed.getCursor() && System.nanoTime()<end)
+    		Thread.sleep(1);
+    	assertEquals("Events not delivered", feed.getCursor(), s.getSequence());
+    }
+
+    @Test
+    public void testWraparound() throws InterruptedException {
+    	AllocationFeed feed = vs.getAllocationFeed();
+    	List<String> received = Collections.synchronizedList(new ArrayList<>());
+    	long[] expectedSeq = {0};
+    	boolean[] gap = {false};
+    	// slow enough that the planner fills the ring and waits
+    	try(AllocationFeed.Subscription s = feed.subscribe(e -> {
+    			for(int i=0; i<e.size(); i++) {
+    				gap[0] |= e.getSequence(i)!=expectedSeq[0]++;
+    				received.add(e.isAllocated(i) + " " + e.getHub(i) + " " + e.getDay(i) + " " + e.getSsn(i));
+    			}
+    			try {
+    				Thread.sleep(1);
+    			} catch(InterruptedException x) {
+    				Thread.currentThread().interrupt();
+    			}
+    		})) {
+    		List<String> expected = new ArrayList<>();
+    		while(feed.getCursor()<=2L*AllocationFeed.DEFAULT_CAPACITY) {
+    			List<Map<String, List<String>>> week = vs.weekAllocate();
+    			for(int d=0; d<7; d++)
+    				for(Map.Entry<String, List<String>> h: week.get(d).entrySet())
+    					for(String ssn: h.getValue()) {
+    						expected.add(true + " " + h.getKey() + " " + d + " " + ssn);
+    						expected.add(false + " " + h.getKey() + " " + d + " " + ssn);
+    					}
+    			vs.clearAllocation();
+    		}
+    		await(feed, s);
+    		assertTrue("Ring did not wrap around", feed.getCursor()>2L*AllocationFeed.DEFAULT_CAPACITY);
+    		assertFalse("Gap or repetition in the sequences", gap[0]);
+    		assertFalse("Subscriber evicted", s.isEvicted());
+    		assertNull("Listener failed", s.getFailure());
+    		assertEquals("Wrong number of events", expected.size(), received.size());
+    		Collections.sort(expected);
+    		List<String> sorted = new ArrayList<>(received);
+    		Collections.sort(sorted);
+    		assertEquals("Events lost or duplicated", expected, sorted);
+    	}
+    }
+
+    @Test
+    public void testStuckSubscriberEvicted() throws InterruptedException {
+    	AllocationFeed feed = vs.getAllocationFeed();
+    	feed.setMaxWait(50, TimeUnit.MILLISECONDS);
+    	CountDownLatch stuck = new CountDownLatch(1);
+    	long[] count = {0};
+    	try(AllocationFeed.Subscription slow = feed.subscribe(e -> {
+    			try {
+    				stuck.await();
+    			} catch(InterruptedException x) {
+    				Thread.currentThread().interrupt();
+    			}
+    		});
+    		AllocationFeed.Subscription live = feed.subscribe(e -> count[0] += e.size())) {
+    		long start = System.nanoTime();
+    		while(feed.getCursor()<=2L*AllocationFeed.DEFAULT_CAPACITY) {
+    			vs.weekAllocate();
+    			vs.clearAllocation();
+    		}
+    		assertTrue("Planner stalled by the stuck subscriber", System.nanoTime()-start<TimeUnit.SECONDS.toNanos(20));
+    		assertTrue("Stuck subscriber not evicted", slow.isEvicted());
+    		stuck.countDown();
+    		await(feed, live);
+    		assertFalse("Live subscriber evicted", live.isEvicted());
+    		assertEquals("Events lost by the live subscriber", feed.getCursor()+1, count[0]);
+    	}
+    }
+}
@@ -0,0 +1,141 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.VaccineException;
+import src.Vaccines;
+
+public final class TestExternalPeople {
+
+    // with this budget the runs are merged past MAX_RUNS five times, and the
+    // last merged run is larger than a part of the index sorted in the heap
+    private static final int BUDGET = 1000, PEOPLE = 82000;
+
+    private Path dir;
+    private List<String[]> people;
+
+    @Before
+    public void setUp() throws IOException {
+    	dir = Files.createTempDirectory("people");
+    	Random r = new Random(1971);
+    	people = new ArrayList<>();
+    	for(int i=0; i<PEOPLE; i++)
+    		people.add(new String[]{"Mario" + i, "Rossi", "CF" + Integer.toString(r.nextInt(Integer.MAX_VALUE), 36) + i,
+    				Integer.toString(1922+r.nextInt(100))});
+    }
+
+    @After
+    public void tearDown() throws IOException {
+    	try(Stream<Path> files = Files.walk(dir)) {
+    		files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+    	}
+    }
+
+    private Vaccines external(Path dir, int budget, int n) throws IOException, VaccineException {
+    	Vaccines v = new Vaccines();
+    	v.setExternalMode(dir, budget);
+    	add(v, 0, n);
+    	return v;
+    }
+
+    private void add(Vaccines v, int from, int to) {
+    	for(int i=from; i<to; i++) {
+    		String[] p = people.get(i);
+    		assertTrue("Person rejected " + p[2], v.addPerson(p[0], p[1], p[2], Integer.parseInt(p[3])));
+    	}
+    }
+
+    private static void setUpHubs(Vaccines v) throws VaccineException {
+    	v.setAgeIntervals(30,40,50,60,70);
+    	v.defineHub("Hub 1");
+    	v.defineHub("Hub 2");
+    	v.setStaff("Hub 1", 7, 6, 4);
+    	v.setStaff("Hub 2", 4, 3, 2);
+    	v.setHours(8,8,8,8,8,6,4);
+    }
+
+    @Test
+    public void testLookupsMatch() throws IOException, VaccineException {
+    	Vaccines vx = external(dir, BUDGET, PEOPLE);
+    	Vaccines vs = new Vaccines();
+    	add(vs, 0, PEOPLE);
+    	assertEquals("Wrong number of people", PEOPLE, vx.countPeople());
+    	// duplicates both on disk, in the merged and in the later runs, and in the buffer
+    	for(int i: new int[]{0, 40000, 81000, PEOPLE-1}) {
+    		String[] p = people.get(i);
+    		assertFalse("Duplicate accepted " + p[2], vx.addPerson("Anna", "Verdi", p[2], 1950));
+    	}
+    	assertEquals("Duplicates counted", PEOPLE, vx.countPeople());
+    	for(int i=0; i<PEOPLE; i+=7) {
+    		String ssn = people.get(i)[2];
+    		assertEquals("Wrong person " + ssn, vs.getPerson(ssn), vx.getPerson(ssn));
+    		assertEquals("Wrong age of " + ssn, vs.getAge(ssn), vx.getAge(ssn));
+    	}
+    	for(int i=0; i<100; i++) {
+    		assertNull("Missing person found", vx.getPerson("XX" + i));
+    		assertEquals("Missing person found", -1, vx.getAge("XX" + i));
+    	}
+    }
+
+    @Test
+    public void testAllocationMatches() throws IOException, VaccineException {
+    	Vaccines vx = external(dir, BUDGET, PEOPLE);
+    	Vaccines vs = new Vaccines();
+    	add(vs, 0, PEOPLE);
+    	setUpHubs(vx);
+    	setUpHubs(vs);
+    	for(int d=0; d<3; d++)
+    		for(String h: vs.getHubs()) {
+    			List<String> expected = vs.allocate(h, d), allocated = vx.allocate(h, d);
+    			assertEquals("Wrong allocated people in " + h + " on day " + d, expected.size(), allocated.size());
+    		}
+    	assertEquals("Wrong proportion", vs.propAllocated(), vx.propAllocated(), 1e-9);
+    	assertEquals("Wrong proportions by age", vs.propAllocatedAge(), vx.propAllocatedAge());
+    	assertEquals("Wrong distribution", vs.distributionAllocated(), vx.distributionAllocated());
+    }
+
+    @Test
+    public void testCursorsAcrossMerge() throws IOException, VaccineException {
+    	// 15 runs and a half full buffer, sealed without merging by the first allocation
+    	int before = 15*BUDGET + BUDGET/2;
+    	Vaccines vx = external(dir.resolve("merged"), BUDGET, before);
+    	Vaccines ref = external(dir.resolve("ref"), 2*PEOPLE, before);
+    	setUpHubs(vx);
+    	setUpHubs(ref);
+    	List<String> allocated = new ArrayList<>(vx.allocate("Hub 1", 0));
+    	assertEquals("Wrong allocation", ref.allocate("Hub 1", 0), allocated);
+    	// merges the runs read by the open cursors
+    	add(vx, before, before + 2*BUDGET);
+    	List<String> next = vx.allocate("Hub 1", 1);
+    	assertEquals("Wrong allocation after the merge", ref.allocate("Hub 1", 1), next);
+    	allocated.addAll(next);
+    	Set<String> seen = new HashSet<>();
+    	for(String ssn: allocated) {
+    		assertTrue("Person allocated twice " + ssn, seen.add(ssn));
+    		assertEquals("Person lost by the merge " + ssn, ssn, vx.getPerson(ssn).split(",")[0]);
+    	}
+    	// the runs read by the cursors are deleted only now
+    	vx.clearAllocation();
+    	for(int i=0; i<before + 2*BUDGET; i++) {
+    		String ssn = people.get(i)[2];
+    		assertEquals("Person lost by the merge " + ssn, ssn, vx.getPerson(ssn).split(",")[0]);
+    	}
+    	assertEquals("Wrong allocation after the reset", next.size(), vx.allocate("Hub 1", 1).size());
+    }
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import src.RecallScheduler;
+import src.VaccineException;
+import src.Vaccines;
+
+public final class TestRecallScheduler {
+
+    private Vaccines vs;
+
+    @Before
+    public void setUp() throws VaccineException {
+    	vs = new Vaccines();
+    	Random r = new Random(1971);
+    	for(int i=0; i<3000; i++)
+    		vs.addPerson("Mario", "Rossi", "CF" + i, 1922+r.nextInt(100));
+    	vs.setAgeIntervals(30,40,50,60,70);
+    	vs.defineHub("Hub 1");
+    	vs.defineHub("Hub 2");
+    	vs.setStaff("Hub 1", 7, 6, 4);
+    	vs.setStaff("Hub 2", 4, 3, 2);
+    	vs.setHours(8,8,8,8,8,6,4);
+    }
+
+    @Test
+    public void testRecalledOnDueDay() throws VaccineException {
+    	RecallScheduler rs = vs.enableRecalls(21);
+    	rs.setInterval("Hub 2", 28);
+    	Map<String, Integer> firstDay = new HashMap<>();
+    	Map<String, String> firstHub = new HashMap<>();
+    	Map<String, Integer> recalls = new HashMap<>();
+    	for(int w=0; w<6; w++) {
+    		assertEquals("Wrong week", w, rs.getWeek());
+    		List<Map<String, List<String>>> week = vs.weekAllocate();
+    		for(int d=0; d<7; d++)
+    			for(String h: vs.getHubs()) {
+    				for(String ssn: week.get(d).get(h)) {
+    					firstDay.put(ssn, 7*w+d);
+    					firstHub.put(ssn, h);
+    				}
+    				// the intervals keep the weekday, so every recall finds a place on its due day
+    				for(String ssn: rs.getRecalled(h, d)) {
+    					assertEquals("Recalled at another hub " + ssn, firstHub.get(ssn), h);
+    					assertEquals("Recalled on the wrong day " + ssn, firstDay.get(ssn)+rs.getInterval(h), 7*w+d);
+    					recalls.merge(ssn, 1, Integer::sum);
+    				}
+    			}
+    		vs.nextWeek();
+    	}
+    	assertEquals("Not everybody allocated", 3000, firstDay.size());
+    	assertEquals("Not everybody recalled", firstDay.keySet(), recalls.keySet());
+    	assertTrue("Person recalled twice", recalls.values().stream().allMatch(c -> c==1));
+    	assertEquals("Recalls left", 0, rs.countPending());
+    }
+
+    @Test
+    public void testDueAcrossWheelLevels() throws VaccineException {
+    	RecallScheduler rs = vs.enableRecalls(21);
+    	// due days on both sides of the slots of each level of the wheel
+    	int[] due = {21, 63, 64, 65, 127, 128, 4095, 4096, 4097, 4160, 9000};
+    	for(int i=0; i<due.length; i++)
+    		rs.schedule("CF" + i, i%2==0 ? "Hub 1" : "Hub 2", due[i]-21);
+    	assertEquals("Wrong pending recalls", due.length, rs.countPending());
+    	int[] sorted = due.clone();
+    	Arrays.sort(sorted);
+    	for(int i=0; i<sorted.length; i++) {
+    		assertEquals("Recall due before day " + sorted[i], i, rs.countDue(sorted[i]-1));
+    		assertEquals("Recall not due on day " + sorted[i], i+1, rs.countDue(sorted[i]));
+    	}
+    	assertEquals("Wrong pending recalls", due.length, rs.countPending());
+    }
+
+    @Test
+    public void testScheduledAfterCountDue() throws VaccineException {
+    	RecallScheduler rs = vs.enableRecalls(21);
+    	rs.setInterval("Hub 1", 7);
+    	rs.schedule("CF0", "Hub 1", 90-7);
+    	assertEquals("Recall not due", 1, rs.countDue(200));
+    	// due before the recall already drained by countDue
+    	rs.schedule("CF1", "Hub 1", 0);
+    	assertEquals("Recall due before its day", 0, rs.countDue(6));
+    	assertEquals("Recall not due on its day", 1, rs.countDue(7));
+    	assertEquals("Wrong pending recalls", 2, rs.countPending());
+    	vs.nextWeek();
+    	vs.weekAllocate();
+    	assertEquals("Recall not served on its day", List.of("CF1"), rs.getRecalled("Hub 1", 0));
+    	assertEquals("Recall left after it was served", 0, rs.countDue(89));
+    	assertEquals("Recall lost", 1, rs.countDue(90));
+    }
+
+    @Test
+    public void testHorizonRefusedWithRecalls() throws VaccineException {
+    	vs.planHorizon(2);
+    	try {
+    		vs.enableRecalls(21);
+    		fail("Recalls enabled after planning a horizon");
+    	} catch(VaccineException e) {
+    		// expected
+    	}
+    	Vaccines other = new Vaccines();
+    	other.enableRecalls(21);
+    	try {
+    		other.planHorizon(2);
+    		fail("Horizon planned without scheduling recalls");
+    	} catch(VaccineException e) {
+    		// expected
+    	}
+    }
+}
@@ -0,0 +1,132 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import src.LoopbackTransport;
+import src.ShardedVaccines;
+import src.VaccineException;
+import src.Vaccines;
+
+public final class TestShardedVaccines {
+
+    private static final String[] INTERVALS = {"[0,30)","[30,40)","[40,50)","[50,60)","[60,70)","[70,+)"};
+
+    private String csv;
+    private List<String> ssns;
+
+    @Before
+    public void setUp() {
+    	Random r = new Random(2021);
+    	StringBuilder b = new StringBuilder("SSN,LAST,FIRST,YEAR\n");
+    	ssns = new ArrayList<>();
+    	for(int i=0; i<10000; i++) {
+    		String ssn = "CF" + Integer.toString(r.nextInt(Integer.MAX_VALUE), 36).toUpperCase() + i;
+    		ssns.add(ssn);
+    		b.append(ssn).append(",Rossi,Mario,").append(1922+r.nextInt(100)).append('\n');
+    	}
+    	// a duplicate and a malformed line
+    	b.append(ssns.get(0)).append(",Verdi,Anna,1950\n");
+    	b.append("XX,Neri\n");
+    	csv = b.toString();
+    }
+
+    private long setUp(Vaccines v, List<Integer> rejected) throws IOException, VaccineException {
+    	v.setLoadListener((line, text) -> rejected.add(line));
+    	long n = v.loadPeople(new StringReader(csv));
+    	v.setAgeIntervals(30,40,50,60,70);
+    	for(String h: new String[]{"Hub 1","Hub 2","Hub 3"})
+    		v.defineHub(h);
+    	v.setStaff("Hub 1", 7, 6, 4);
+    	v.setStaff("Hub 2", 4, 3, 2);
+    	v.setStaff("Hub 3", 3, 3, 2);
+    	v.setHours(8,8,8,8,8,6,4);
+    	return n;
+    }
+
+    private long setUp(ShardedVaccines v, List<Integer> rejected) throws IOException, VaccineException {
+    	v.setLoadListener((line, text) -> rejected.add(line));
+    	long n = v.loadPeople(new StringReader(csv));
+    	v.setAgeIntervals(30,40,50,60,70);
+    	for(String h: new String[]{"Hub 1","Hub 2","Hub 3"})
+    		v.defineHub(h);
+    	v.setStaff("Hub 1", 7, 6, 4);
+    	v.setStaff("Hub 2", 4, 3, 2);
+    	v.setStaff("Hub 3", 3, 3, 2);
+    	v.setHours(8,8,8,8,8,6,4);
+    	return n;
+    }
+
+    @Test
+    public void testQueriesMatch() throws VaccineException, IOException {
+    	Vaccines vs = new Vaccines();
+    	List<Integer> rejected = new ArrayList<>(), shardRejected = new ArrayList<>();
+    	long loaded = setUp(vs, rejected);
+    	try(ShardedVaccines sv = new ShardedVaccines(new LoopbackTransport(4, true))) {
+    		assertEquals("Wrong number of loaded people", loaded, setUp(sv, shardRejected));
+    		assertEquals("Wrong rejected lines", rejected, shardRejected);
+    		assertEquals("Wrong number of people", vs.countPeople(), sv.countPeople());
+    		for(String ssn: ssns) {
+    			assertEquals("Wrong person " + ssn, vs.getPerson(ssn), sv.getPerson(ssn));
+    			assertEquals("Wrong age of " + ssn, vs.getAge(ssn), sv.getAge(ssn));
+    		}
+    		for(String i: INTERVALS)
+    			assertEquals("Wrong people in " + i, new HashSet<>(vs.getInInterval(i)), new HashSet<>(sv.getInInterval(i)));
+    		assertEquals("Wrong hubs", new HashSet<>(vs.getHubs()), new HashSet<>(sv.getHubs()));
+    		assertEquals("Wrong capacity", vs.estimateHourlyCapacity("Hub 2"), sv.estimateHourlyCapacity("Hub 2"));
+    		assertEquals("Wrong hours", vs.getHours(), sv.getHours());
+    		assertEquals("Wrong availability", vs.getAvailable(), sv.getAvailable());
+    	}
+    }
+
+    @Test
+    public void testSingleShardAllocationMatches() throws VaccineException, IOException {
+    	Vaccines vs = new Vaccines();
+    	setUp(vs, new ArrayList<>());
+    	try(ShardedVaccines sv = new ShardedVaccines(new LoopbackTransport(1, true))) {
+    		setUp(sv, new ArrayList<>());
+    		assertEquals("Wrong allocation", vs.allocate("Hub 1", 2), sv.allocate("Hub 1", 2));
+    		vs.clearAllocation();
+    		sv.clearAllocation();
+    		assertEquals("Wrong week allocation", vs.weekAllocate(), sv.weekAllocate());
+    		assertEquals("Wrong proportion", vs.propAllocated(), sv.propAllocated(), 1e-9);
+    		assertEquals("Wrong proportions by age", vs.propAllocatedAge(), sv.propAllocatedAge());
+    		assertEquals("Wrong distribution", vs.distributionAllocated(), sv.distributionAllocated());
+    	}
+    }
+
+    @Test
+    public void testShardedAllocationMatches() throws VaccineException, IOException {
+    	Vaccines vs = new Vaccines();
+    	setUp(vs, new ArrayList<>());
+    	try(ShardedVaccines sv = new ShardedVaccines(new LoopbackTransport(4, true))) {
+    		setUp(sv, new ArrayList<>());
+    		List<Map<String, List<String>>> expected = vs.weekAllocate();
+    		List<Map<String, List<String>>> week = sv.weekAllocate();
+    		Set<String> allocated = new HashSet<>();
+    		for(int d=0; d<7; d++)
+    			for(String h: vs.getHubs()) {
+    				assertEquals("Wrong allocated people in " + h + " on day " + d, expected.get(d).get(h).size(), week.get(d).get(h).size());
+    				for(String ssn: week.get(d).get(h))
+    					assertTrue("Person allocated twice " + ssn, allocated.add(ssn));
+    			}
+    		assertEquals("Wrong proportion", vs.propAllocated(), sv.propAllocated(), 1e-9);
+    		// the split of each day among the shards rounds the share of each age interval
+    		Map<String, Double> exp = new TreeMap<>(vs.propAllocatedAge()), act = new TreeMap<>(sv.propAllocatedAge());
+    		assertEquals("Wrong intervals", exp.keySet(), act.keySet());
+    		for(String i: exp.keySet())
+    			assertEquals("Wrong proportion in " + i, exp.get(i), act.get(i), 0.01);
+    	}
+    }
+}
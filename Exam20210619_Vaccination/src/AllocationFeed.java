@@ -0,0 +1,370 @@
+package src;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feed of the allocation events of {@link Vaccines}, for downstream systems
+ * such as notifications and dashboards.
+ * <p>
+ * Events are written by the thread using {@link Vaccines} into a ring of
+ * pre-allocated slots and published once per {@link Vaccines#allocate} or
+ * {@link Vaccines#clearAllocation}, with a single release store and no lock.
+ * Each subscriber has its own thread and sequence, and receives every event,
+ * in batches of all the events published since its previous batch.
+ * <p>
+ * When the ring is full the planner waits for the slowest subscriber,
+ * so no event is lost; the capacity should cover the allocations of a week.
+ * The wait is bounded by {@link #setMaxWait}: a subscriber still holding
+ * the slot to be written after that time is evicted, so that a stuck
+ * listener cannot stall the planner. An evicted subscription receives no
+ * more events and reports {@link Subscription#isEvicted()}.
+ */
+public class AllocationFeed {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final long MIN_PARK = 10_000, MAX_PARK = 1_000_000;
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 1_000;
+
+	/**
+	 * Receives the events of a subscription.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+
+		/**
+		 * Called with each batch of events, from the thread of the subscription.
+		 *
+		 * @param events the events, valid only during the call
+		 */
+		void onEvents(Events events);
+	}
+
+	/**
+	 * A batch of events, read in place from the ring.
+	 * <p>
+	 * The events of a subscription evicted during the call may be overwritten:
+	 * reading them then throws {@link IllegalStateException}.
+	 */
+	public final class Events {
+		private final Subscription owner;
+		private long first;
+		private int size;
+
+		private Events(Subscription owner) {
+			this.owner = owner;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Sequence number of an event; sequences start at 0 and have no gaps.
+		 *
+		 * @param i index of the event in the batch
+		 * @return the sequence
+		 */
+		public long getSequence(int i) {
+			return first+i;
+		}
+
+		/**
+		 * Tells whether the event is an allocation or a de-allocation.
+		 *
+		 * @param i index of the event in the batch
+		 * @return {@code true} for an allocation
+		 */
+		public boolean isAllocated(int i) {
+			boolean v = allocated[slot(i)];
+			check();
+			return v;
+		}
+
+		public String getHub(int i) {
+			String v = hubs[slot(i)];
+			check();
+			return v;
+		}
+
+		public int getDay(int i) {
+			int v = days[slot(i)];
+			check();
+			return v;
+		}
+
+		public String getSsn(int i) {
+			String v = ssns[slot(i)];
+			check();
+			return v;
+		}
+
+		// after the read: the planner marks the eviction before overwriting
+		private void check() {
+			VarHandle.acquireFence();
+			if(owner.evicted)
+				throw new IllegalStateException("Subscription evicted, events overwritten");
+		}
+
+		private int slot(int i) {
+			if(i<0 || i>=size)
+				throw new IndexOutOfBoundsException(i);
+			return (int)(first+i) & mask;
+		}
+	}
+
+	/**
+	 * Sequence padded to its own cache lines, so that the writes of
+	 * a thread do not invalidate the line read by the others.
+	 */
+	static class Sequence {
+		private static final VarHandle VALUE;
+		static {
+			try {
+				VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+			} catch(ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		long p1, p2, p3, p4, p5, p6, p7;
+		private volatile long value;
+		long q1, q2, q3, q4, q5, q6, q7;
+
+		Sequence(long v) {
+			value = v;
+		}
+
+		long get() {
+			return (long)VALUE.getAcquire(this);
+		}
+
+		void set(long v) {
+			VALUE.setRelease(this, v);
+		}
+	}
+
+	/**
+	 * A subscriber, running on its own daemon thread until closed.
+	 */
+	public class Subscription implements AutoCloseable {
+		protected final Listener listener;
+		protected final Sequence sequence;
+		protected final Events events = new Events(this);
+		protected final Thread thread;
+		protected volatile boolean running = true;
+		protected volatile boolean evicted = false;
+		protected volatile RuntimeException failure;
+
+		Subscription(Listener listener, String name) {
+			this.listener = listener;
+			this.sequence = new Sequence(cursor.get());
+			thread = new Thread(this::run, name);
+			thread.setDaemon(true);
+		}
+
+		private void run() {
+			long seq = sequence.get();
+			int idle = 0;
+			long park = MIN_PARK;
+			while(running) {
+				long available = cursor.get();
+				if(available>seq) {
+					events.first = seq+1;
+					events.size = (int)(available-seq);
+					try {
+						listener.onEvents(events);
+					} catch(RuntimeException e) {
+						failure = e;
+					}
+					seq = available;
+					sequence.set(seq);
+					idle = 0;
+					park = MIN_PARK;
+				} else if(++idle<100)
+					Thread.onSpinWait();
+				else {
+					// an idle subscriber must not take the CPU of the planner
+					LockSupport.parkNanos(park);
+					park = Math.min(2*park, MAX_PARK);
+				}
+			}
+		}
+
+		/**
+		 * Sequence of the last event passed to the listener.
+		 *
+		 * @return the sequence, -1 if none
+		 */
+		public long getSequence() {
+			return sequence.get();
+		}
+
+		/**
+		 * Last exception thrown by the listener; the events of that batch
+		 * count as delivered.
+		 *
+		 * @return the exception, or {@code null}
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Tells whether the subscription was stopped for not keeping up
+		 * with the planner within the maximum wait.
+		 *
+		 * @return {@code true} if evicted
+		 */
+		public boolean isEvicted() {
+			return evicted;
+		}
+
+		/**
+		 * Stop the subscription, after the batch being delivered if any.
+		 */
+		@Override
+		public void close() {
+			running = false;
+			unsubscribe(this);
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final int mask;
+	private final boolean[] allocated;
+	private final String[] hubs;
+	private final int[] days;
+	private final String[] ssns;
+	// last published sequence
+	private final Sequence cursor = new Sequence(-1);
+	private volatile Subscription[] subscriptions = new Subscription[0];
+	private int subscribed;
+	// producer side: next sequence to write and cached sequence of the slowest subscriber
+	private long next;
+	private long gate = -1;
+	private volatile long maxWait = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT_MILLIS);
+
+	/**
+	 * Create a feed.
+	 *
+	 * @param capacity number of slots, rounded up to a power of 2
+	 */
+	AllocationFeed(int capacity) {
+		int n = Integer.highestOneBit(Math.max(2, capacity)-1)<<1;
+		mask = n-1;
+		allocated = new boolean[n];
+		hubs = new String[n];
+		days = new int[n];
+		ssns = new String[n];
+	}
+
+	/**
+	 * Start a subscription receiving the events published from now on.
+	 *
+	 * @param listener the listener of the events
+	 * @return the subscription
+	 */
+	public synchronized Subscription subscribe(Listener listener) {
+		Subscription s = new Subscription(listener, "allocation-feed-" + (subscribed++));
+		Subscription[] a = Arrays.copyOf(subscriptions, subscriptions.length+1);
+		a[a.length-1] = s;
+		subscriptions = a;
+		// events published while registering are not delivered
+		s.sequence.set(cursor.get());
+		s.thread.start();
+		return s;
+	}
+
+	private synchronized void unsubscribe(Subscription s) {
+		subscriptions = Arrays.stream(subscriptions).filter(x->x!=s).toArray(Subscription[]::new);
+	}
+
+	/**
+	 * Set how long the planner waits for a slot of the ring held by a subscriber,
+	 * before evicting it; {@value #DEFAULT_MAX_WAIT_MILLIS} ms by default.
+	 *
+	 * @param timeout the maximum wait
+	 * @param unit the unit of {@code timeout}
+	 */
+	public void setMaxWait(long timeout, TimeUnit unit) {
+		maxWait = unit.toNanos(Math.max(0, timeout));
+	}
+
+	private void evict(Subscription s) {
+		s.evicted = true;
+		// the flag must be visible before the slots are overwritten
+		VarHandle.fullFence();
+		s.running = false;
+		unsubscribe(s);
+		LockSupport.unpark(s.thread);
+	}
+
+	/**
+	 * Sequence of the last published event.
+	 *
+	 * @return the sequence, -1 if none
+	 */
+	public long getCursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * Write an event; it is visible to the subscribers after {@link #publish()}.
+	 */
+	void put(boolean alloc, String hub, int day, String ssn) {
+		long seq = next;
+		if(seq-allocated.length>gate)
+			gate = awaitSlot(seq-allocated.length);
+		int i = (int)seq & mask;
+		allocated[i] = alloc;
+		hubs[i] = hub;
+		days[i] = day;
+		ssns[i] = ssn;
+		next = seq+1;
+	}
+
+	/**
+	 * Make the events written so far visible to the subscribers.
+	 */
+	void publish() {
+		if(next-1>cursor.get())
+			cursor.set(next-1);
+	}
+
+	/**
+	 * Wait until the given sequence has been consumed by every subscriber,
+	 * evicting those that have not consumed it within the maximum wait.
+	 *
+	 * @return the sequence of the slowest subscriber, or of the last event written
+	 * 			if there are none, as a subscriber starts from the published ones
+	 */
+	private long awaitSlot(long wrap) {
+		// subscribers can only consume what has been published
+		publish();
+		long start = System.nanoTime();
+		for(int spin=0; ; spin++) {
+			long min = next-1;
+			for(Subscription s: subscriptions)
+				min = Math.min(min, s.sequence.get());
+			if(min>=wrap)
+				return min;
+			if(spin<100) {
+				Thread.onSpinWait();
+			} else if(System.nanoTime()-start<maxWait) {
+				LockSupport.parkNanos(1_000);
+			} else {
+				for(Subscription s: subscriptions)
+					if(s.sequence.get()<wrap)
+						evict(s);
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package src;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * Allocation plan of a hub.
+ *
+ * For each day the plan keeps the allocated persons in an array, in
+ * order of allocation; the SSNs are obtained through a view that reads
+ * them only when its elements are read. Plans of the same system can be
+ * compared, the persons being ordered by their ordinal, i.e. their
+ * position in the order of registration (see {@link Vaccines#addPerson}).
+ * <p>
+ * Allocations are only appended, and emptying the plan replaces the
+ * arrays, so views and copies share the arrays with the plan and are
+ * not affected by the following changes.
+ * <p>
+ * The arrays hold the persons rather than their ordinals: with compressed
+ * references both take 4 bytes per allocation, and an ordinal could only
+ * be turned back into a person through one more table of all the persons
+ * by ordinal, as the persons of the system are kept in a map by SSN. The
+ * plan saves the list objects and, through the views, the copies of the
+ * SSNs made by each allocation.
+ */
+public class AllocationPlan {
+
+	// the persons of the system, by SSN
+	protected final Map<String, Person> people;
+	protected Person[][] days = new Person[7][];
+	protected int[] sizes = new int[7];
+	// days whose array is shared with a copy and must be cloned before appending
+	protected boolean[] shared = new boolean[7];
+
+	/**
+	 * Create an empty plan.
+	 *
+	 * @param people the persons of the system, by SSN
+	 */
+	AllocationPlan(Map<String, Person> people) {
+		this.people = people;
+	}
+
+	void add(int day, Person p) {
+		if(day>=days.length) {
+			int len = Math.max(day+1, days.length*2);
+			days = Arrays.copyOf(days, len);
+			sizes = Arrays.copyOf(sizes, len);
+			shared = Arrays.copyOf(shared, len);
+		}
+		Person[] a = days[day];
+		int n = sizes[day];
+		if(a==null)
+			a = new Person[16];
+		else if(n==a.length)
+			a = Arrays.copyOf(a, n*2);
+		else if(shared[day])
+			a = a.clone();
+		days[day] = a;
+		shared[day] = false;
+		a[n] = p;
+		sizes[day] = n+1;
+	}
+
+	void forEachPerson(Consumer<Person> action) {
+		for(int d=0; d<days.length; d++)
+			for(int i=0; i<sizes[d]; i++)
+				action.accept(days[d][i]);
+	}
+
+	void forEachPerson(int day, Consumer<Person> action) {
+		for(int i=0; i<size(day); i++)
+			action.accept(days[day][i]);
+	}
+
+	void clear() {
+		days = new Person[7][];
+		sizes = new int[7];
+		shared = new boolean[7];
+	}
+
+	void clear(int day) {
+		if(day<days.length) {
+			days[day] = null;
+			sizes[day] = 0;
+			shared[day] = false;
+		}
+	}
+
+	/**
+	 * Number of persons allocated in a day.
+	 *
+	 * @param day day of week index (0 = Monday)
+	 * @return the number of persons
+	 */
+	public int size(int day) {
+		return day>=0 && day<sizes.length ? sizes[day] : 0;
+	}
+
+	/**
+	 * Ordinals of the persons allocated in a day, in order of allocation.
+	 *
+	 * @param day day of week index (0 = Monday)
+	 * @return a copy of the ordinals
+	 */
+	public int[] getOrdinals(int day) {
+		int n = size(day);
+		int[] o = new int[n];
+		for(int i=0; i<n; i++)
+			o[i] = days[day][i].ordinal;
+		return o;
+	}
+
+	private Person[] sorted(int day) {
+		int n = size(day);
+		Person[] a = n==0 ? new Person[0] : Arrays.copyOf(days[day], n);
+		Arrays.sort(a, BY_ORDINAL);
+		return a;
+	}
+
+	private static final Comparator<Person> BY_ORDINAL = Comparator.comparingInt(p->p.ordinal);
+
+	/**
+	 * SSNs of the persons allocated in a day, in order of allocation.
+	 *
+	 * @param day day of week index (0 = Monday)
+	 * @return an unmodifiable view of the allocations made so far
+	 */
+	public List<String> getAllocated(int day) {
+		int n = size(day);
+		return new SsnView(n==0 ? null : days[day], n);
+	}
+
+	/**
+	 * Copy the plan; the arrays are shared until either plan changes them.
+	 *
+	 * @return the copy
+	 */
+	public AllocationPlan copy() {
+		AllocationPlan c = new AllocationPlan(people);
+		c.days = days.clone();
+		c.sizes = sizes.clone();
+		Arrays.fill(shared, true);
+		c.shared = shared.clone();
+		return c;
+	}
+
+	/**
+	 * Compare this plan with another one, day by day,
+	 * regardless of the order of allocation.
+	 *
+	 * @param other the other plan, e.g. of a later planning run
+	 * @return the persons allocated only by the other plan
+	 * 			and those allocated only by this one
+	 * @throws IllegalArgumentException if the plans belong to different systems
+	 */
+	public Diff diff(AllocationPlan other) {
+		if(other.people!=people)
+			throw new IllegalArgumentException("Plans of different systems");
+		int n = Math.max(sizes.length, other.sizes.length);
+		Diff d = new Diff(n);
+		for(int i=0; i<n; i++) {
+			Person[] a = sorted(i), b = other.sorted(i);
+			d.added[i] = minus(b, a);
+			d.removed[i] = minus(a, b);
+		}
+		return d;
+	}
+
+	// elements of a that are not in b, both sorted by ordinal
+	private static Person[] minus(Person[] a, Person[] b) {
+		Person[] r = new Person[a.length];
+		int n = 0, j = 0;
+		for(Person x: a) {
+			while(j<b.length && b[j].ordinal<x.ordinal)
+				j++;
+			if(j==b.length || b[j]!=x)
+				r[n++] = x;
+		}
+		return Arrays.copyOf(r, n);
+	}
+
+	/**
+	 * Differences between two plans.
+	 */
+	public static class Diff {
+		protected final Person[][] added;
+		protected final Person[][] removed;
+
+		Diff(int days) {
+			added = new Person[days][];
+			removed = new Person[days][];
+		}
+
+		/**
+		 * SSNs of the persons allocated in a day only by the other plan.
+		 *
+		 * @param day day of week index (0 = Monday)
+		 * @return the SSNs, in order of ordinal
+		 */
+		public List<String> getAdded(int day) {
+			return day<added.length ? new SsnView(added[day], added[day].length) : List.of();
+		}
+
+		/**
+		 * SSNs of the persons allocated in a day only by this plan.
+		 *
+		 * @param day day of week index (0 = Monday)
+		 * @return the SSNs, in order of ordinal
+		 */
+		public List<String> getRemoved(int day) {
+			return day<removed.length ? new SsnView(removed[day], removed[day].length) : List.of();
+		}
+
+		/**
+		 * Tells whether the two plans allocate the same persons in every day.
+		 *
+		 * @return {@code true} if there are no differences
+		 */
+		public boolean isEmpty() {
+			for(int i=0; i<added.length; i++)
+				if(added[i].length!=0 || removed[i].length!=0)
+					return false;
+			return true;
+		}
+	}
+
+	private static class SsnView extends AbstractList<String> implements RandomAccess {
+		private final Person[] persons;
+		private final int size;
+
+		SsnView(Person[] persons, int size) {
+			this.persons = persons;
+			this.size = size;
+		}
+
+		@Override
+		public String get(int index) {
+			if(index<0 || index>=size)
+				throw new IndexOutOfBoundsException(index);
+			return persons[index].getCodfisc();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,671 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * People of {@link Vaccines} kept on disk, for populations that do not fit in the heap.
+ *
+ * Added persons are buffered up to the budget, then sorted by birth year
+ * and SSN and written to a run file. The summary of each run, with the
+ * number of persons and the file offset of each birth year, stays in
+ * the heap: the cursors use it to read only the birth years they need,
+ * merging the runs lazily. When there are more than {@link #MAX_RUNS}
+ * runs they are merged into a single one.
+ * <p>
+ * Each run has an index file with a 64-bit fingerprint of each SSN and
+ * the offset of the person in the run, sorted by fingerprint; the index
+ * is built a part at a time, each part no larger than the buffer. The heap
+ * keeps for each run a Bloom filter of the fingerprints, of about
+ * {@value #FILTER_BITS} bits per person, and the first fingerprint of each
+ * page of the index, so looking up an SSN, e.g. to detect duplicates, reads
+ * a page of the index and a person only for the runs whose filter may
+ * contain it. Besides these, the heap holds only the buffer, the summaries
+ * and the open cursors.
+ * <p>
+ * An allocation cursor reads the runs existing when it is opened: the
+ * persons added later are allocated only after {@link #reset()}.
+ */
+class ExternalPeople {
+
+	static final int MAX_RUNS = 16;
+	private static final int READ_BUFFER = 1 << 14;
+	// entries of (fingerprint, offset) in a page of an index
+	private static final int PAGE = 256;
+	static final int FILTER_BITS = 10;
+	private static final int FILTER_HASHES = 7;
+	// entries of the index sorted at once, per person of the budget and at least
+	static final int PART_RATIO = 6;
+	private static final int MIN_PART = 1 << 16;
+
+	/**
+	 * A person as stored in the runs.
+	 */
+	static class Record {
+		final int year;
+		final String ssn, last, first;
+
+		Record(int year, String ssn, String last, String first) {
+			this.year = year;
+			this.ssn = ssn;
+			this.last = last;
+			this.first = first;
+		}
+	}
+
+	static final Comparator<Record> ORDER = Comparator.<Record>comparingInt(r->r.year).thenComparing(r->r.ssn);
+
+	/**
+	 * A sorted run and its summary, one entry per birth year,
+	 * with the index of its persons by fingerprint.
+	 */
+	static class Run {
+		final Path file;
+		final int[] years;
+		final int[] counts;
+		final long[] offsets;
+		final Path index;
+		final long size;
+		// first fingerprint of each page of the index
+		final long[] fences;
+		final long[] filter;
+		// opened by the first lookup
+		private FileChannel indexChannel, dataChannel;
+
+		Run(Path file, int[] years, int[] counts, long[] offsets, Path index, long size, long[] fences, long[] filter) {
+			this.file = file;
+			this.years = years;
+			this.counts = counts;
+			this.offsets = offsets;
+			this.index = index;
+			this.size = size;
+			this.fences = fences;
+			this.filter = filter;
+		}
+
+		/**
+		 * Look for a person through the index.
+		 *
+		 * @return the person, {@code null} if not in this run
+		 */
+		Record find(long f, String ssn) throws IOException {
+			if(!mayContain(filter, f))
+				return null;
+			// the entries equal to f start in the last page beginning below f
+			int lo = 0, hi = fences.length;
+			while(lo<hi) {
+				int mid = (lo+hi) >>> 1;
+				if(fences[mid]<f)
+					lo = mid+1;
+				else
+					hi = mid;
+			}
+			long e = (long)Math.max(0, lo-1)*PAGE;
+			if(indexChannel==null)
+				indexChannel = FileChannel.open(index);
+			ByteBuffer page = ByteBuffer.allocate(PAGE*16);
+			while(e<size) {
+				page.clear();
+				while(page.hasRemaining() && indexChannel.read(page, e*16+page.position())>0)
+					;
+				page.flip();
+				for(; page.remaining()>=16; e++) {
+					long k = page.getLong(), offset = page.getLong();
+					if(k>f)
+						return null;
+					if(k==f) {
+						Record r = read(offset);
+						if(r.ssn.equals(ssn))
+							return r;
+					}
+				}
+			}
+			return null;
+		}
+
+		private Record read(long offset) throws IOException {
+			if(dataChannel==null)
+				dataChannel = FileChannel.open(file);
+			dataChannel.position(offset);
+			// not closed, it would close the channel
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(dataChannel), 512));
+			return new Record(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+		}
+
+		/**
+		 * Close the channels of the lookups.
+		 */
+		void close() throws IOException {
+			try {
+				if(indexChannel!=null)
+					indexChannel.close();
+			} finally {
+				if(dataChannel!=null)
+					dataChannel.close();
+			}
+		}
+	}
+
+	protected final Path dir;
+	protected final int budget;
+	protected HashMap<String, Record> buffer = new HashMap<>();
+	protected ArrayList<Run> runs = new ArrayList<>();
+	// runs merged while cursors were still reading them
+	protected ArrayList<Run> retired = new ArrayList<>();
+	protected long size;
+	private int nextRun;
+	// allocation cursors by interval
+	protected HashMap<Long, Cursor> intervals = new HashMap<>();
+
+	/**
+	 * Create an empty store.
+	 *
+	 * @param dir directory of the run files
+	 * @param budget maximum number of persons buffered in the heap
+	 */
+	ExternalPeople(Path dir, int budget) {
+		this.dir = dir;
+		this.budget = Math.max(1, budget);
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Add a person.
+	 *
+	 * @return {@code false} if the SSN is duplicate
+	 */
+	boolean add(String first, String last, String ssn, int year) throws IOException {
+		if(find(ssn)!=null)
+			return false;
+		buffer.put(ssn, new Record(year, ssn, last, first));
+		size++;
+		if(buffer.size()>=budget)
+			seal();
+		return true;
+	}
+
+	/**
+	 * Number of persons born in the given years, from the summaries of the runs.
+	 */
+	long count(int fromYear, int toYear) {
+		long n = 0;
+		for(Run r: runs)
+			for(int i=0; i<r.years.length; i++)
+				if(r.years[i]>=fromYear && r.years[i]<=toYear)
+					n += r.counts[i];
+		for(Record r: buffer.values())
+			if(r.year>=fromYear && r.year<=toYear)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Look for a person.
+	 *
+	 * @return the person, {@code null} if absent
+	 */
+	Record find(String ssn) throws IOException {
+		Record r = buffer.get(ssn);
+		if(r!=null)
+			return r;
+		long f = fingerprint(ssn);
+		for(int i=runs.size()-1; r==null && i>=0; i--)
+			r = runs.get(i).find(f, ssn);
+		return r;
+	}
+
+	/**
+	 * Pass the persons born in the given years to an action, oldest first.
+	 */
+	void scan(int fromYear, int toYear, Consumer<Record> action) throws IOException {
+		seal();
+		try(Cursor c = new Cursor(fromYear, toYear)) {
+			while(c.hasNext())
+				action.accept(c.next());
+		}
+	}
+
+	/**
+	 * Allocation cursor of an age interval, that returns the persons of
+	 * the interval oldest first; it is kept open until {@link #reset()},
+	 * so that every allocation continues from the previous one, and does
+	 * not return the persons added after it was opened.
+	 *
+	 * @param low lower bound of the interval (included)
+	 * @param high upper bound of the interval (excluded),
+	 * 			{@link Integer#MAX_VALUE} if unbounded
+	 * @return the cursor
+	 */
+	Cursor interval(int low, int high) throws IOException {
+		Long key = key(low, high);
+		Cursor c = intervals.get(key);
+		if(c==null) {
+			seal();
+			int from = high==Integer.MAX_VALUE ? Integer.MIN_VALUE : Vaccines.CURRENT_YEAR-high+1;
+			c = new Cursor(from, Vaccines.CURRENT_YEAR-low);
+			intervals.put(key, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Number of persons allocated from an age interval since the last {@link #reset()}.
+	 */
+	int allocated(int low, int high) {
+		Cursor c = intervals.get(key(low, high));
+		return c==null ? 0 : c.taken;
+	}
+
+	long allocated() {
+		long n = 0;
+		for(Cursor c: intervals.values())
+			n += c.taken;
+		return n;
+	}
+
+	/**
+	 * Close the allocation cursors, so that the allocation restarts.
+	 */
+	void reset() throws IOException {
+		for(Cursor c: intervals.values())
+			c.close();
+		intervals.clear();
+		for(Run r: retired)
+			Files.deleteIfExists(r.file);
+		retired.clear();
+	}
+
+	private static Long key(int low, int high) {
+		return ((long)low<<32) | (high & 0xffffffffL);
+	}
+
+	/**
+	 * Write the buffered persons to a new run.
+	 */
+	private void seal() throws IOException {
+		if(buffer.isEmpty())
+			return;
+		Record[] sorted = buffer.values().toArray(new Record[0]);
+		Arrays.sort(sorted, ORDER);
+		buffer.clear();
+		runs.add(write(Arrays.asList(sorted).iterator(), sorted.length));
+		if(runs.size()>MAX_RUNS) {
+			Run merged;
+			long total = 0;
+			for(Run r: runs)
+				total += r.size;
+			try(Cursor c = new Cursor(Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+				merged = write(new Iterator<Record>() {
+					@Override
+					public boolean hasNext() {
+						return c.hasNext();
+					}
+
+					@Override
+					public Record next() {
+						try {
+							return c.next();
+						} catch(IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				}, total);
+			}
+			for(Run r: runs) {
+				r.close();
+				Files.deleteIfExists(r.index);
+			}
+			if(intervals.isEmpty())
+				for(Run r: runs)
+					Files.deleteIfExists(r.file);
+			else
+				retired.addAll(runs);
+			runs.clear();
+			runs.add(merged);
+		}
+	}
+
+	/**
+	 * Write a run and its index.
+	 *
+	 * @param sorted the persons in order
+	 * @param size the number of persons
+	 */
+	private Run write(Iterator<Record> sorted, long size) throws IOException {
+		int id = nextRun++;
+		Path file = dir.resolve("people-" + id + ".run");
+		Path entries = dir.resolve("people-" + id + ".tmp");
+		int[] years = new int[16], counts = new int[16];
+		long[] offsets = new long[16];
+		long[] filter = new long[(int)Math.max(1, (size*FILTER_BITS+63)/64)];
+		int n = -1;
+		long pos = 0;
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+				LongWriter ix = new LongWriter(entries, 1 << 16)) {
+			while(sorted.hasNext()) {
+				Record r = sorted.next();
+				if(n<0 || years[n]!=r.year) {
+					if(++n==years.length) {
+						years = Arrays.copyOf(years, n*2);
+						counts = Arrays.copyOf(counts, n*2);
+						offsets = Arrays.copyOf(offsets, n*2);
+					}
+					years[n] = r.year;
+					offsets[n] = pos;
+				}
+				counts[n]++;
+				long f = fingerprint(r.ssn);
+				add(filter, f);
+				ix.put(f, pos);
+				out.writeInt(r.year);
+				out.writeUTF(r.ssn);
+				out.writeUTF(r.last);
+				out.writeUTF(r.first);
+				pos += 4 + utfLength(r.ssn) + utfLength(r.last) + utfLength(r.first);
+			}
+		}
+		n++;
+		Path index = dir.resolve("people-" + id + ".idx");
+		long[] fences = sortIndex(entries, size, index);
+		Files.delete(entries);
+		return new Run(file, Arrays.copyOf(years, n), Arrays.copyOf(counts, n), Arrays.copyOf(offsets, n),
+				index, size, fences, filter);
+	}
+
+	/**
+	 * Sort the entries of an index by fingerprint. The entries are first
+	 * split by range of fingerprint into files small enough to be sorted
+	 * in the heap: an entry takes 16 bytes, so a range of {@value #PART_RATIO}
+	 * times the budget takes about the space of a full buffer.
+	 *
+	 * @return the first fingerprint of each page
+	 */
+	private long[] sortIndex(Path entries, long size, Path index) throws IOException {
+		long perPart = Math.max(PART_RATIO*(long)budget, MIN_PART);
+		int parts = (int)Math.max(1, (size+perPart-1)/perPart);
+		ArrayList<Path> files = new ArrayList<>();
+		if(parts==1)
+			files.add(entries);
+		else
+			split(entries, parts, files);
+		long[] fences = new long[(int)((size+PAGE-1)/PAGE)];
+		long e = 0;
+		try(LongWriter out = new LongWriter(index, 1 << 16)) {
+			for(Path f: files) {
+				long[] pairs = readPairs(f);
+				if(f!=entries)
+					Files.delete(f);
+				int n = pairs.length/2;
+				sort(pairs, 0, n);
+				for(int i=0; i<n; i++, e++) {
+					if(e%PAGE==0)
+						fences[(int)(e/PAGE)] = pairs[2*i];
+					out.put(pairs[2*i], pairs[2*i+1]);
+				}
+			}
+		}
+		return fences;
+	}
+
+	private void split(Path entries, int parts, ArrayList<Path> files) throws IOException {
+		LongWriter[] outs = new LongWriter[parts];
+		try(FileChannel in = FileChannel.open(entries)) {
+			for(int p=0; p<parts; p++) {
+				files.add(Files.createTempFile(dir, "people-", ".part"));
+				outs[p] = new LongWriter(files.get(p), 1 << 13);
+			}
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			while(in.read(buf)>=0) {
+				buf.flip();
+				while(buf.remaining()>=16) {
+					long k = buf.getLong(), v = buf.getLong();
+					outs[part(k, parts)].put(k, v);
+				}
+				buf.compact();
+			}
+		} finally {
+			for(LongWriter out: outs)
+				if(out!=null)
+					out.close();
+		}
+	}
+
+	// range of a fingerprint, ranges being in the order of the fingerprints
+	private static int part(long f, int parts) {
+		long u = f ^ Long.MIN_VALUE;
+		// high bits of the unsigned product u*parts
+		return (int)(Math.multiplyHigh(u, parts) + (u>>63 & parts));
+	}
+
+	// the content of a file of pairs of longs
+	private static long[] readPairs(Path file) throws IOException {
+		try(FileChannel ch = FileChannel.open(file)) {
+			long[] a = new long[(int)(ch.size()/16)*2];
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			for(int n=0; n<a.length; ) {
+				if(ch.read(buf)<0)
+					throw new EOFException(file.toString());
+				buf.flip();
+				int k = Math.min(buf.remaining()/8, a.length-n);
+				buf.asLongBuffer().get(a, n, k);
+				buf.position(buf.position()+8*k);
+				n += k;
+				buf.compact();
+			}
+			return a;
+		}
+	}
+
+	// sort the pairs (key, value) stored one after the other, by key
+	private static void sort(long[] a, int from, int to) {
+		while(to-from>16) {
+			long pivot = a[2*((from+to) >>> 1)];
+			int i = from, j = to-1;
+			while(i<=j) {
+				while(a[2*i]<pivot)
+					i++;
+				while(a[2*j]>pivot)
+					j--;
+				if(i<=j)
+					swap(a, i++, j--);
+			}
+			// recurse on the smaller side
+			if(j-from<to-i) {
+				sort(a, from, j+1);
+				from = i;
+			} else {
+				sort(a, i, to);
+				to = j+1;
+			}
+		}
+		for(int i=from+1; i<to; i++)
+			for(int j=i; j>from && a[2*j-2]>a[2*j]; j--)
+				swap(a, j-1, j);
+	}
+
+	private static void swap(long[] a, int i, int j) {
+		long k = a[2*i], v = a[2*i+1];
+		a[2*i] = a[2*j];
+		a[2*i+1] = a[2*j+1];
+		a[2*j] = k;
+		a[2*j+1] = v;
+	}
+
+	private static void add(long[] filter, long f) {
+		long bits = filter.length*64L, step = Long.rotateLeft(f, 32) | 1;
+		for(int i=0; i<FILTER_HASHES; i++, f+=step) {
+			long b = bit(f, bits);
+			filter[(int)(b>>>6)] |= 1L << b;
+		}
+	}
+
+	private static boolean mayContain(long[] filter, long f) {
+		long bits = filter.length*64L, step = Long.rotateLeft(f, 32) | 1;
+		for(int i=0; i<FILTER_HASHES; i++, f+=step) {
+			long b = bit(f, bits);
+			if((filter[(int)(b>>>6)] & 1L << b)==0)
+				return false;
+		}
+		return true;
+	}
+
+	// the upper 32 bits of the hash scaled to [0, bits), without a division
+	private static long bit(long h, long bits) {
+		return (h>>>32) * bits >>> 32;
+	}
+
+	// bytes written by writeUTF
+	private static int utfLength(String s) {
+		int n = 2;
+		for(int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			n += c>=1 && c<=0x7f ? 1 : c<=0x7ff ? 2 : 3;
+		}
+		return n;
+	}
+
+	private static long fingerprint(String ssn) {
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i<ssn.length(); i++)
+			h = (h ^ ssn.charAt(i)) * 0x100000001b3L;
+		return h==0 ? 1 : h;
+	}
+
+	/**
+	 * Writes pairs of longs to a file through a buffer.
+	 */
+	private static class LongWriter implements Closeable {
+		private final FileChannel ch;
+		private final ByteBuffer buf;
+
+		LongWriter(Path file, int buffer) throws IOException {
+			ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			buf = ByteBuffer.allocate(buffer);
+		}
+
+		void put(long k, long v) throws IOException {
+			if(buf.remaining()<16)
+				flush();
+			buf.putLong(k).putLong(v);
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			while(buf.hasRemaining())
+				ch.write(buf);
+			buf.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				ch.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the persons of a run born in the given years.
+	 */
+	static class RunCursor implements Closeable {
+		final int run;
+		private DataInputStream in;
+		private long remaining;
+		Record head;
+
+		RunCursor(int run, Run r, int fromYear, int toYear) throws IOException {
+			this.run = run;
+			int i = 0;
+			while(i<r.years.length && r.years[i]<fromYear)
+				i++;
+			for(int j=i; j<r.years.length && r.years[j]<=toYear; j++)
+				remaining += r.counts[j];
+			if(remaining>0) {
+				FileChannel ch = FileChannel.open(r.file);
+				ch.position(r.offsets[i]);
+				in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), READ_BUFFER));
+			}
+			advance();
+		}
+
+		boolean advance() throws IOException {
+			if(remaining==0) {
+				head = null;
+				close();
+				return false;
+			}
+			head = new Record(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+			remaining--;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(in!=null)
+				in.close();
+			in = null;
+		}
+	}
+
+	/**
+	 * Merges the runs, returning the persons born in the given years
+	 * in order of birth year and SSN.
+	 */
+	class Cursor implements Closeable {
+		private final PriorityQueue<RunCursor> queue = new PriorityQueue<>(
+				Comparator.<RunCursor, Record>comparing(c->c.head, ORDER).thenComparingInt(c->c.run));
+		protected int taken;
+
+		Cursor(int fromYear, int toYear) throws IOException {
+			for(int i=0; i<runs.size(); i++) {
+				RunCursor c = new RunCursor(i, runs.get(i), fromYear, toYear);
+				if(c.head!=null)
+					queue.add(c);
+			}
+		}
+
+		boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		Record next() throws IOException {
+			RunCursor c = queue.poll();
+			Record r = c.head;
+			if(c.advance())
+				queue.add(c);
+			taken++;
+			return r;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for(RunCursor c: queue)
+				c.close();
+			queue.clear();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plan of the vaccinations over a horizon of several weeks, rolled forward day by day.
+ * <p>
+ * Days are numbered from the Monday of the first week (day 0). Each week of the
+ * horizon has an allocation plan per hub, filled day by day with the rule of
+ * {@link Vaccines#allocate} from the people not yet booked, so a horizon
+ * of one week books the same people as {@link Vaccines#weekAllocate}.
+ * <p>
+ * {@link #roll()} commits the current day; when all the days of the first week
+ * are committed, the week leaves the horizon and only the new last week is planned.
+ * {@link #replan(int)} plans again the tail of the horizon, e.g. after changes of
+ * staff or the registration of new people, leaving the people booked in the
+ * earlier weeks and in the committed days where they are.
+ * <p>
+ * Booked people are marked as allocated in {@link Vaccines}, so its statistics
+ * cover the whole horizon; the planner takes the place of {@link Vaccines#weekAllocate}
+ * and {@link Vaccines#clearAllocation}, which must not be used together with it.
+ * Bookings are not published on the allocation feed and do not schedule recalls:
+ * {@link Vaccines#planHorizon} is refused once either is enabled, and a feed
+ * requested afterwards only sees the allocations made outside the planner.
+ */
+public class HorizonPlanner {
+
+	protected final Vaccines vaccines;
+	protected final int length;
+	// plans of the weeks in the horizon, by hub, from the first week
+	protected final ArrayDeque<Map<String, AllocationPlan>> weeks = new ArrayDeque<>();
+	protected int firstWeek = 0;
+	// first day not committed yet
+	protected int today = 0;
+
+	HorizonPlanner(Vaccines vaccines, int length) {
+		this.vaccines = vaccines;
+		this.length = length;
+		for(int w=0; w<length; w++)
+			weeks.add(new HashMap<>());
+		plan(0);
+	}
+
+	/**
+	 * Number of weeks in the horizon.
+	 *
+	 * @return the weeks
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Index of the first week in the horizon, counted from 0.
+	 *
+	 * @return the week
+	 */
+	public int getFirstWeek() {
+		return firstWeek;
+	}
+
+	/**
+	 * First day not committed yet; the week of day {@code d} is {@code d/7}.
+	 *
+	 * @return the day
+	 */
+	public int getToday() {
+		return today;
+	}
+
+	/**
+	 * Allocation of a week, with the same structure as the result of
+	 * {@link Vaccines#weekAllocate}.
+	 *
+	 * @param week index of the week
+	 * @return the daily allocations, or {@code null} if the week is not in the horizon
+	 */
+	public List<Map<String, List<String>>> getAllocation(int week) {
+		Map<String, AllocationPlan> plans = week(week);
+		if(plans==null)
+			return null;
+		List<Map<String, List<String>>> back = new ArrayList<>();
+		for(int d=0; d<7; d++) {
+			Map<String, List<String>> day = new HashMap<>();
+			for(Hub h: vaccines.hubs.values())
+				day.put(h.getName(), plan(plans, h).getAllocated(d));
+			back.add(day);
+		}
+		return back;
+	}
+
+	/**
+	 * Allocation plan of a hub in a week.
+	 *
+	 * @param week index of the week
+	 * @param hubName name of the hub
+	 * @return a copy of the plan, or {@code null} if the week is not in
+	 * 			the horizon or the hub is undefined
+	 */
+	public AllocationPlan getPlan(int week, String hubName) {
+		Map<String, AllocationPlan> plans = week(week);
+		Hub h = vaccines.hubs.get(hubName);
+		return plans==null || h==null ? null : plan(plans, h).copy();
+	}
+
+	/**
+	 * Commit the current day and move to the next one; when a week is
+	 * completed, a new week is planned at the end of the horizon.
+	 *
+	 * @return the SSNs of the persons committed by hub
+	 */
+	public Map<String, List<String>> roll() {
+		Map<String, AllocationPlan> plans = weeks.getFirst();
+		Map<String, List<String>> back = new HashMap<>();
+		for(Hub h: vaccines.hubs.values())
+			back.put(h.getName(), plan(plans, h).getAllocated(today%7));
+		today++;
+		if(today%7==0) {
+			weeks.removeFirst();
+			weeks.addLast(new HashMap<>());
+			firstWeek++;
+			plan((firstWeek+length-1)*7);
+		}
+		return back;
+	}
+
+	/**
+	 * Plan again the days not committed from a week to the end of the horizon;
+	 * the people booked in those days are released before planning.
+	 *
+	 * @param week index of the first week to plan again
+	 * @throws IllegalArgumentException if the week is not in the horizon
+	 */
+	public void replan(int week) {
+		if(week(week)==null)
+			throw new IllegalArgumentException("Week not in the horizon: " + week);
+		int from = Math.max(today, week*7);
+		for(int d=from; d<(firstWeek+length)*7; d++)
+			for(AllocationPlan p: week(d/7).values()) {
+				p.forEachPerson(d%7, x->x.setAllocated(false));
+				p.clear(d%7);
+			}
+		plan(from);
+	}
+
+	private Map<String, AllocationPlan> week(int week) {
+		if(week<firstWeek || week>=firstWeek+length)
+			return null;
+		int i = firstWeek;
+		for(Map<String, AllocationPlan> w: weeks)
+			if(i++==week)
+				return w;
+		return null;
+	}
+
+	private AllocationPlan plan(Map<String, AllocationPlan> plans, Hub h) {
+		return plans.computeIfAbsent(h.getName(), k->new AllocationPlan(vaccines.persone));
+	}
+
+	/**
+	 * Fill the days from the given one to the end of the horizon.
+	 */
+	private void plan(int from) {
+		Candidates c = new Candidates();
+		for(int d=from; d<(firstWeek+length)*7; d++) {
+			Map<String, AllocationPlan> plans = week(d/7);
+			for(Hub h: vaccines.hubs.values())
+				c.allocate(plan(plans, h), d%7, Math.max(0, vaccines.getDailyAvailable(h.getName(), d%7)));
+		}
+	}
+
+	/**
+	 * The free people, in the order {@link Vaccines#allocate} considers them:
+	 * for each age interval in the order of the map of people, and then all
+	 * of them from the oldest. Since people are only booked during a planning
+	 * pass, each list is read once from the start to the end.
+	 */
+	private class Candidates {
+		private final int[] ages;
+		private final Person[][] lists;
+		private final int[] next;
+
+		Candidates() {
+			ages = vaccines.agegaps.stream().mapToInt(Integer::intValue).toArray();
+			List<List<Person>> intervals = new ArrayList<>();
+			for(int a=0; a<ages.length; a++)
+				intervals.add(new ArrayList<>());
+			List<Person> all = new ArrayList<>();
+			for(Person p: vaccines.persone.values())
+				if(!p.isAllocated()) {
+					all.add(p);
+					int a = interval(age(p));
+					if(a>=0)
+						intervals.get(a).add(p);
+				}
+			// stable, as the sort of allocate
+			all.sort(Comparator.comparingInt(p->-age(p)));
+			lists = new Person[ages.length+1][];
+			for(int a=0; a<ages.length; a++)
+				lists[a] = intervals.get(a).toArray(new Person[0]);
+			lists[ages.length] = all.toArray(new Person[0]);
+			next = new int[lists.length];
+		}
+
+		private int age(Person p) {
+			return Vaccines.CURRENT_YEAR-p.getAnno();
+		}
+
+		private int interval(int age) {
+			int a = ages.length-1;
+			while(a>=0 && age<ages[a])
+				a--;
+			return a;
+		}
+
+		void allocate(AllocationPlan plan, int day, int n) {
+			for(int a=ages.length-1; a>=0; a--)
+				n -= take(a, plan, day, n*4/10);
+			if(n>0)
+				take(ages.length, plan, day, n);
+		}
+
+		private int take(int list, AllocationPlan plan, int day, int limit) {
+			Person[] l = lists[list];
+			int i = next[list], k = 0;
+			for(; k<limit && i<l.length; i++)
+				if(!l[i].isAllocated()) {
+					plan.add(day, l[i]);
+					l[i].setAllocated(true);
+					k++;
+				}
+			next[list] = i;
+			return k;
+		}
+	}
+}
@@ -7,11 +7,16 @@ public class Hub {
 	protected int nDoc;
 	protected int nNurse;
 	protected int others;
-	protected HashMap<Integer, ArrayList<Person>> allocted = new HashMap<>();
+	protected AllocationPlan allocted;
 	public Hub(String name) {
+		this(name, new HashMap<>());
+	}
+
+	Hub(String name, Map<String, Person> people) {
 		super();
 		this.name = name;
 		this.nDoc=0;
+		this.allocted = new AllocationPlan(people);
 	}
 
 	public String getName() {
@@ -42,7 +47,7 @@ public class Hub {
 		this.others = others;
 	}
 	public void emptyAlloc() {
-		allocted.values().stream().flatMap(l->l.stream()).forEach(p->p.setAllocated(false));
+		allocted.forEachPerson(p->p.setAllocated(false));
 		allocted.clear();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * Transport running all the shards in the current JVM,
+ * each one on its own thread.
+ *
+ * When {@code serialize} is set, tasks and results are copied through
+ * Java serialization as a transport to another JVM would do, so
+ * that tests catch tasks that capture what cannot be shipped.
+ */
+public class LoopbackTransport implements ShardTransport {
+
+	protected final Vaccines[] shards;
+	protected final ExecutorService[] threads;
+	protected final boolean serialize;
+
+	/**
+	 * Create the transport with empty in-memory shards.
+	 *
+	 * @param n number of shards
+	 * @param serialize {@code true} to copy tasks and results through serialization
+	 */
+	public LoopbackTransport(int n, boolean serialize) {
+		this(n, serialize, i->new Vaccines());
+	}
+
+	/**
+	 * Create the transport.
+	 *
+	 * @param n number of shards
+	 * @param serialize {@code true} to copy tasks and results through serialization
+	 * @param factory creates the shard with the given index
+	 */
+	public LoopbackTransport(int n, boolean serialize, IntFunction<Vaccines> factory) {
+		this.serialize = serialize;
+		shards = new Vaccines[n];
+		threads = new ExecutorService[n];
+		for(int i=0; i<n; i++) {
+			shards[i] = factory.apply(i);
+			String name = "shard-" + i;
+			threads[i] = Executors.newSingleThreadExecutor(r->{
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	@Override
+	public int size() {
+		return shards.length;
+	}
+
+	@Override
+	public <T> CompletableFuture<T> submit(int shard, ShardTask<T> task) {
+		Vaccines v = shards[shard];
+		CompletableFuture<T> f = new CompletableFuture<>();
+		try {
+			ShardTask<T> t = serialize ? copy(task) : task;
+			threads[shard].execute(()->{
+				try {
+					T r = t.run(v);
+					f.complete(serialize && r!=null ? copy(r) : r);
+				} catch(Throwable e) {
+					f.completeExceptionally(e);
+				}
+			});
+		} catch(IOException | RuntimeException e) {
+			f.completeExceptionally(e);
+		}
+		return f;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T copy(T o) throws IOException {
+		if(!(o instanceof Serializable))
+			throw new NotSerializableException(o.getClass().getName());
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(b)) {
+			out.writeObject(o);
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(b.toByteArray()))) {
+			return (T) in.readObject();
+		} catch(ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		for(ExecutorService t: threads)
+			t.shutdown();
+	}
+}
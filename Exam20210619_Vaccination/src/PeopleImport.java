@@ -0,0 +1,324 @@
+package src;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import csv.CsvException;
+import csv.CsvIngestion;
+
+/**
+ * Bulk import of people from many CSV sources, e.g. one per local health authority.
+ * <p>
+ * The sources are read and parsed by a pool of threads, at most
+ * {@link #maxOpen(int)} and twice the processors, each source on one thread;
+ * the parsed batches go to a single sink that adds them to {@link Vaccines} under a lock,
+ * one batch at a time, rejecting the duplicate SSNs. When the same SSN
+ * appears in several sources, the first batch reaching the sink wins.
+ *
+ * <pre>
+ * PeopleImport.Report r = vaccines.bulkImport()
+ *         .add(Path.of("asl-to1.csv"))
+ *         .add("asl-cn1", reader)
+ *         .onReject((source, line, text) -&gt; ...)
+ *         .run();
+ * </pre>
+ */
+public class PeopleImport {
+
+	/**
+	 * Receives the lines that cannot be imported.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+
+		/**
+		 * Called for each rejected line; calls are never concurrent.
+		 *
+		 * @param source the name of the source
+		 * @param line the number of the line, starting at 1 with the header
+		 * @param text the offending line
+		 */
+		void reject(String source, int line, String text);
+	}
+
+	@FunctionalInterface
+	private interface Opener {
+		CsvIngestion.Stats run(CsvIngestion<Person> ingestion) throws IOException, CsvException;
+	}
+
+	/**
+	 * Counters of a source.
+	 */
+	public static class Source {
+		protected final String name;
+		private final Opener opener;
+		protected long lines;
+		protected long added;
+		protected long rejected;
+		protected long nanos;
+		protected Exception failure;
+
+		Source(String name, Opener opener) {
+			this.name = name;
+			this.opener = opener;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Number of lines read after the header.
+		 *
+		 * @return the lines
+		 */
+		public long getLines() {
+			return lines;
+		}
+
+		public long getAdded() {
+			return added;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+
+		/**
+		 * Time from the start of the import to the end of this source,
+		 * in nanoseconds.
+		 *
+		 * @return the time
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Reason why the source was not read to the end, e.g. a
+		 * {@link VaccineException} for a wrong header or an {@link IOException}.
+		 *
+		 * @return the exception, or {@code null} if the source was read completely
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + added + " added, " + rejected + " rejected"
+					+ (failure!=null ? ", failed: " + failure.getMessage() : "");
+		}
+	}
+
+	/**
+	 * Result of an import.
+	 */
+	public static class Report {
+		protected final List<Source> sources;
+		protected final long nanos;
+
+		Report(List<Source> sources, long nanos) {
+			this.sources = Collections.unmodifiableList(sources);
+			this.nanos = nanos;
+		}
+
+		/**
+		 * Counters of the sources, in the order they were added.
+		 *
+		 * @return the sources
+		 */
+		public List<Source> getSources() {
+			return sources;
+		}
+
+		public long getAdded() {
+			return sources.stream().mapToLong(Source::getAdded).sum();
+		}
+
+		public long getRejected() {
+			return sources.stream().mapToLong(Source::getRejected).sum();
+		}
+
+		public long getLines() {
+			return sources.stream().mapToLong(Source::getLines).sum();
+		}
+
+		/**
+		 * Duration of the whole import, in nanoseconds.
+		 *
+		 * @return the duration
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Lines read per second over all the sources.
+		 *
+		 * @return the throughput
+		 */
+		public double getLinesPerSecond() {
+			return nanos==0 ? 0 : getLines()*1e9/nanos;
+		}
+
+		@Override
+		public String toString() {
+			return getAdded() + " added, " + getRejected() + " rejected from " + sources.size()
+					+ " sources in " + nanos/1_000_000 + " ms";
+		}
+	}
+
+	protected final Vaccines vaccines;
+	protected final ArrayList<Source> sources = new ArrayList<>();
+	protected Listener listener = null;
+	protected int maxOpen = 256;
+	protected Charset charset = StandardCharsets.UTF_8;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	PeopleImport(Vaccines vaccines) {
+		this.vaccines = vaccines;
+	}
+
+	/**
+	 * Add a source; the reader is closed at the end of the import.
+	 *
+	 * @param name the name of the source, reported with its errors
+	 * @param in the CSV content
+	 * @return this import
+	 */
+	public PeopleImport add(String name, Reader in) {
+		sources.add(new Source(name, ing -> {
+			try {
+				return ing.run(in);
+			} finally {
+				in.close();
+			}
+		}));
+		return this;
+	}
+
+	/**
+	 * Add a file, named after its path.
+	 *
+	 * @param file the CSV file
+	 * @return this import
+	 */
+	public PeopleImport add(Path file) {
+		Charset cs = charset;
+		sources.add(new Source(file.toString(), ing -> ing.run(file, cs)));
+		return this;
+	}
+
+	/**
+	 * Charset of the files added after this call; UTF-8 by default.
+	 *
+	 * @param cs the charset
+	 * @return this import
+	 */
+	public PeopleImport charset(Charset cs) {
+		this.charset = cs;
+		return this;
+	}
+
+	/**
+	 * Maximum number of sources open at the same time; 256 by default.
+	 *
+	 * @param n the maximum
+	 * @return this import
+	 */
+	public PeopleImport maxOpen(int n) {
+		this.maxOpen = Math.max(1, n);
+		return this;
+	}
+
+	public PeopleImport onReject(Listener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Read all the sources and wait for the end.
+	 * <p>
+	 * {@link Vaccines} must not be used by other threads in the meanwhile.
+	 *
+	 * @return the counters of the import
+	 */
+	public Report run() {
+		long start = System.nanoTime();
+		int n = Math.min(Math.min(maxOpen, sources.size()), 2*Runtime.getRuntime().availableProcessors());
+		ExecutorService threads = Executors.newFixedThreadPool(Math.max(1, n), r->{
+			Thread t = new Thread(r, "people-import");
+			t.setDaemon(true);
+			return t;
+		});
+		for(Source s: sources)
+			threads.submit(()->{
+				try {
+					load(s);
+				} finally {
+					s.nanos = System.nanoTime()-start;
+				}
+				return null;
+			});
+		threads.shutdown();
+		boolean interrupted = false;
+		while(true) {
+			try {
+				if(threads.awaitTermination(1, TimeUnit.DAYS))
+					break;
+			} catch(InterruptedException e) {
+				if(!interrupted)
+					threads.shutdownNow();
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		return new Report(new ArrayList<>(sources), System.nanoTime()-start);
+	}
+
+	private void load(Source s) {
+		CsvIngestion<Person> ing = new CsvIngestion<Person>(Vaccines.PERSON,
+				b -> {
+					lock.lock();
+					try {
+						for(int i=0; i<b.size(); i++)
+							if(vaccines.store(b.get(i)))
+								s.added++;
+							else
+								b.reject(i, new VaccineException("Duplicate SSN"));
+					} finally {
+						lock.unlock();
+					}
+				}, Vaccines.PEOPLE_COLUMNS)
+			.exactHeader(true)
+			.onReject((n, line, e) -> {
+				lock.lock();
+				try {
+					s.rejected++;
+					if(listener!=null)
+						listener.reject(s.name, (int)n, line);
+				} finally {
+					lock.unlock();
+				}
+			});
+		try {
+			s.lines = s.opener.run(ing).getLines();
+		} catch(CsvException e) {
+			s.failure = new VaccineException("Wrong header names");
+		} catch(IOException | RuntimeException e) {
+			s.failure = e;
+		}
+	}
+}
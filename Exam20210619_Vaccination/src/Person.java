@@ -6,6 +6,8 @@ public class Person {
 	protected String codfisc;
 	protected int anno;
 	protected boolean allocated=false;
+	// position in the order of registration in Vaccines
+	protected int ordinal;
 	protected Hub hub;
 	public Hub getHub() {
 		return hub;
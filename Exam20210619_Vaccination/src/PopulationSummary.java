@@ -0,0 +1,68 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only summary of a {@link Vaccines} system, with what is needed to
+ * simulate its allocations: the number of people in each age interval,
+ * and the hubs with their staff and the working hours.
+ *
+ * @see Vaccines#summarize()
+ */
+public class PopulationSummary {
+
+	protected final int[] ages;
+	protected final long[] people;
+	protected final long outside;
+	protected final List<String> hubs;
+	protected final int[][] staff;
+	protected final int[] hours;
+
+	/**
+	 * Create a summary.
+	 *
+	 * @param ages lower bounds of the age intervals, ascending
+	 * @param people people in each interval
+	 * @param outside people younger than the first interval, allocated only
+	 * 			when nobody else is left
+	 * @param hubs names of the hubs, in order of allocation
+	 * @param staff doctors, nurses and other personnel of each hub
+	 * @param hours working hours of the days of the week, {@code null} if not defined
+	 */
+	PopulationSummary(int[] ages, long[] people, long outside, List<String> hubs, int[][] staff, int[] hours) {
+		this.ages = ages;
+		this.people = people;
+		this.outside = outside;
+		this.hubs = Collections.unmodifiableList(new ArrayList<>(hubs));
+		this.staff = staff;
+		this.hours = hours;
+	}
+
+	/**
+	 * Number of people in the system.
+	 *
+	 * @return the number of people
+	 */
+	public long getPeople() {
+		long n = outside;
+		for(long p: people)
+			n += p;
+		return n;
+	}
+
+	public List<String> getHubs() {
+		return hubs;
+	}
+
+	/**
+	 * Label of an age interval, as in {@link Vaccines#getAgeIntervals()}.
+	 *
+	 * @param i index of the interval, 0 for the youngest
+	 * @return the label
+	 */
+	String label(int i) {
+		return "["+ages[i]+","+(i==ages.length-1 ? "+" : String.valueOf(ages[i+1]))+")";
+	}
+}
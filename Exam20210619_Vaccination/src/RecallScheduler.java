@@ -0,0 +1,364 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Scheduler of the second doses.
+ * <p>
+ * Each person allocated by {@link Vaccines#allocate} is recalled at the same hub
+ * after the interval of the vaccine given by that hub. When a hub is allocated,
+ * the recalls due on that day, or overdue, take its places first, and only the
+ * remaining places go to first doses.
+ * <p>
+ * Days are counted from the Monday of week 0: day {@code d} of the open week
+ * (see {@link #getWeek()}) is {@code 7*week+d}. The recalls scheduled and served
+ * while allocating the open week are undone by {@link Vaccines#clearAllocation},
+ * and become final with {@link Vaccines#nextWeek}.
+ * <p>
+ * Due dates are kept in a hierarchical timing wheel: a level of 64 one-day slots
+ * for the current block of 64 days, a level of 64 slots of 64 days, and a list
+ * for the farther dates, each level cascading into the lower one when its time
+ * comes. Scheduling and draining a recall are O(1) amortised, and recalls are
+ * stored in arrays of persons and primitives, with no object per recall; a
+ * recall scheduled for a day already drained is sorted into the backlog.
+ */
+public class RecallScheduler {
+
+	private static final int BITS = 6, SLOTS = 1<<BITS, MASK = SLOTS-1;
+
+	/**
+	 * Recalls already due at a hub, in order of due day.
+	 */
+	private class Backlog {
+		final int index;
+		Person[] persons = new Person[64];
+		int[] dues = new int[64];
+		int head;
+		int end;
+		// head at the start of the open week
+		int weekHead;
+		// recalls served in the open week
+		final AllocationPlan recalled = new AllocationPlan(vaccines.persone);
+
+		Backlog(int index) {
+			this.index = index;
+		}
+
+		void add(Person p, int due) {
+			if(end==persons.length) {
+				if(weekHead>0) {
+					// drop the recalls served in the previous weeks
+					System.arraycopy(persons, weekHead, persons, 0, end-weekHead);
+					Arrays.fill(persons, end-weekHead, end, null);
+					System.arraycopy(dues, weekHead, dues, 0, end-weekHead);
+					end -= weekHead;
+					head -= weekHead;
+					weekHead = 0;
+				}
+				if(end*2>persons.length) {
+					persons = Arrays.copyOf(persons, persons.length*2);
+					dues = Arrays.copyOf(dues, dues.length*2);
+				}
+			}
+			// the wheel drains in due order, only recalls scheduled late come before others
+			int i = end++;
+			for(; i>head && dues[i-1]>due; i--) {
+				persons[i] = persons[i-1];
+				dues[i] = dues[i-1];
+			}
+			persons[i] = p;
+			dues[i] = due;
+		}
+	}
+
+	protected final Vaccines vaccines;
+	protected final int defaultInterval;
+	protected final HashMap<String, Integer> intervals = new HashMap<>();
+	protected int week = 0;
+	private final HashMap<String, Backlog> backlogs = new HashMap<>();
+	// backlogs by index, as stored in the wheel
+	private final ArrayList<Backlog> indexes = new ArrayList<>();
+	private final Wheel wheel = new Wheel();
+	// recalls scheduled in the open week: the persons, and their (hub index, due day)
+	private Person[] pendingPersons = new Person[64];
+	private int[] pending = new int[2*64];
+	private int pendingSize;
+
+	RecallScheduler(Vaccines vaccines, int interval) {
+		this.vaccines = vaccines;
+		this.defaultInterval = interval;
+	}
+
+	/**
+	 * Define the interval of the vaccine given by a hub.
+	 *
+	 * @param hubName name of the hub
+	 * @param days days between the first and the second dose, at least 7
+	 * @throws VaccineException in case of undefined hub or invalid interval
+	 */
+	public void setInterval(String hubName, int days) throws VaccineException {
+		if(!vaccines.hubs.containsKey(hubName))
+			throw new VaccineException("Hub non presente");
+		if(days<7)
+			throw new VaccineException("Intervallo non valido");
+		intervals.put(hubName, days);
+	}
+
+	/**
+	 * Days between the first and the second dose at a hub.
+	 *
+	 * @param hubName name of the hub
+	 * @return the interval
+	 */
+	public int getInterval(String hubName) {
+		return intervals.getOrDefault(hubName, defaultInterval);
+	}
+
+	/**
+	 * Index of the week being allocated, from 0.
+	 *
+	 * @return the week
+	 */
+	public int getWeek() {
+		return week;
+	}
+
+	/**
+	 * Schedule the recall of a person who received the first dose outside
+	 * the allocation, e.g. before the system was in place; the person is
+	 * marked as allocated and the recall is not undone by
+	 * {@link Vaccines#clearAllocation}.
+	 *
+	 * @param ssn "codice fiscale" of the person
+	 * @param hubName name of the hub of the recall
+	 * @param day day of the first dose, from the Monday of week 0
+	 * @throws VaccineException in case of undefined person or hub
+	 */
+	public void schedule(String ssn, String hubName, int day) throws VaccineException {
+		Person p = vaccines.persone.get(ssn);
+		if(p==null)
+			throw new VaccineException("Persona non presente");
+		if(!vaccines.hubs.containsKey(hubName))
+			throw new VaccineException("Hub non presente");
+		p.setAllocated(true);
+		insert(p, backlog(hubName), day+getInterval(hubName));
+	}
+
+	/**
+	 * Persons recalled at a hub on a day of the open week.
+	 *
+	 * @param hubName name of the hub
+	 * @param d day of week index (0 = Monday)
+	 * @return the SSNs of the persons, in order of due day
+	 */
+	public List<String> getRecalled(String hubName, int d) {
+		Backlog b = backlogs.get(hubName);
+		return b==null ? List.of() : b.recalled.getAllocated(d);
+	}
+
+	/**
+	 * Number of recalls scheduled and not served yet.
+	 *
+	 * @return the recalls
+	 */
+	public long countPending() {
+		long n = wheel.size + pendingSize;
+		for(Backlog b: indexes)
+			n += b.end-b.head;
+		return n;
+	}
+
+	/**
+	 * Number of recalls due up to a day and not served yet.
+	 *
+	 * @param day the day, from the Monday of week 0
+	 * @return the recalls
+	 */
+	public long countDue(int day) {
+		wheel.advance(day);
+		long n = 0;
+		for(Backlog b: indexes)
+			for(int i=b.head; i<b.end && b.dues[i]<=day; i++)
+				n++;
+		return n;
+	}
+
+	private Backlog backlog(String hubName) {
+		Backlog b = backlogs.get(hubName);
+		if(b==null) {
+			b = new Backlog(indexes.size());
+			backlogs.put(hubName, b);
+			indexes.add(b);
+		}
+		return b;
+	}
+
+	/**
+	 * Add a recall to the wheel, or to the backlog, in order of due day,
+	 * if its day has been drained already, e.g. by {@link #countDue}.
+	 */
+	private void insert(Person p, Backlog b, int due) {
+		if(due<wheel.now)
+			b.add(p, due);
+		else
+			wheel.add(p, b.index, due);
+	}
+
+	/**
+	 * Give the places of a hub on a day of the open week to the due recalls.
+	 *
+	 * @return the places taken
+	 */
+	int serve(Hub h, int d, int n) {
+		int day = 7*week+d;
+		wheel.advance(day);
+		Backlog b = backlog(h.getName());
+		int k = 0;
+		for(; k<n && b.head<b.end && b.dues[b.head]<=day; k++)
+			b.recalled.add(d, b.persons[b.head++]);
+		return k;
+	}
+
+	/**
+	 * Schedule the recall of a person allocated on a day of the open week.
+	 */
+	void schedule(Person p, Hub h, int d) {
+		if(pendingSize==pendingPersons.length) {
+			pendingPersons = Arrays.copyOf(pendingPersons, pendingSize*2);
+			pending = Arrays.copyOf(pending, pendingSize*4);
+		}
+		pendingPersons[pendingSize] = p;
+		pending[2*pendingSize] = backlog(h.getName()).index;
+		pending[2*pendingSize+1] = 7*week+d+getInterval(h.getName());
+		pendingSize++;
+	}
+
+	/**
+	 * Undo the recalls scheduled and served in the open week.
+	 */
+	void reopen() {
+		Arrays.fill(pendingPersons, 0, pendingSize, null);
+		pendingSize = 0;
+		for(Backlog b: indexes) {
+			b.head = b.weekHead;
+			b.recalled.clear();
+		}
+	}
+
+	/**
+	 * Make the recalls of the open week final and open the next one.
+	 */
+	void commit() {
+		for(int i=0; i<pendingSize; i++) {
+			insert(pendingPersons[i], indexes.get(pending[2*i]), pending[2*i+1]);
+			pendingPersons[i] = null;
+		}
+		pendingSize = 0;
+		for(Backlog b: indexes) {
+			b.weekHead = b.head;
+			b.recalled.clear();
+		}
+		week++;
+	}
+
+	/**
+	 * Two-level timing wheel of due days, with an overflow list, over
+	 * a pool of nodes linked by index; each slot is a FIFO list.
+	 */
+	private class Wheel {
+		private Person[] person = new Person[1024];
+		private int[] hub = new int[1024];
+		private int[] due = new int[1024];
+		private int[] next = new int[1024];
+		private int used = 0;
+		private int free = -1;
+		// heads and tails of the slots: level 0, level 1 and the overflow list
+		private final int[] heads = new int[2*SLOTS+1];
+		private final int[] tails = new int[2*SLOTS+1];
+		// first day not drained
+		int now = 0;
+		long size = 0;
+
+		Wheel() {
+			Arrays.fill(heads, -1);
+		}
+
+		void add(Person p, int h, int d) {
+			int n = free;
+			if(n>=0)
+				free = next[n];
+			else {
+				if(used==person.length) {
+					person = Arrays.copyOf(person, used*2);
+					hub = Arrays.copyOf(hub, used*2);
+					due = Arrays.copyOf(due, used*2);
+					next = Arrays.copyOf(next, used*2);
+				}
+				n = used++;
+			}
+			person[n] = p;
+			hub[n] = h;
+			due[n] = d;
+			size++;
+			insert(n);
+		}
+
+		private void insert(int n) {
+			int d = due[n];
+			int slot;
+			if(d>>>BITS==now>>>BITS)
+				slot = d&MASK;
+			else if(d>>>2*BITS==now>>>2*BITS)
+				slot = SLOTS+(d>>>BITS&MASK);
+			else
+				slot = 2*SLOTS;
+			next[n] = -1;
+			if(heads[slot]<0)
+				heads[slot] = n;
+			else
+				next[tails[slot]] = n;
+			tails[slot] = n;
+		}
+
+		/**
+		 * Move the recalls due up to the given day to the backlogs of their hubs.
+		 */
+		void advance(int day) {
+			while(now<=day) {
+				int slot = now&MASK;
+				for(int n=take(slot); n>=0; ) {
+					int nx = next[n];
+					indexes.get(hub[n]).add(person[n], due[n]);
+					person[n] = null;
+					next[n] = free;
+					free = n;
+					size--;
+					n = nx;
+				}
+				now++;
+				if((now&MASK)==0) {
+					if((now&(SLOTS*SLOTS-1))==0)
+						cascade(2*SLOTS);
+					cascade(SLOTS+(now>>>BITS&MASK));
+				}
+			}
+		}
+
+		private int take(int slot) {
+			int n = heads[slot];
+			heads[slot] = -1;
+			return n;
+		}
+
+		private void cascade(int slot) {
+			for(int n=take(slot); n>=0; ) {
+				int nx = next[n];
+				insert(n);
+				n = nx;
+			}
+		}
+	}
+}
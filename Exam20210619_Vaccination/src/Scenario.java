@@ -0,0 +1,60 @@
+package src;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Staffing scenario for {@link StaffingSimulator}: the personnel of some
+ * hubs and the working hours, replacing those of the system.
+ */
+public class Scenario {
+
+	protected final String name;
+	protected final Map<String, int[]> staff = new HashMap<>();
+	protected int[] hours;
+
+	public Scenario(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Set the personnel of a hub, as {@link Vaccines#setStaff}.
+	 *
+	 * @param hub name of the hub
+	 * @param doctors number of doctors
+	 * @param nurses number of nurses
+	 * @param others number of other personnel
+	 * @return this scenario
+	 * @throws VaccineException if any number is not greater than 0
+	 */
+	public Scenario staff(String hub, int doctors, int nurses, int others) throws VaccineException {
+		if(doctors<=0 || nurses<=0 || others<=0)
+			throw new VaccineException("Errore numero personale");
+		staff.put(hub, new int[]{doctors, nurses, others});
+		return this;
+	}
+
+	/**
+	 * Set the working hours, as {@link Vaccines#setHours}.
+	 *
+	 * @param h workings hours for the 7 days
+	 * @return this scenario
+	 * @throws VaccineException if there are not exactly 7 valid elements
+	 */
+	public Scenario hours(int... h) throws VaccineException {
+		if(h.length!=7)
+			throw new VaccineException("7 giorni nella settimana");
+		for(int i: h) if(i<0 || i>12) throw new VaccineException("Orario non valido");
+		this.hours = h.clone();
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,25 @@
+package src;
+
+import java.io.Serializable;
+
+/**
+ * Operation sent to a shard of {@link ShardedVaccines}.
+ *
+ * Tasks are serializable, so that a transport can ship them to a shard
+ * in another JVM; they should capture only serializable values and
+ * return serializable results.
+ *
+ * @param <T> the type of the result
+ */
+@FunctionalInterface
+public interface ShardTask<T> extends Serializable {
+
+	/**
+	 * Run the operation on the shard.
+	 *
+	 * @param shard the people and hubs of the shard
+	 * @return the result
+	 * @throws Exception if the operation fails
+	 */
+	T run(Vaccines shard) throws Exception;
+}
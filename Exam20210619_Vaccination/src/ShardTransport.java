@@ -0,0 +1,32 @@
+package src;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivers the tasks of {@link ShardedVaccines} to the shards.
+ *
+ * Each shard must run its tasks one at a time and in order of submission.
+ */
+public interface ShardTransport extends Closeable {
+
+	/**
+	 * Number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	int size();
+
+	/**
+	 * Run a task on a shard.
+	 *
+	 * @param <T> the type of the result
+	 * @param shard index of the shard
+	 * @param task the task
+	 * @return the result, completed exceptionally if the task fails
+	 */
+	<T> CompletableFuture<T> submit(int shard, ShardTask<T> task);
+
+	@Override
+	void close();
+}
@@ -0,0 +1,431 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import csv.CsvException;
+import csv.CsvIngestion;
+
+/**
+ * Coordinator of a vaccination system whose people are split among
+ * several {@link Vaccines} shards by hash of the SSN.
+ * <p>
+ * The operations on a single person go to the shard of the person;
+ * hubs, hours and age intervals are replicated on every shard; counts,
+ * intervals and statistics are gathered from all the shards.
+ * <p>
+ * The places of a hub in a day are split among the shards in proportion
+ * to their people, assigning the remainders by largest fraction and then
+ * by shard index, so the split depends only on the counts; places a shard
+ * cannot fill are split again among the other shards.
+ */
+public class ShardedVaccines implements Closeable {
+
+	protected final ShardTransport transport;
+	protected BiConsumer<Integer, String> listener = null;
+
+	/**
+	 * Create the coordinator.
+	 *
+	 * @param transport the transport to the shards
+	 */
+	public ShardedVaccines(ShardTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Index of the shard of a person; {@link String#hashCode()}
+	 * is the same in every JVM.
+	 *
+	 * @param ssn "codice fiscale" of the person
+	 * @return the index of the shard
+	 */
+	public int shardOf(String ssn) {
+		return Math.floorMod(ssn.hashCode(), transport.size());
+	}
+
+	// R1
+	public boolean addPerson(String firstName, String lastName, String ssn, int y) {
+		return join(transport.submit(shardOf(ssn), v->v.addPerson(firstName, lastName, ssn, y)));
+	}
+
+	public int countPeople() {
+		int n = 0;
+		for(int c: gather(v->v.countPeople()))
+			n += c;
+		return n;
+	}
+
+	public String getPerson(String ssn) {
+		return join(transport.submit(shardOf(ssn), v->v.getPerson(ssn)));
+	}
+
+	public int getAge(String ssn) {
+		return join(transport.submit(shardOf(ssn), v->v.getAge(ssn)));
+	}
+
+	public void setAgeIntervals(int... breaks) {
+		gather(v->{
+			v.setAgeIntervals(breaks);
+			return null;
+		});
+	}
+
+	public Collection<String> getAgeIntervals() {
+		return join(transport.submit(0, v->new ArrayList<>(v.getAgeIntervals())));
+	}
+
+	public Collection<String> getInInterval(String range) {
+		ArrayList<String> back = new ArrayList<>();
+		for(ArrayList<String> l: gather(v->new ArrayList<>(v.getInInterval(range))))
+			back.addAll(l);
+		return back;
+	}
+
+	// R2
+	public void defineHub(String name) throws VaccineException {
+		gatherChecked(v->{
+			v.defineHub(name);
+			return null;
+		});
+	}
+
+	public Collection<String> getHubs() {
+		return join(transport.submit(0, v->new ArrayList<>(v.getHubs())));
+	}
+
+	public void setStaff(String name, int doctors, int nNurses, int o) throws VaccineException {
+		gatherChecked(v->{
+			v.setStaff(name, doctors, nNurses, o);
+			return null;
+		});
+	}
+
+	public int estimateHourlyCapacity(String hubName) throws VaccineException {
+		return joinChecked(transport.submit(0, v->v.estimateHourlyCapacity(hubName)));
+	}
+
+	// R3
+	/**
+	 * Load people information stored in CSV format, sending each batch
+	 * of lines to the shards at once.
+	 *
+	 * @param people {@code Reader} for the CSV content
+	 * @return number of correctly added people, plus one for the header line
+	 * @throws IOException in case of IO error
+	 * @throws VaccineException in case of error in the header
+	 * @see Vaccines#loadPeople
+	 */
+	public long loadPeople(Reader people) throws IOException, VaccineException {
+		// counts the header, as Vaccines.loadPeople
+		long[] added = {1};
+		int n = transport.size();
+		try {
+			new CsvIngestion<String[]>((r, h) -> new String[]{r.getString(h.col(2)), r.getString(h.col(1)), r.getString(h.col(0)), String.valueOf(r.getInt(h.col(3)))},
+					b -> {
+						ArrayList<ArrayList<String[]>> rows = new ArrayList<>();
+						ArrayList<ArrayList<Integer>> index = new ArrayList<>();
+						for(int s=0; s<n; s++) {
+							rows.add(new ArrayList<>());
+							index.add(new ArrayList<>());
+						}
+						for(int i=0; i<b.size(); i++) {
+							int s = shardOf(b.get(i)[2]);
+							rows.get(s).add(b.get(i));
+							index.get(s).add(i);
+						}
+						ArrayList<CompletableFuture<boolean[]>> results = new ArrayList<>();
+						for(int s=0; s<n; s++) {
+							ArrayList<String[]> l = rows.get(s);
+							results.add(l.isEmpty() ? null : transport.submit(s, v->{
+								boolean[] ok = new boolean[l.size()];
+								for(int i=0; i<ok.length; i++)
+									ok[i] = v.addPerson(l.get(i)[0], l.get(i)[1], l.get(i)[2], Integer.parseInt(l.get(i)[3]));
+								return ok;
+							}));
+						}
+						for(int s=0; s<n; s++) {
+							if(results.get(s)==null)
+								continue;
+							boolean[] ok = join(results.get(s));
+							for(int i=0; i<ok.length; i++)
+								if(ok[i])
+									added[0]++;
+								else
+									b.reject(index.get(s).get(i), new VaccineException("Duplicate SSN"));
+						}
+					}, "SSN", "LAST", "FIRST", "YEAR")
+				.exactHeader(true)
+				.onReject((line, text, e) -> {
+					if(listener!=null) listener.accept((int)line, text);
+				})
+				.run(people);
+		} catch(CsvException e) {
+			throw new VaccineException("Wrong header names");
+		} finally {
+			people.close();
+		}
+		return added[0];
+	}
+
+	// R4
+	public void setHours(int... h) throws VaccineException {
+		gatherChecked(v->{
+			v.setHours(h);
+			return null;
+		});
+	}
+
+	public List<List<String>> getHours() {
+		return join(transport.submit(0, v->{
+			ArrayList<List<String>> back = new ArrayList<>();
+			for(List<String> d: v.getHours())
+				back.add(new ArrayList<>(d));
+			return back;
+		}));
+	}
+
+	public int getDailyAvailable(String hubName, int d) {
+		return join(transport.submit(0, v->v.getDailyAvailable(hubName, d)));
+	}
+
+	public Map<String, List<Integer>> getAvailable() {
+		return join(transport.submit(0, v->{
+			HashMap<String, List<Integer>> back = new HashMap<>();
+			v.getAvailable().forEach((k, l)->back.put(k, new ArrayList<>(l)));
+			return back;
+		}));
+	}
+
+	/**
+	 * Result of an allocation on a shard.
+	 */
+	static class Allocation implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int filled;
+		final ArrayList<String> day;
+
+		Allocation(int filled, ArrayList<String> day) {
+			this.filled = filled;
+			this.day = day;
+		}
+	}
+
+	/**
+	 * Computes the allocation plan of a hub on a given day,
+	 * with the places split among the shards.
+	 *
+	 * @param hubName name of the hub
+	 * @param d day of week index (0 = Monday)
+	 * @return the list of daily allocations, shard by shard
+	 * @see Vaccines#allocate
+	 */
+	public List<String> allocate(String hubName, int d) {
+		int n = transport.size();
+		int missing = getDailyAvailable(hubName, d);
+		long[] weight = new long[n];
+		List<Integer> counts = gather(v->v.countPeople());
+		for(int s=0; s<n; s++)
+			weight[s] = counts.get(s);
+		List<List<String>> days = new ArrayList<>();
+		for(int s=0; s<n; s++)
+			days.add(List.of());
+		while(missing>0) {
+			int[] quota = split(missing, weight);
+			ArrayList<CompletableFuture<Allocation>> results = new ArrayList<>();
+			for(int s=0; s<n; s++) {
+				int q = quota[s];
+				results.add(q==0 ? null : transport.submit(s, v->{
+					int before = v.hubs.get(hubName).allocted.size(d);
+					ArrayList<String> day = new ArrayList<>(v.allocate(hubName, d, q));
+					return new Allocation(day.size()-before, day);
+				}));
+			}
+			boolean progress = false;
+			for(int s=0; s<n; s++) {
+				if(results.get(s)==null)
+					continue;
+				Allocation a = join(results.get(s));
+				days.set(s, a.day);
+				missing -= a.filled;
+				progress |= a.filled>0;
+				// a shard that cannot fill its share has no people left
+				if(a.filled<quota[s])
+					weight[s] = 0;
+			}
+			if(!progress)
+				break;
+		}
+		ArrayList<String> back = new ArrayList<>();
+		for(List<String> l: days)
+			back.addAll(l);
+		return back;
+	}
+
+	/**
+	 * Split the places in proportion to the weights, by largest remainder;
+	 * ties go to the lowest index.
+	 *
+	 * @param total the places
+	 * @param weight the weights
+	 * @return the places of each index
+	 */
+	static int[] split(int total, long[] weight) {
+		int[] q = new int[weight.length];
+		long sum = 0;
+		for(long w: weight)
+			sum += w;
+		if(sum==0 || total<=0)
+			return q;
+		long[] rem = new long[weight.length];
+		int left = total;
+		for(int i=0; i<q.length; i++) {
+			q[i] = (int)(total*weight[i]/sum);
+			rem[i] = total*weight[i]%sum;
+			left -= q[i];
+		}
+		for(; left>0; left--) {
+			int best = -1;
+			for(int i=0; i<q.length; i++)
+				if(weight[i]>0 && (best<0 || rem[i]>rem[best]))
+					best = i;
+			q[best]++;
+			rem[best] = -1;
+		}
+		return q;
+	}
+
+	public void clearAllocation() {
+		gather(v->{
+			v.clearAllocation();
+			return null;
+		});
+	}
+
+	/**
+	 * Computes the general allocation plan for the week,
+	 * hub by hub in the order of {@link #getHubs()}.
+	 *
+	 * @return the list of daily allocations
+	 * @see Vaccines#weekAllocate
+	 */
+	public List<Map<String, List<String>>> weekAllocate() {
+		Collection<String> hubs = getHubs();
+		ArrayList<Map<String, List<String>>> list = new ArrayList<>();
+		for(int d=0; d<7; d++) {
+			HashMap<String, List<String>> day = new HashMap<>();
+			for(String h: hubs)
+				day.put(h, allocate(h, d));
+			list.add(day);
+		}
+		return list;
+	}
+
+	// R5
+	public double propAllocated() {
+		long allocated = 0;
+		for(long c: gather(v->v.countAllocated()))
+			allocated += c;
+		return (double)allocated/countPeople();
+	}
+
+	public Map<String, Double> propAllocatedAge() {
+		return proportions(countPeople());
+	}
+
+	public Map<String, Double> distributionAllocated() {
+		long allocated = 0;
+		for(long c: gather(v->v.countAllocated()))
+			allocated += c;
+		return proportions(allocated);
+	}
+
+	private Map<String, Double> proportions(long total) {
+		HashMap<String, Long> count = new HashMap<>();
+		for(HashMap<String, Long> m: gather(v->new HashMap<>(v.countAllocatedAge())))
+			m.forEach((k, c)->count.merge(k, c, Long::sum));
+		Map<String, Double> back = new HashMap<>();
+		count.forEach((k, c)->back.put(k, (double)c/total));
+		return back;
+	}
+
+	// R6
+	public void setLoadListener(BiConsumer<Integer, String> listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+	/**
+	 * Run a task on all the shards.
+	 *
+	 * @return the results, by shard
+	 */
+	private <T> List<T> gather(ShardTask<T> task) {
+		ArrayList<CompletableFuture<T>> f = new ArrayList<>();
+		for(int s=0; s<transport.size(); s++)
+			f.add(transport.submit(s, task));
+		ArrayList<T> back = new ArrayList<>();
+		for(CompletableFuture<T> r: f)
+			back.add(join(r));
+		return back;
+	}
+
+	private <T> List<T> gatherChecked(ShardTask<T> task) throws VaccineException {
+		try {
+			return gather(task);
+		} catch(ShardException e) {
+			if(e.getCause() instanceof VaccineException)
+				throw (VaccineException)e.getCause();
+			throw e;
+		}
+	}
+
+	private static <T> T joinChecked(CompletableFuture<T> f) throws VaccineException {
+		try {
+			return join(f);
+		} catch(ShardException e) {
+			if(e.getCause() instanceof VaccineException)
+				throw (VaccineException)e.getCause();
+			throw e;
+		}
+	}
+
+	private static <T> T join(CompletableFuture<T> f) {
+		try {
+			return f.join();
+		} catch(CompletionException e) {
+			Throwable c = e.getCause();
+			if(c instanceof RuntimeException)
+				throw (RuntimeException)c;
+			if(c instanceof Error)
+				throw (Error)c;
+			throw new ShardException(c);
+		}
+	}
+
+	/**
+	 * Checked exception thrown by a task on a shard.
+	 */
+	static class ShardException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ShardException(Throwable cause) {
+			super(cause);
+		}
+	}
+}
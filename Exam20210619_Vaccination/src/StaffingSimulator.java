@@ -0,0 +1,184 @@
+package src;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates staffing scenarios without changing the system.
+ * <p>
+ * The allocation rule of {@link Vaccines#allocate} depends only on how
+ * many people are still free in each age interval, so a week of
+ * {@link Vaccines#weekAllocate} from a cleared allocation is replayed on
+ * the counts of a {@link PopulationSummary}: each hub, day by day, gives 40%
+ * of its places to each interval from the oldest, and the remaining ones
+ * to the oldest free people. The capacity of a hub is computed as in
+ * {@link Vaccines#estimateHourlyCapacity}.
+ * <p>
+ * The summary is never modified, so scenarios are evaluated in parallel.
+ */
+public class StaffingSimulator {
+
+	/**
+	 * Ranking that prefers the scenarios covering more of the oldest
+	 * interval, then of the following ones.
+	 */
+	public static final Comparator<Result> BY_PRIORITY = (a, b) -> {
+		for(int i=a.allocated.length-1; i>=0; i--) {
+			int c = Long.compare(b.allocated[i], a.allocated[i]);
+			if(c!=0)
+				return c;
+		}
+		return 0;
+	};
+
+	/**
+	 * Ranking that prefers the scenarios allocating more people.
+	 */
+	public static final Comparator<Result> BY_ALLOCATED = Comparator.comparingLong(Result::getAllocated).reversed();
+
+	/**
+	 * Coverage resulting from a scenario.
+	 */
+	public static class Result {
+		protected final Scenario scenario;
+		protected final PopulationSummary summary;
+		protected final long[] allocated;
+		protected final long outside;
+		protected final long places;
+
+		Result(Scenario scenario, PopulationSummary summary, long[] allocated, long outside, long places) {
+			this.scenario = scenario;
+			this.summary = summary;
+			this.allocated = allocated;
+			this.outside = outside;
+			this.places = places;
+		}
+
+		public Scenario getScenario() {
+			return scenario;
+		}
+
+		/**
+		 * Places available in the week.
+		 *
+		 * @return the places
+		 */
+		public long getPlaces() {
+			return places;
+		}
+
+		/**
+		 * People allocated in the week.
+		 *
+		 * @return the people
+		 */
+		public long getAllocated() {
+			long n = outside;
+			for(long a: allocated)
+				n += a;
+			return n;
+		}
+
+		/**
+		 * Proportion of allocated people, as {@link Vaccines#propAllocated()}.
+		 *
+		 * @return the proportion
+		 */
+		public double getPropAllocated() {
+			return (double)getAllocated()/summary.getPeople();
+		}
+
+		/**
+		 * Proportion of allocated people by age interval,
+		 * as {@link Vaccines#propAllocatedAge()}.
+		 *
+		 * @return the proportions by interval label, from the oldest interval
+		 */
+		public Map<String, Double> getCoverage() {
+			Map<String, Double> back = new LinkedHashMap<>();
+			long total = summary.getPeople();
+			for(int i=allocated.length-1; i>=0; i--)
+				back.put(summary.label(i), (double)allocated[i]/total);
+			return back;
+		}
+
+		@Override
+		public String toString() {
+			return scenario + " " + getAllocated() + "/" + places + " " + getCoverage();
+		}
+	}
+
+	protected final PopulationSummary summary;
+
+	/**
+	 * Create a simulator.
+	 *
+	 * @param summary the population and the hubs
+	 */
+	public StaffingSimulator(PopulationSummary summary) {
+		this.summary = summary;
+	}
+
+	/**
+	 * Evaluate a scenario; hubs and hours not set by the scenario
+	 * are those of the summary.
+	 *
+	 * @param s the scenario
+	 * @return the coverage
+	 * @throws IllegalStateException if the working hours are defined neither
+	 * 			by the scenario nor by the system
+	 */
+	public Result evaluate(Scenario s) {
+		int[] hours = s.hours!=null ? s.hours : summary.hours;
+		if(hours==null)
+			throw new IllegalStateException("Working hours not defined");
+		int k = summary.people.length;
+		long[] free = summary.people.clone();
+		long[] allocated = new long[k];
+		long outside = summary.outside, outsideAllocated = 0, places = 0;
+		int[] capacity = new int[summary.hubs.size()];
+		for(int h=0; h<capacity.length; h++) {
+			int[] st = s.staff.getOrDefault(summary.hubs.get(h), summary.staff[h]);
+			capacity[h] = st[0]==0 ? 0 : Math.min(10*st[0], Math.min(12*st[1], 20*st[2]));
+		}
+		for(int d=0; d<7; d++)
+			for(int h=0; h<capacity.length; h++) {
+				int n = hours[d]*capacity[h];
+				places += n;
+				for(int a=k-1; a>=0; a--) {
+					long t = Math.min(n*4/10, free[a]);
+					free[a] -= t;
+					allocated[a] += t;
+					n -= t;
+				}
+				for(int a=k-1; a>=0 && n>0; a--) {
+					long t = Math.min(n, free[a]);
+					free[a] -= t;
+					allocated[a] += t;
+					n -= t;
+				}
+				long t = Math.min(n, outside);
+				outside -= t;
+				outsideAllocated += t;
+			}
+		return new Result(s, summary, allocated, outsideAllocated, places);
+	}
+
+	/**
+	 * Evaluate the scenarios in parallel and rank them.
+	 *
+	 * @param scenarios the scenarios
+	 * @param ranking the order of the results, e.g. {@link #BY_PRIORITY}
+	 * @return the results, best first
+	 */
+	public List<Result> rank(Collection<Scenario> scenarios, Comparator<Result> ranking) {
+		return scenarios.parallelStream()
+				.map(this::evaluate)
+				.sorted(ranking)
+				.collect(Collectors.toList());
+	}
+}
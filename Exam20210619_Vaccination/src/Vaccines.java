@@ -1,8 +1,10 @@
 package src;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.*;
 import java.util.List;
@@ -11,11 +13,24 @@ import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import csv.CsvException;
+import csv.CsvIngestion;
+import csv.RecordMapper;
+
 public class Vaccines {
 	protected HashMap<String, Person> persone = new HashMap<>();
+	// people on disk in external mode, where persone
+	// holds only the persons allocated so far
+	protected ExternalPeople external = null;
 	protected HashMap<String, Hub> hubs = new HashMap<>();
 	protected SortedSet<Integer> agegaps = new TreeSet<>();
 	protected int[] hours;
+	// events of allocate and clearAllocation, null until requested
+	protected AllocationFeed feed = null;
+	// second doses, null until enabled
+	protected RecallScheduler recalls = null;
+	// set once a horizon is planned, which books without feed and recalls
+	protected boolean horizon = false;
 	public BiConsumer<Integer, String> listener = null;
     public final static int CURRENT_YEAR = java.time.LocalDate.now().getYear();
 
@@ -32,21 +47,72 @@ public class Vaccines {
      * @return {@code false} if ssn is duplicate,
      */
     public boolean addPerson(String firstName, String lastName, String ssn, int y) {
+    	if(external!=null)
+    		try {
+    			return external.add(firstName, lastName, ssn, y);
+    		} catch(IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
     	if(persone.containsKey(ssn))
     		return false;
-    	persone.put(ssn, new Person(firstName, lastName, ssn, y));
+    	register(new Person(firstName, lastName, ssn, y));
     	return true;
     }
 
+    private void register(Person p) {
+    	// persons are never removed, so the size is the order of registration
+    	p.ordinal=persone.size();
+    	persone.put(p.getCodfisc(), p);
+    }
+
     /**
      * Count the number of people added to the system
      *
      * @return person count
      */
     public int countPeople() {
+    	if(external!=null)
+    		return (int)external.size();
         return persone.size();
     }
 
+    /**
+     * Switch to the external mode, for populations larger than the heap.
+     * <p>
+     * People are kept in files of the given directory, sorted by birth year,
+     * and only up to {@code budget} persons are buffered in the heap; the
+     * allocation reads the people of each age interval from the files, and
+     * the statistics are computed from the number of people allocated from
+     * each interval.
+     * Looking up a single person by SSN, unless allocated, reads a page of
+     * the index of the files that may contain it and the person itself;
+     * the heap keeps about 10 bits per person to select those files.
+     * <p>
+     * Each age interval is read from the people in the files when it is first
+     * allocated: people added later are allocated only after {@link #clearAllocation()}.
+     * <p>
+     * The mode must be selected before adding people.
+     *
+     * @param dir directory for the files, created if missing
+     * @param budget maximum number of persons buffered in the heap
+     * @throws IOException if the directory cannot be created
+     * @throws VaccineException if people have already been added
+     */
+    public void setExternalMode(Path dir, int budget) throws IOException, VaccineException {
+    	if(countPeople()>0)
+    		throw new VaccineException("People already added");
+    	Files.createDirectories(dir);
+    	external = new ExternalPeople(dir, budget);
+    }
+
+    private ExternalPeople.Record findExternal(String ssn) {
+    	try {
+    		return external.find(ssn);
+    	} catch(IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
+    }
+
     /**
      * Retrieves information about a person.
      * Information is formatted as ssn, last name, and first name
@@ -56,6 +122,10 @@ public class Vaccines {
      * @return info about the person
      */
     public String getPerson(String ssn) {
+    	if(external!=null && !persone.containsKey(ssn)) {
+    		ExternalPeople.Record r = findExternal(ssn);
+    		return r==null ? null : r.ssn+","+r.last+","+r.first;
+    	}
     	if(!persone.containsKey(ssn))
     		return null;
     	return persone.get(ssn).toString();
@@ -68,6 +138,10 @@ public class Vaccines {
      * @return age of person (in years)
      */
     public int getAge(String ssn) {
+    	if(external!=null && !persone.containsKey(ssn)) {
+    		ExternalPeople.Record r = findExternal(ssn);
+    		return r==null ? -1 : java.time.LocalDate.now().getYear()-r.year;
+    	}
     	if(!persone.containsKey(ssn))
     		return -1;
     	return java.time.LocalDate.now().getYear()-persone.get(ssn).getAnno();
@@ -135,6 +209,15 @@ public class Vaccines {
     		supp = 1200000; //numero assurdamente grande	
     	}
     	int hi=supp;
+    	if(external!=null) {
+    		ArrayList<String> back = new ArrayList<>();
+    		try {
+    			external.scan(thisyear-hi+1, thisyear-low, r->back.add(r.ssn));
+    		} catch(IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
+    		return back;
+    	}
         return persone.values().stream().filter(p-> (thisyear-p.getAnno())>=low && (thisyear-p.getAnno())<hi).map(p->p.getCodfisc()).collect(Collectors.toList());
     }
 
@@ -148,7 +231,7 @@ public class Vaccines {
     public void defineHub(String name) throws VaccineException {
     	if(hubs.containsKey(name))
     		throw new VaccineException("Hub già presente");
-    	hubs.put(name, new Hub(name));
+    	hubs.put(name, new Hub(name, persone));
     }
 
     /**
@@ -207,46 +290,65 @@ public class Vaccines {
      * The header must start with {@code "SSN,LAST,FIRST"}.
      * All lines must have at least three elements.
      *
-     * In case of error in a person line the line is skipped.
+     * In case of error in a person line the line is skipped
+     * and the load listener, if any, is notified.
      *
      * @param people {@code Reader} for the CSV content
-     * @return number of correctly added people
+     * @return number of correctly added people, plus one for the header line
      * @throws IOException in case of IO error
      * @throws VaccineException in case of error in the header
      */
     public long loadPeople(Reader people) throws IOException, VaccineException {
-    	// Hint:
-    	BufferedReader br = new BufferedReader(people);
-        int nl = 1;
-        int wrongl=0;
-        List<String> lines = br.lines().collect(Collectors.toList());
-        String linea = lines.remove(0);
-        String[] headers = linea.split(",");
-        if(headers.length!=4 || headers[0].compareTo("SSN")!=0 || headers[1].compareTo("LAST")!=0 || headers[2].compareTo("FIRST")!=0 || headers[3].compareTo("YEAR")!=0) {
-        	if(listener!=null) listener.accept(1, linea);
-        	throw new VaccineException("Wrong header names");
-        }
-        Map<String,Integer> h2i = new HashMap<>();
-		for(int i=0; i<headers.length; i++)
-			h2i.put(headers[i], i);
-		for(String row: lines) {
-			try{
-				String[] cells = row.split(","); 
-				 if(cells.length!=4 || persone.containsKey(cells[h2i.get("SSN")])) {
-			        throw new VaccineException("Wrong header length");
-				 }
-				String ssn = cells[h2i.get("SSN")];
-				String last = cells[h2i.get("LAST")];
-				String first = cells[h2i.get("FIRST")];
-				int year = Integer.parseInt(cells[h2i.get("YEAR")]);
-				if(addPerson(first,last,ssn,year))
-					nl++;
-			}catch(VaccineException v) {
-				if(listener!=null) listener.accept(nl+(++wrongl), linea);
-			}
-		};
-        br.close();
-        return nl;
+    	int[] nl = {1};
+    	try {
+    		new CsvIngestion<Person>(PERSON,
+    				b -> {
+    					for(int i=0; i<b.size(); i++) {
+    						if(store(b.get(i)))
+    							nl[0]++;
+    						else
+    							b.reject(i, new VaccineException("Duplicate SSN"));
+    					}
+    				}, PEOPLE_COLUMNS)
+    			.exactHeader(true)
+    			.onReject((n, line, e) -> {
+    				if(listener!=null) listener.accept((int)n, line);
+    			})
+    			.run(people);
+    	} catch(CsvException e) {
+    		throw new VaccineException("Wrong header names");
+    	} finally {
+    		people.close();
+    	}
+        return nl[0];
+    }
+
+    static final String[] PEOPLE_COLUMNS = {"SSN", "LAST", "FIRST", "YEAR"};
+    static final RecordMapper<Person> PERSON = (r, h) -> new Person(r.getString(h.col(2)), r.getString(h.col(1)), r.getString(h.col(0)), r.getInt(h.col(3)));
+
+    /**
+     * Add a person read from a file.
+     *
+     * @param p the person
+     * @return {@code false} if the SSN is duplicate
+     */
+    boolean store(Person p) {
+    	if(external!=null)
+    		return addPerson(p.getNome(), p.getCognome(), p.getCodfisc(), p.getAnno());
+    	if(persone.containsKey(p.getCodfisc()))
+    		return false;
+    	register(p);
+    	return true;
+    }
+
+    /**
+     * Start a bulk import of people from many CSV sources,
+     * in the same format of {@link #loadPeople}, read concurrently.
+     *
+     * @return the import, to which the sources are added
+     */
+    public PeopleImport bulkImport() {
+    	return new PeopleImport(this);
     }
 
     // R4
@@ -347,6 +449,10 @@ public class Vaccines {
      * persons allocated to that day
      * <p>
      * <b>N.B.</b> no particular order of allocation is guaranteed
+     * <p>
+     * The list is an unmodifiable view of the allocation plan of the hub,
+     * not a copy: it is not affected by later allocations or by
+     * {@link #clearAllocation}, but it cannot be changed by the caller.
      *
      * @param hubName name of the hub
      * @param d day of week index (0 = Monday)
@@ -354,8 +460,32 @@ public class Vaccines {
      */
     public List<String> allocate(String hubName, int d) {
     	Hub h = hubs.get(hubName);
-    	int n=this.getAvailable().get(h.getName()).get(d); //posti disponibili quel giorno in quel Hub
+    	return allocate(hubName, d, this.getAvailable().get(h.getName()).get(d)); //posti disponibili quel giorno in quel Hub
+    }
+
+    /**
+     * Same as {@link #allocate(String, int)} with a given number of places,
+     * e.g. the share of the capacity of the hub assigned to a shard.
+     *
+     * @param hubName name of the hub
+     * @param d day of week index (0 = Monday)
+     * @param n number of places to allocate
+     * @return the list of daily allocations
+     */
+    List<String> allocate(String hubName, int d, int n) {
+    	Hub h = hubs.get(hubName);
+    	if(recalls!=null)
+    		n -= recalls.serve(h, d, Math.max(0, n));
     	int[] ages = agegaps.stream().mapToInt(Integer::intValue).toArray();
+    	if(external!=null) {
+    		try {
+    			allocateExternal(h, d, n, ages.length==0 ? new int[]{0} : ages);
+    		} catch(IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
+    		publish();
+    		return h.allocted.getAllocated(d);
+    	}
     	ArrayList<Person> allocati;
     	for(int a=ages.length-1; a>=0; a--) {
     		final int ar = a;
@@ -364,15 +494,154 @@ public class Vaccines {
     		else
     			allocati = new ArrayList<>(persone.values().stream().filter(p-> this.getAge(p.codfisc)>=ages[ar] &&  this.getAge(p.codfisc)<ages[ar+1] && !p.isAllocated()).limit(n*4/10).collect(Collectors.toList()));
     		n = n-allocati.size();
-    		h.allocted.computeIfAbsent(d, k->new ArrayList<>()).addAll(allocati);
-    		allocati.stream().forEach(p->p.setAllocated(true));
+    		assign(h, d, allocati);
     	}
     	if(n!=0) {
     		allocati = new ArrayList<>(persone.values().stream().sorted((a,b)-> -this.getAge(a.getCodfisc())+this.getAge(b.getCodfisc())).filter(p->!p.isAllocated()).limit(n).collect(Collectors.toList()));
-    		h.allocted.computeIfAbsent(d, k->new ArrayList<>()).addAll(allocati);
-    		allocati.stream().forEach(p->p.setAllocated(true));
+    		assign(h, d, allocati);
+    	}
+    	publish();
+        return h.allocted.getAllocated(d);
+    }
+
+    private void assign(Hub h, int d, List<Person> allocati) {
+    	for(Person p: allocati) {
+    		h.allocted.add(d, p);
+    		p.setAllocated(true);
+    		if(feed!=null)
+    			feed.put(true, h.getName(), d, p.getCodfisc());
+    		if(recalls!=null)
+    			recalls.schedule(p, h, d);
     	}
-        return h.allocted.get(d).stream().map(p->p.getCodfisc()).collect(Collectors.toList());
+    }
+
+    /**
+     * Same allocation as {@link #allocate} on the people on disk:
+     * each interval has a cursor returning its people oldest first,
+     * so the people allocated from an interval are always the first ones
+     * and each allocation continues where the previous one stopped.
+     */
+    private void allocateExternal(Hub h, int d, int n, int[] ages) throws IOException {
+    	for(int a=ages.length-1; a>=0; a--)
+    		n -= assign(h, d, external.interval(ages[a], upper(ages, a)), n*4/10);
+    	for(int a=ages.length-1; a>=0 && n>0; a--)
+    		n -= assign(h, d, external.interval(ages[a], upper(ages, a)), n);
+    }
+
+    private static int upper(int[] ages, int a) {
+    	return a==ages.length-1 ? Integer.MAX_VALUE : ages[a+1];
+    }
+
+    private int assign(Hub h, int d, ExternalPeople.Cursor c, int limit) throws IOException {
+    	int k=0;
+    	for(; k<limit && c.hasNext(); k++) {
+    		ExternalPeople.Record r = c.next();
+    		Person p = persone.get(r.ssn);
+    		if(p==null) {
+    			p = new Person(r.first, r.last, r.ssn, r.year);
+    			register(p);
+    		}
+    		h.allocted.add(d, p);
+    		p.setAllocated(true);
+    		if(feed!=null)
+    			feed.put(true, h.getName(), d, p.getCodfisc());
+    	}
+    	return k;
+    }
+
+    private void publish() {
+    	if(feed!=null)
+    		feed.publish();
+    }
+
+    /**
+     * Retrieves the feed of the allocation events, created at the first call;
+     * from then on, {@link #allocate} publishes an event for each allocated
+     * person and {@link #clearAllocation} one for each de-allocated person.
+     *
+     * @return the feed
+     */
+    public AllocationFeed getAllocationFeed() {
+    	if(feed==null)
+    		feed = new AllocationFeed(AllocationFeed.DEFAULT_CAPACITY);
+    	return feed;
+    }
+
+    /**
+     * Retrieves the allocation plan of a hub.
+     * <p>
+     * The plan is a copy, not affected by the following allocations,
+     * and can be compared with the plan of another planning run through
+     * {@link AllocationPlan#diff}.
+     *
+     * @param hubName name of the hub
+     * @return the allocation plan, or {@code null} for an undefined hub
+     */
+    public AllocationPlan getAllocationPlan(String hubName) {
+    	Hub h = hubs.get(hubName);
+    	return h==null ? null : h.allocted.copy();
+    }
+
+    /**
+     * Plan the vaccinations over several weeks, from the people not allocated yet;
+     * see {@link HorizonPlanner}.
+     *
+     * @param weeks number of weeks in the horizon
+     * The planner books people without publishing them on the
+     * {@link #getAllocationFeed feed} and without scheduling their recalls,
+     * so it cannot be used once either is enabled, and recalls cannot be
+     * enabled once a horizon is planned.
+     *
+     * @return the planner, with all the weeks planned
+     * @throws VaccineException if the number of weeks is not positive,
+     * 			in external mode or if the feed or the recalls are enabled
+     */
+    public HorizonPlanner planHorizon(int weeks) throws VaccineException {
+    	if(weeks<1)
+    		throw new VaccineException("Numero di settimane non valido");
+    	if(external!=null)
+    		throw new VaccineException("Not available in external mode");
+    	if(feed!=null || recalls!=null)
+    		throw new VaccineException("Not available with the allocation feed or the recalls");
+    	horizon = true;
+    	return new HorizonPlanner(this, weeks);
+    }
+
+    /**
+     * Enable the second doses: from now on each allocated person is
+     * recalled after the given number of days, and the due recalls take
+     * the places of the hubs before the first doses; see {@link RecallScheduler}.
+     *
+     * @param days days between the first and the second dose, at least 7,
+     * 			for the hubs without an interval of their own
+     * @return the scheduler
+     * @throws VaccineException in case of invalid interval, in external mode
+     * 			or if a horizon is planned (see {@link #planHorizon})
+     */
+    public RecallScheduler enableRecalls(int days) throws VaccineException {
+    	if(days<7)
+    		throw new VaccineException("Intervallo non valido");
+    	if(external!=null)
+    		throw new VaccineException("Not available in external mode");
+    	if(horizon)
+    		throw new VaccineException("Not available with a planned horizon");
+    	recalls = new RecallScheduler(this, days);
+    	return recalls;
+    }
+
+    /**
+     * Close the week being allocated and start the next one: the allocated
+     * people stay allocated, and are no longer released by {@link #clearAllocation},
+     * while the allocation lists of the hubs start empty.
+     *
+     * @throws VaccineException in external mode
+     */
+    public void nextWeek() throws VaccineException {
+    	if(external!=null)
+    		throw new VaccineException("Not available in external mode");
+    	hubs.values().forEach(h->h.allocted.clear());
+    	if(recalls!=null)
+    		recalls.commit();
     }
 
     /**
@@ -380,7 +649,24 @@ public class Vaccines {
      * clears their allocation status
      */
     public void clearAllocation() {
+    	if(feed!=null) {
+    		for(Hub h: hubs.values()) {
+    			AllocationPlan plan = h.allocted;
+    			for(int d=0; d<plan.sizes.length; d++)
+    				for(int i=0; i<plan.sizes[d]; i++)
+    					feed.put(false, h.getName(), d, plan.days[d][i].getCodfisc());
+    		}
+    		feed.publish();
+    	}
     	hubs.values().stream().forEach(h->h.emptyAlloc());
+    	if(recalls!=null)
+    		recalls.reopen();
+    	if(external!=null)
+    		try {
+    			external.reset();
+    		} catch(IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
     }
 
     /**
@@ -417,7 +703,36 @@ public class Vaccines {
      * @return proportion of allocated people
      */
     public double propAllocated() {
-        return (double)persone.values().stream().filter(p->p.allocated).count()/persone.size();
+        return (double)countAllocated()/countPeople();
+    }
+
+    long countAllocated() {
+    	if(external!=null)
+    		return external.allocated();
+    	return persone.values().stream().filter(p->p.allocated).count();
+    }
+
+    /**
+     * Number of allocated people in each age interval.
+     *
+     * @return the counts by interval label
+     */
+    Map<String, Long> countAllocatedAge() {
+    	Map<String, Long> back = new HashMap<>();
+    	if(external!=null) {
+    		int[] ages = agegaps.stream().mapToInt(Integer::intValue).toArray();
+    		for(int a=0; a<ages.length; a++) {
+    			int hi = upper(ages, a);
+    			back.put("["+ages[a]+","+(hi==Integer.MAX_VALUE ? "+" : hi)+")", (long)external.allocated(ages[a], hi));
+    		}
+    		return back;
+    	}
+    	int[] bf = new int[]{100000};
+    	agegaps.stream().sorted((a,b)->-(a-b)).forEach(i->{
+	    			back.put("["+i+","+((bf[0]==100000)? "+": bf[0])+")",persone.values().stream().filter(p->p.allocated && getAge(p.getCodfisc())<bf[0] && getAge(p.getCodfisc())>=i).count());
+	    			bf[0]=i;
+    			});
+    	return back;
     }
 
     /**
@@ -431,12 +746,9 @@ public class Vaccines {
      * @return proportion of allocated people by age interval
      */
     public Map<String, Double> propAllocatedAge() {
+    	int total=countPeople();
     	Map<String, Double> back = new HashMap<>();
-    	int[] bf = new int[]{100000};
-    	agegaps.stream().sorted((a,b)->-(a-b)).forEach(i->{
-	    			back.put("["+i+","+((bf[0]==100000)? "+": bf[0])+")",(double)persone.values().stream().filter(p->p.allocated && getAge(p.getCodfisc())<bf[0] && getAge(p.getCodfisc())>=i).count()/persone.size());
-	    			bf[0]=i;
-    			});
+    	countAllocatedAge().forEach((k,v)->back.put(k, (double)v/total));
     	return back;
     }
 
@@ -452,15 +764,47 @@ public class Vaccines {
      */
     public Map<String, Double> distributionAllocated() {
     	Map<String, Double> back=new HashMap<>();
-    	int[] bf = new int[]{100000};
-    	long alloct=persone.values().stream().filter(p->p.isAllocated()).count();
-    	agegaps.stream().sorted((a,b)->-(a-b)).forEach(i->{
-	    			back.put("["+i+","+((bf[0]==100000)? "+": bf[0])+")",(double)persone.values().stream().filter(p->p.allocated && getAge(p.getCodfisc())<bf[0] && getAge(p.getCodfisc())>=i).count()/alloct);
-	    			bf[0]=i;
-    			});
+    	long alloct=countAllocated();
+    	countAllocatedAge().forEach((k,v)->back.put(k, (double)v/alloct));
     	return back;
     }
 
+    /**
+     * Summarize the people by age interval, with the hubs and the hours,
+     * for {@link StaffingSimulator}.
+     *
+     * @return the summary, not affected by the following changes
+     */
+    public PopulationSummary summarize() {
+    	int[] ages = agegaps.isEmpty() ? new int[]{0} : agegaps.stream().mapToInt(Integer::intValue).toArray();
+    	long[] people = new long[ages.length];
+    	long outside;
+    	int now = java.time.LocalDate.now().getYear();
+    	if(external!=null) {
+    		for(int a=0; a<ages.length; a++)
+    			people[a] = external.count(a==ages.length-1 ? Integer.MIN_VALUE : now-ages[a+1]+1, now-ages[a]);
+    		outside = external.size()-Arrays.stream(people).sum();
+    	} else {
+    		outside = 0;
+    		for(Person p: persone.values()) {
+    			int a = Arrays.binarySearch(ages, now-p.getAnno());
+    			if(a<0)
+    				a = -a-2;
+    			if(a<0)
+    				outside++;
+    			else
+    				people[a]++;
+    		}
+    	}
+    	ArrayList<String> names = new ArrayList<>();
+    	int[][] staff = new int[hubs.size()][];
+    	for(Hub h: hubs.values()) {
+    		staff[names.size()] = new int[]{h.getnDoc(), h.getnNurse(), h.getOthers()};
+    		names.add(h.getName());
+    	}
+    	return new PopulationSummary(ages, people, outside, names, staff, hours==null ? null : hours.clone());
+    }
+
     // R6
     /**
      * Defines a listener for the file loading method.
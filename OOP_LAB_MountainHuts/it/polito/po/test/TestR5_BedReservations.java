@@ -0,0 +1,156 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.BedReservations;
+import mountainhuts.BedReservations.Hold;
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestR5_BedReservations {
+
+	private static final Instant NOW = Instant.parse("2021-07-01T10:00:00Z");
+	private static final LocalDate TONIGHT = LocalDate.of(2021, 7, 1);
+
+	private MountainHut hut;
+
+	@Before
+	public void setUp() {
+		Region r = new Region("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Balme", "TO", 1432);
+		hut = r.createOrGetMountainHut("Gastaldi", 2659, "Rifugio", 20, m);
+	}
+
+	@Test
+	public void testNoOverselling() throws Exception {
+		BedReservations b = new BedReservations(Duration.ofMinutes(15), Clock.fixed(NOW, ZoneOffset.UTC));
+		int threads = 8, attempts = 50;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<Hold>>> results = new ArrayList<>();
+		try {
+			for(int t=0; t<threads; t++) {
+				int nights = 1 + t%3;
+				results.add(pool.submit(()->{
+					List<Hold> mine = new ArrayList<>();
+					start.await();
+					for(int i=0; i<attempts; i++)
+						b.hold(hut, TONIGHT, nights, 1 + i%2).ifPresent(mine::add);
+					return mine;
+				}));
+			}
+			start.countDown();
+			int[] sold = new int[3];
+			for(Future<List<Hold>> f: results)
+				for(Hold h: f.get()) {
+					assertTrue("Hold not confirmed", b.confirm(h));
+					for(int n=0; n<h.getNights(); n++)
+						sold[n] += h.getBeds();
+				}
+			for(int n=0; n<sold.length; n++) {
+				assertTrue("Beds oversold on night " + n, sold[n]<=20);
+				assertEquals("Wrong free beds on night " + n, 20-sold[n], b.available(hut, TONIGHT.plusDays(n)));
+			}
+		} finally {
+			pool.shutdown();
+			assertTrue("Bookings did not end", pool.awaitTermination(30, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testAllOrNothing() {
+		BedReservations b = new BedReservations(Duration.ofMinutes(15), Clock.fixed(NOW, ZoneOffset.UTC));
+		assertTrue("Missing hold", b.hold(hut, TONIGHT.plusDays(1), 1, 18).isPresent());
+
+		assertFalse("Full night booked", b.hold(hut, TONIGHT, 3, 5).isPresent());
+		assertEquals("Beds not returned", 20, b.available(hut, TONIGHT));
+		assertEquals("Beds taken from the full night", 2, b.available(hut, TONIGHT.plusDays(1)));
+		assertFalse("More beds than the hut", b.hold(hut, TONIGHT, 1, 21).isPresent());
+	}
+
+	@Test
+	public void testExpiredHoldsReturnBeds() {
+		MutableClock clock = new MutableClock(NOW);
+		BedReservations b = new BedReservations(Duration.ofMinutes(15), clock);
+		Optional<Hold> h = b.hold(hut, TONIGHT, 2, 20);
+		assertTrue("Missing hold", h.isPresent());
+		assertFalse("Night oversold", b.hold(hut, TONIGHT, 1, 1).isPresent());
+
+		clock.now = NOW.plus(Duration.ofMinutes(16));
+		assertEquals("Wrong number of expired holds", 1, b.expireHolds());
+		assertEquals("Wrong status", BedReservations.Status.EXPIRED, h.get().getStatus());
+		assertFalse("Expired hold confirmed", b.confirm(h.get()));
+		assertEquals("Beds not returned", 20, b.available(hut, TONIGHT));
+
+		Optional<Hold> c = b.hold(hut, TONIGHT, 1, 4);
+		assertTrue("Hold not confirmed", b.confirm(c.get()));
+		assertTrue("Booking not cancelled", b.cancel(c.get()));
+		assertFalse("Booking cancelled twice", b.cancel(c.get()));
+		assertEquals("Beds not returned", 20, b.available(hut, TONIGHT));
+	}
+
+	@Test
+	public void testPastNights() {
+		MutableClock clock = new MutableClock(NOW);
+		BedReservations b = new BedReservations(Duration.ofMinutes(15), clock);
+		Hold h = b.hold(hut, TONIGHT, 2, 5).get();
+		assertTrue("Hold not confirmed", b.confirm(h));
+
+		clock.now = NOW.plus(Duration.ofDays(1));
+		assertEquals("Wrong number of expired holds", 0, b.expireHolds());
+		assertEquals("Wrong free beds", 15, b.available(hut, TONIGHT.plusDays(1)));
+		assertTrue("Booking not cancelled", b.cancel(h));
+		assertEquals("Beds not returned", 20, b.available(hut, TONIGHT.plusDays(1)));
+		try {
+			b.hold(hut, TONIGHT, 1, 1);
+			fail("Past night booked");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static class MutableClock extends Clock {
+		volatile Instant now;
+
+		MutableClock(Instant now) {
+			this.now = now;
+		}
+
+		@Override
+		public ZoneOffset getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Instant instant() {
+			return now;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.FrozenRegion;
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestR5_FrozenRegion {
+
+	private static final int HUTS = 20000, MUNICIPALITIES = 700;
+
+	private Region r;
+
+	@Before
+	public void setUp() {
+		r = new Region("Piemonte");
+		r.setAltitudeRanges("0-1000", "1001-2000", "2001-3000");
+		Municipality[] ms = new Municipality[MUNICIPALITIES];
+		for(int m=0; m<MUNICIPALITIES; m++)
+			ms[m] = r.createOrGetMunicipality("Comune " + m, m%2==0 ? "TO" : "CN", 500 + m);
+		for(int h=0; h<HUTS; h++)
+			r.createOrGetMountainHut("Rifugio " + h, 1000 + h%2000, "Rifugio", h%50, ms[h%MUNICIPALITIES]);
+	}
+
+	@Test
+	public void testEveryNameFound() {
+		FrozenRegion f = r.freeze();
+		Set<String> seen = new HashSet<>();
+		for(int h=0; h<HUTS; h++) {
+			String name = "Rifugio " + h;
+			MountainHut hut = f.getMountainHut(name);
+			assertNotNull("Missing hut " + name, hut);
+			assertEquals("Wrong hut", name, hut.getName());
+			assertEquals("Wrong altitude of " + name, Integer.valueOf(1000 + h%2000), hut.getAltitude().orElse(null));
+			assertEquals("Wrong municipality of " + name, "Comune " + h%MUNICIPALITIES, hut.getMunicipality().getName());
+			seen.add(hut.getName());
+		}
+		assertEquals("Huts found twice", HUTS, seen.size());
+		for(int m=0; m<MUNICIPALITIES; m++) {
+			Municipality mu = f.getMunicipality("Comune " + m);
+			assertNotNull("Missing municipality " + m, mu);
+			assertEquals("Wrong municipality", "Comune " + m, mu.getName());
+			assertEquals("Wrong province", m%2==0 ? "TO" : "CN", mu.getProvince());
+		}
+	}
+
+	@Test
+	public void testMissingNames() {
+		FrozenRegion f = r.freeze();
+		for(int h=HUTS; h<2*HUTS; h++)
+			assertNull("Hut not in the region found", f.getMountainHut("Rifugio " + h));
+		assertNull("Hut not in the region found", f.getMountainHut(""));
+		assertNull("Municipality looked up as a hut", f.getMountainHut("Comune 1"));
+		for(int m=MUNICIPALITIES; m<2*MUNICIPALITIES; m++)
+			assertNull("Municipality not in the region found", f.getMunicipality("Comune " + m));
+		assertNull("Hut looked up as a municipality", f.getMunicipality("Rifugio 1"));
+	}
+
+	@Test
+	public void testSmallRegions() {
+		FrozenRegion empty = new Region("Valle d'Aosta").freeze();
+		assertNull("Hut found in an empty region", empty.getMountainHut("Rifugio 1"));
+		assertNull("Municipality found in an empty region", empty.getMunicipality("Comune 1"));
+
+		Region one = new Region("Liguria");
+		Municipality m = one.createOrGetMunicipality("Triora", "IM", 780);
+		one.createOrGetMountainHut("Rifugio Allavena", 1545, "Rifugio", 30, m);
+		FrozenRegion f = one.freeze();
+		assertEquals("Wrong hut", "Rifugio Allavena", f.getMountainHut("Rifugio Allavena").getName());
+		assertNull("Hut not in the region found", f.getMountainHut("Rifugio Grai"));
+		assertEquals("Wrong municipality", "Triora", f.getMunicipality("Triora").getName());
+		assertNull("Municipality not in the region found", f.getMunicipality("Pigna"));
+	}
+}
@@ -0,0 +1,50 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestR5_Municipalities {
+
+	private Region r;
+
+	@Before
+	public void setUp() {
+		r = new Region("Piemonte");
+		r.setAltitudeRanges("0-1000", "1001-2000", "2001-3000");
+		Municipality a = r.createOrGetMunicipality("A", "TO", 800);
+		r.createOrGetMunicipality("C", "TO", 700);
+		r.createOrGetMountainHut("Rifugio 1", 1500, "Rifugio", 20, a);
+	}
+
+	@Test
+	public void testForeignMunicipalityRegistered() {
+		// same ordinal as A, but never added to the region
+		MountainHut h = r.createOrGetMountainHut("Rifugio 2", 1600, "Rifugio", 10, new Municipality("B", "CN", 900));
+		assertEquals("Wrong municipality", "B", h.getMunicipality().getName());
+		assertEquals("Wrong province", "CN", h.getMunicipality().getProvince());
+		assertEquals("Municipality not registered", 3, r.getMunicipalities().size());
+		assertEquals("Beds counted in the wrong province", Integer.valueOf(10), r.totalBedsNumberPerProvince().get("CN"));
+		assertEquals("Beds counted in the wrong province", Integer.valueOf(20), r.totalBedsNumberPerProvince().get("TO"));
+		assertEquals("Wrong count", Long.valueOf(1), r.countMountainHutsPerMunicipalityPerProvince().get("CN").get("B"));
+	}
+
+	@Test
+	public void testForeignMunicipalityResolvedByName() {
+		Region other = new Region("Lombardia");
+		other.createOrGetMunicipality("X", "SO", 1000);
+		other.createOrGetMunicipality("Y", "SO", 1100);
+		// ordinal 2, past the municipalities of the region
+		Municipality z = other.createOrGetMunicipality("C", "SO", 1200);
+		MountainHut h = r.createOrGetMountainHut("Rifugio 2", 1600, "Rifugio", 10, z);
+		assertEquals("Wrong municipality", "C", h.getMunicipality().getName());
+		assertEquals("Municipality of the region not used", "TO", h.getMunicipality().getProvince());
+		assertEquals("Municipality added twice", 2, r.getMunicipalities().size());
+		assertEquals("Wrong count", Long.valueOf(1), r.countMountainHutsPerMunicipalityPerProvince().get("TO").get("C"));
+	}
+}
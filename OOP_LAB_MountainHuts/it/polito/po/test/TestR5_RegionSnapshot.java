@@ -0,0 +1,88 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+import mountainhuts.RegionSnapshot;
+
+public class TestR5_RegionSnapshot {
+
+	private static final int HUTS = 1000, MUNICIPALITIES = 70;
+
+	private Region r;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		r = new Region("Piemonte");
+		r.setAltitudeRanges("0-1000", "1001-2000", "2001-3000");
+		Municipality[] ms = new Municipality[MUNICIPALITIES];
+		for(int m=0; m<MUNICIPALITIES; m++)
+			ms[m] = r.createOrGetMunicipality("Comune " + m, m%2==0 ? "TO" : "CN", 500 + m);
+		// the first municipalities get more huts
+		for(int h=0; h<HUTS; h++)
+			r.createOrGetMountainHut("Rifugio " + h, 1000 + h%2000, "Rifugio", h%50, ms[h%(h%3==0 ? 7 : MUNICIPALITIES)]);
+		file = File.createTempFile("region", ".snap");
+		RegionSnapshot.write(r, file.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static Map<String, Long> counts(Region r) {
+		Map<String, Long> counts = new HashMap<>();
+		for(Municipality m: r.getMunicipalities())
+			counts.put(m.getName(), m.numMountHut());
+		return counts;
+	}
+
+	@Test
+	public void testHutCountsAfterLoad() throws IOException {
+		Map<String, Long> expected = counts(r);
+		Region loaded = RegionSnapshot.load(file.getPath());
+		Map<String, Long> counts = counts(loaded);
+		assertEquals("Wrong hut counts of the loaded region", expected, counts);
+		assertEquals("Huts lost", HUTS, counts.values().stream().mapToLong(Long::longValue).sum());
+		assertEquals("Wrong huts", HUTS, loaded.getMountainHuts().size());
+		assertEquals("Wrong hut counts after the names are indexed", expected, counts(loaded));
+	}
+
+	@Test
+	public void testNegativeCountsRejected() throws IOException {
+		// the header counts follow the magic, the version and the number of strings
+		for(int field=2; field<8; field++) {
+			File copy = File.createTempFile("region", ".snap");
+			try {
+				Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				try(RandomAccessFile raf = new RandomAccessFile(copy, "rw")) {
+					raf.seek(field*Integer.BYTES);
+					raf.writeInt(-1);
+				}
+				try {
+					RegionSnapshot.load(copy.getPath());
+					fail("Negative count " + field + " accepted");
+				} catch(IOException e) {
+					// expected
+				}
+			} finally {
+				copy.delete();
+			}
+		}
+	}
+}
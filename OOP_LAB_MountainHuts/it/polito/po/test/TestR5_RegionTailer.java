@@ -0,0 +1,72 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Region;
+import mountainhuts.RegionTailer;
+
+public class TestR5_RegionTailer {
+
+	// columns in another order than the one of the standard file
+	private static final String HEADER = "Name;Category;BedsNumber;Altitude;Municipality;Province;MunicipalityAltitude\n";
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("huts", ".csv");
+		Files.write(file.toPath(), (HEADER + "Rifugio 1;Rifugio;20;1500;Comune A;TO;800\n").getBytes());
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private void append(String line) throws IOException {
+		Files.write(file.toPath(), line.getBytes(), StandardOpenOption.APPEND);
+	}
+
+	private static void check(Region r, String name, int altitude, int beds, String municipality, String province) {
+		MountainHut h = r.getMountainHuts().stream().filter(x -> x.getName().equals(name)).findFirst().orElse(null);
+		assertNotNull("Missing hut " + name, h);
+		assertEquals("Wrong altitude of " + name, Integer.valueOf(altitude), h.getAltitude().orElse(null));
+		assertEquals("Wrong beds of " + name, Integer.valueOf(beds), h.getBedsNumber());
+		assertEquals("Wrong municipality of " + name, municipality, h.getMunicipality().getName());
+		assertEquals("Wrong province of " + name, province, h.getMunicipality().getProvince());
+	}
+
+	@Test
+	public void testColumnsBoundByHeader() throws IOException {
+		Region r = new Region("Piemonte");
+		try(RegionTailer t = new RegionTailer(r, file.getPath())) {
+			assertEquals("Wrong lines applied", 1, t.poll());
+			append("Rifugio 2;Bivacco;5;2100;Comune B;CN;900\n");
+			assertEquals("Wrong lines applied", 1, t.poll());
+		}
+		check(r, "Rifugio 1", 1500, 20, "Comune A", "TO");
+		check(r, "Rifugio 2", 2100, 5, "Comune B", "CN");
+	}
+
+	@Test
+	public void testHeaderReadWhenStartingPastIt() throws IOException {
+		Region r = Region.fromFile("Piemonte", file.getPath());
+		try(RegionTailer t = new RegionTailer(r, file.getPath(), file.length())) {
+			append("Rifugio 2;Bivacco;5;2100;Comune B;CN;900\n");
+			assertEquals("Wrong lines applied", 1, t.poll());
+		}
+		check(r, "Rifugio 1", 1500, 20, "Comune A", "TO");
+		check(r, "Rifugio 2", 2100, 5, "Comune B", "CN");
+	}
+}
@@ -0,0 +1,70 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestR5_RegionVersions {
+
+	private Region r;
+
+	@Before
+	public void setUp() {
+		r = new Region("Piemonte");
+		r.setAltitudeRanges("0-1000", "1001-2000", "2001-3000");
+		Municipality a = r.createOrGetMunicipality("Comune A", "TO", 800);
+		r.createOrGetMunicipality("Comune B", "CN", 900);
+		r.createOrGetMountainHut("Rifugio 1", 1500, "Rifugio", 20, a);
+	}
+
+	private Map<String, Long> counts() {
+		Map<String, Long> counts = new HashMap<>();
+		for(Municipality m: r.getMunicipalities())
+			counts.put(m.getName(), m.numMountHut());
+		return counts;
+	}
+
+	@Test
+	public void testUpdateNotVisibleUntilPublished() {
+		Map<String, Long> before = counts();
+		assertEquals("Wrong count", Long.valueOf(1), before.get("Comune A"));
+		Municipality published = r.getMunicipalities().stream()
+				.filter(m -> m.getName().equals("Comune A")).findFirst().get();
+		r.update(u -> {
+			Municipality a = u.createOrGetMunicipality("Comune A", "TO", 800);
+			Municipality b = u.createOrGetMunicipality("Comune B", "CN", 900);
+			u.createOrGetMountainHut("Rifugio 2", 1600, "Rifugio", 10, a);
+			u.createOrGetMountainHut("Rifugio 3", 2100, "Bivacco", 5, a);
+			u.createOrGetMountainHut("Rifugio 4", 2200, "Rifugio", 15, b);
+			assertEquals("Unpublished huts counted", before, counts());
+			assertEquals("Unpublished huts counted", Long.valueOf(1), published.numMountHut());
+			assertEquals("Unpublished huts visible", 1, r.getMountainHuts().size());
+			assertEquals("Unpublished huts counted", Long.valueOf(1),
+					r.countMountainHutsPerMunicipalityPerProvince().get("TO").get("Comune A"));
+		});
+		Map<String, Long> after = counts();
+		assertEquals("Wrong count after the update", Long.valueOf(3), after.get("Comune A"));
+		assertEquals("Wrong count after the update", Long.valueOf(1), after.get("Comune B"));
+		assertEquals("Wrong huts after the update", 4, r.getMountainHuts().size());
+		assertEquals("Older version changed", Long.valueOf(1), published.numMountHut());
+	}
+
+	@Test
+	public void testVersionsCountSeparately() {
+		Municipality a = r.createOrGetMunicipality("Comune A", "TO", 800);
+		for(int h=2; h<=10; h++) {
+			r.createOrGetMountainHut("Rifugio " + h, 1000 + h, "Rifugio", h, a);
+			assertEquals("Wrong count after hut " + h, Long.valueOf(h), counts().get("Comune A"));
+			assertEquals("Wrong count per municipality after hut " + h, Long.valueOf(h),
+					r.countMountainHutsPerMunicipalityPerProvince().get("TO").get("Comune A"));
+		}
+		assertEquals("Handle of an older version changed", Long.valueOf(1), a.numMountHut());
+	}
+}
@@ -0,0 +1,123 @@
+package mountainhuts;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic data in the format of {@code mountain_huts.csv}.
+ *
+ * Provinces and municipalities are drawn from Zipf distributions, so that
+ * a few of them hold most of the huts as in the real data, and about 30%
+ * of the huts have no altitude.
+ * The same seed always produces the same file.
+ *
+ * The generator serves the benchmarks and the soak driver, so it lives
+ * next to the benchmarks rather than in the library; it does not need JMH.
+ *
+ */
+public class HutDataGenerator {
+
+	static final String HEADER = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber";
+	static final String[] CATEGORIES = {"Rifugio Alpino", "Rifugio Escursionistico", "Bivacco Fisso", "Rifugio non gestito"};
+	static final double[] CATEGORY_WEIGHTS = {0.55, 0.20, 0.16, 0.09};
+	static final double MISSING_ALTITUDE = 0.3;
+
+	private final Random rnd;
+	private final int nProvince;
+	private final int nMunicipality;
+	private final int[] muniProvince;
+	private final int[] muniAltitude;
+	private final double[] muniCdf;
+
+	/**
+	 * Prepare a generator for the given number of rows.
+	 *
+	 * @param rows number of huts that will be generated
+	 * @param seed seed of the random generator
+	 */
+	public HutDataGenerator(int rows, long seed) {
+		rnd = new Random(seed);
+		nProvince = Math.max(6, Math.min(200, rows/100));
+		nMunicipality = Math.max(50, Math.min(100_000, rows/2));
+		double[] provCdf = zipf(nProvince, 1.0);
+		muniProvince = new int[nMunicipality];
+		muniAltitude = new int[nMunicipality];
+		for(int m=0; m<nMunicipality; m++) {
+			muniProvince[m] = pick(provCdf);
+			muniAltitude[m] = 200 + rnd.nextInt(1800);
+		}
+		muniCdf = zipf(nMunicipality, 1.1);
+	}
+
+	/**
+	 * Write the given number of rows, header included, to a file.
+	 *
+	 * @param rows number of huts
+	 * @param file the path of the file
+	 * @throws IOException in case of IO error
+	 */
+	public void write(int rows, String file) throws IOException {
+		double[] catCdf = cumulative(CATEGORY_WEIGHTS);
+		StringBuilder sb = new StringBuilder(128);
+		try(BufferedWriter out = new BufferedWriter(new FileWriter(file), 1<<16)) {
+			out.write(HEADER);
+			out.newLine();
+			for(int i=0; i<rows; i++) {
+				int m = pick(muniCdf);
+				int cat = pick(catCdf);
+				sb.setLength(0);
+				sb.append("PROVINCE ").append(muniProvince[m]).append(';')
+				  .append("MUNICIPALITY ").append(m).append(';')
+				  .append(muniAltitude[m]).append(';')
+				  .append("HUT ").append(i).append(';');
+				if(rnd.nextDouble()>=MISSING_ALTITUDE)
+					sb.append(muniAltitude[m] + rnd.nextInt(2000));
+				sb.append(';').append(CATEGORIES[cat]).append(';')
+				  .append(cat==2 ? rnd.nextInt(15) : rnd.nextInt(150));
+				out.write(sb.toString());
+				out.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Command line entry point: {@code HutDataGenerator rows file [seed]}
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length<2) {
+			System.err.println("usage: HutDataGenerator rows file [seed]");
+			return;
+		}
+		int rows = Integer.parseInt(args[0]);
+		long seed = args.length>2 ? Long.parseLong(args[2]) : 42;
+		new HutDataGenerator(rows, seed).write(rows, args[1]);
+	}
+
+	private int pick(double[] cdf) {
+		int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+		return Math.min(i<0 ? -i-1 : i, cdf.length-1);
+	}
+
+	private static double[] zipf(int n, double s) {
+		double[] w = new double[n];
+		for(int i=0; i<n; i++)
+			w[i] = 1/Math.pow(i+1, s);
+		return cumulative(w);
+	}
+
+	private static double[] cumulative(double[] w) {
+		double[] cdf = new double[w.length];
+		double tot = 0;
+		for(double x: w)
+			tot += x;
+		double acc = 0;
+		for(int i=0; i<w.length; i++) {
+			acc += w[i];
+			cdf[i] = acc/tot;
+		}
+		return cdf;
+	}
+}
@@ -0,0 +1,135 @@
+package mountainhuts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of the queries of {@link Region} on data produced by
+ * {@link HutDataGenerator}; the load is measured by {@link RegionLoadBenchmark}.
+ *
+ * The sources in {@code jmh/} are compiled together with the
+ * {@code mountainhuts} package and the JMH jars
+ * ({@code jmh-core} and {@code jmh-generator-annprocess}).
+ * {@link #main} runs the benchmarks of both classes with the GC profiler,
+ * that reports the allocation rate next to the throughput.
+ *
+ * With {@code vectorized} the aggregations use the kernels in
+ * {@code vector/}, that must be compiled in as well; the forked JVM
+ * gets the {@code jdk.incubator.vector} module. When the kernels are
+ * not on the class path {@link #main} runs only the scalar loops.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "--add-modules", "jdk.incubator.vector"})
+public class RegionBenchmark {
+
+	static final String[] RANGES = {"0-1000", "1001-1500", "1501-2000", "2001-2500", "2501-3000"};
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int rows;
+
+	@Param({"false", "true"})
+	public boolean parallel;
+
+	@Param({"false", "true"})
+	public boolean vectorized;
+
+	private String file;
+	private Region region;
+	private int[] altitudes;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		File f = File.createTempFile("huts-" + rows + "-", ".csv");
+		f.deleteOnExit();
+		file = f.getPath();
+		new HutDataGenerator(rows, 42).write(rows, file);
+		region = Region.fromFile("Bench", file);
+		region.setAltitudeRanges(RANGES);
+		region.setParallel(parallel);
+		region.setVectorized(vectorized);
+		if(vectorized && !region.isVectorized())
+			throw new IllegalStateException("Vectorized kernels not available");
+		altitudes = new int[1024];
+		for(int i=0; i<altitudes.length; i++)
+			altitudes[i] = (i*37) % 4000;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		new File(file).delete();
+	}
+
+	@Benchmark
+	public void getAltitudeRange(Blackhole bh) {
+		for(int a: altitudes)
+			bh.consume(region.getAltitudeRange(a));
+	}
+
+	@Benchmark
+	public Object countMunicipalitiesPerProvince() {
+		return region.countMunicipalitiesPerProvince();
+	}
+
+	@Benchmark
+	public Object countMountainHutsPerMunicipalityPerProvince() {
+		return region.countMountainHutsPerMunicipalityPerProvince();
+	}
+
+	@Benchmark
+	public Object countMountainHutsPerAltitudeRange() {
+		return region.countMountainHutsPerAltitudeRange();
+	}
+
+	@Benchmark
+	public Object totalBedsNumberPerProvince() {
+		return region.totalBedsNumberPerProvince();
+	}
+
+	@Benchmark
+	public Object maximumBedsNumberPerAltitudeRange() {
+		return region.maximumBedsNumberPerAltitudeRange();
+	}
+
+	@Benchmark
+	public Object municipalityNamesPerCountOfMountainHuts() {
+		return region.municipalityNamesPerCountOfMountainHuts();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder opt = new OptionsBuilder()
+				.include(RegionBenchmark.class.getName() + "\\.")
+				.include(RegionLoadBenchmark.class.getName() + "\\.")
+				.addProfiler(GCProfiler.class);
+		if(RegionBenchmark.class.getClassLoader().getResource("mountainhuts/HutVectorKernels.class")==null) {
+			System.err.println("Vectorized kernels not compiled in, running the scalar loops only");
+			opt.param("vectorized", "false");
+		}
+		new Runner(opt.build()).run();
+	}
+}
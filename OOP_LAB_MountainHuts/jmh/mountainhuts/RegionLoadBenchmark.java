@@ -0,0 +1,59 @@
+package mountainhuts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of {@link Region#fromFile} on data produced by {@link HutDataGenerator}.
+ *
+ * The load does not depend on the settings of the queries, so it has
+ * its own state and is measured once per size; it runs together with
+ * {@link RegionBenchmark} from {@link RegionBenchmark#main}.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RegionLoadBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int rows;
+
+	private String file;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		File f = File.createTempFile("huts-" + rows + "-", ".csv");
+		f.deleteOnExit();
+		file = f.getPath();
+		new HutDataGenerator(rows, 42).write(rows, file);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		new File(file).delete();
+	}
+
+	@Benchmark
+	public Region fromFile() {
+		return Region.fromFile("Bench", file);
+	}
+}
@@ -0,0 +1,279 @@
+package mountainhuts;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sells the beds of the mountain huts night by night.
+ *
+ * Each pair of hut and night has a counter of the free beds, created
+ * the first time beds are taken for the night with the number of beds of
+ * the hut; huts whose number of beds is not known cannot be booked, and
+ * the counters of the nights before today are dropped by
+ * {@link #expireHolds()}. Counters are decremented with compare-and-set
+ * only when enough beds are left, so concurrent bookings of the same
+ * night never exceed the capacity and never wait for a lock.
+ *
+ * A booking is first held, then confirmed or cancelled; a hold that is
+ * not confirmed within the hold timeout returns its beds.
+ * A booking of several nights takes the nights in order and, when one
+ * of them is full, gives back the ones already taken: under contention
+ * a booking may therefore fail because of a competing one that fails
+ * in turn, but the beds are never oversold.
+ *
+ */
+public class BedReservations {
+
+	/**
+	 * States of a booking.
+	 */
+	public enum Status {
+		HELD, CONFIRMED, CANCELLED, EXPIRED
+	}
+
+	/**
+	 * A booking of some beds for one or more consecutive nights in a hut.
+	 */
+	public static class Hold {
+		protected final MountainHut hut;
+		protected final LocalDate firstNight;
+		protected final int nights;
+		protected final int beds;
+		protected final Instant expires;
+		protected final AtomicInteger status = new AtomicInteger(Status.HELD.ordinal());
+
+		Hold(MountainHut hut, LocalDate firstNight, int nights, int beds, Instant expires) {
+			this.hut = hut;
+			this.firstNight = firstNight;
+			this.nights = nights;
+			this.beds = beds;
+			this.expires = expires;
+		}
+
+		public MountainHut getHut() {
+			return hut;
+		}
+
+		public LocalDate getFirstNight() {
+			return firstNight;
+		}
+
+		public int getNights() {
+			return nights;
+		}
+
+		public int getBeds() {
+			return beds;
+		}
+
+		public Status getStatus() {
+			return Status.values()[status.get()];
+		}
+
+		boolean move(Status from, Status to) {
+			return status.compareAndSet(from.ordinal(), to.ordinal());
+		}
+	}
+
+	/**
+	 * Key of the counter of a night of a hut.
+	 */
+	private static final class Night {
+		final String hut;
+		final long day;
+
+		Night(String hut, long day) {
+			this.hut = hut;
+			this.day = day;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Night))
+				return false;
+			Night n = (Night) o;
+			return day==n.day && hut.equals(n.hut);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(hut, day);
+		}
+	}
+
+	private final ConcurrentHashMap<Night, AtomicInteger> free = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Hold, Boolean> held = new ConcurrentHashMap<>();
+	private final Duration holdTimeout;
+	private final Clock clock;
+	// last day whose previous nights have been dropped
+	private volatile long pruned = Long.MIN_VALUE;
+
+	/**
+	 * Create a reservation engine whose holds last fifteen minutes.
+	 */
+	public BedReservations() {
+		this(Duration.ofMinutes(15), Clock.systemUTC());
+	}
+
+	/**
+	 * Create a reservation engine.
+	 *
+	 * @param holdTimeout time within which a hold must be confirmed
+	 * @param clock the clock used to expire the holds
+	 */
+	public BedReservations(Duration holdTimeout, Clock clock) {
+		this.holdTimeout = holdTimeout;
+		this.clock = clock;
+	}
+
+	private AtomicInteger counter(MountainHut hut, long day) {
+		return free.computeIfAbsent(new Night(hut.getName(), day), k->new AtomicInteger(capacity(hut)));
+	}
+
+	private long today() {
+		return LocalDate.now(clock).toEpochDay();
+	}
+
+	private static int capacity(MountainHut hut) {
+		Integer beds = hut.getBedsNumber();
+		if(beds==null)
+			throw new IllegalArgumentException("Unknown number of beds of " + hut.getName());
+		return beds;
+	}
+
+	/**
+	 * Number of beds still free in a hut for a night.
+	 *
+	 * @param hut the hut
+	 * @param night the night
+	 * @return the free beds
+	 * @throws IllegalArgumentException if the number of beds of the hut is not known
+	 */
+	public int available(MountainHut hut, LocalDate night) {
+		AtomicInteger c = free.get(new Night(hut.getName(), night.toEpochDay()));
+		return c==null ? capacity(hut) : c.get();
+	}
+
+	/**
+	 * Hold some beds for consecutive nights: either all the nights
+	 * are booked or none is.
+	 *
+	 * @param hut the hut
+	 * @param firstNight the first night
+	 * @param nights number of nights
+	 * @param beds number of beds for each night
+	 * @return the hold, or an empty optional if a night has not enough free beds
+	 * @throws IllegalArgumentException if the number of beds of the hut is not known
+	 * or the first night is before today
+	 */
+	public Optional<Hold> hold(MountainHut hut, LocalDate firstNight, int nights, int beds) {
+		if(nights<=0 || beds<=0)
+			throw new IllegalArgumentException("Nights and beds must be positive");
+		long first = firstNight.toEpochDay();
+		if(first<today())
+			throw new IllegalArgumentException("Night " + firstNight + " is past");
+		// a request larger than the hut fails without creating counters
+		if(beds>capacity(hut))
+			return Optional.empty();
+		for(int n=0; n<nights; n++) {
+			if(!take(counter(hut, first+n), beds)) {
+				for(int k=0; k<n; k++)
+					counter(hut, first+k).addAndGet(beds);
+				return Optional.empty();
+			}
+		}
+		Hold h = new Hold(hut, firstNight, nights, beds, clock.instant().plus(holdTimeout));
+		held.put(h, Boolean.TRUE);
+		return Optional.of(h);
+	}
+
+	private static boolean take(AtomicInteger c, int beds) {
+		while(true) {
+			int v = c.get();
+			if(v<beds)
+				return false;
+			if(c.compareAndSet(v, v-beds))
+				return true;
+		}
+	}
+
+	private void release(Hold h) {
+		long first = h.firstNight.toEpochDay();
+		for(int n=0; n<h.nights; n++) {
+			// the counters of past nights may have been dropped already
+			AtomicInteger c = free.get(new Night(h.hut.getName(), first+n));
+			if(c!=null)
+				c.addAndGet(h.beds);
+		}
+	}
+
+	/**
+	 * Confirm a hold. A hold past its timeout is expired instead
+	 * and its beds are returned.
+	 *
+	 * @param h the hold
+	 * @return {@code true} if the hold is now confirmed
+	 */
+	public boolean confirm(Hold h) {
+		if(clock.instant().isAfter(h.expires)) {
+			expire(h);
+			return h.getStatus()==Status.CONFIRMED;
+		}
+		if(!h.move(Status.HELD, Status.CONFIRMED))
+			return h.getStatus()==Status.CONFIRMED;
+		held.remove(h);
+		return true;
+	}
+
+	/**
+	 * Cancel a held or confirmed booking and return its beds.
+	 *
+	 * @param h the booking
+	 * @return {@code true} if the booking was cancelled by this call
+	 */
+	public boolean cancel(Hold h) {
+		if(h.move(Status.HELD, Status.CANCELLED) || h.move(Status.CONFIRMED, Status.CANCELLED)) {
+			held.remove(h);
+			release(h);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean expire(Hold h) {
+		if(!h.move(Status.HELD, Status.EXPIRED))
+			return false;
+		held.remove(h);
+		release(h);
+		return true;
+	}
+
+	/**
+	 * Return the beds of the holds past their timeout, and drop
+	 * the counters of the nights before today.
+	 *
+	 * @return number of holds expired
+	 */
+	public int expireHolds() {
+		long today = today();
+		if(today>pruned) {
+			pruned = today;
+			free.keySet().removeIf(k->k.day<today);
+		}
+		Instant now = clock.instant();
+		int n = 0;
+		for(Iterator<Hold> it = held.keySet().iterator(); it.hasNext();) {
+			Hold h = it.next();
+			if(now.isAfter(h.expires) && expire(h))
+				n++;
+		}
+		return n;
+	}
+}
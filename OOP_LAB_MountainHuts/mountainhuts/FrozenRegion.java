@@ -0,0 +1,326 @@
+package mountainhuts;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Immutable, read-optimized copy of a {@link Region}, created by {@link Region#freeze()}.
+ *
+ * The huts and the municipalities are stored in compact columns sorted by
+ * name, so they are listed in alphabetical order by a plain scan, and found
+ * by name through a {@link MinimalPerfectHash} in place of the name maps.
+ * The aggregations of {@link Region} are computed once, when freezing, and
+ * returned as read-only maps; queries and rankings scan the columns as
+ * those of the region do.
+ *
+ * The altitude ranges are those of the region when it was frozen.
+ *
+ */
+public class FrozenRegion {
+
+	protected final String name;
+	protected final long version;
+	// columns in alphabetical order of hut and municipality names, with the altitude ranges
+	protected final RegionState state;
+	private final HutStore store;
+	private final MinimalPerfectHash hutHash;
+	private final int[] hutBySlot;
+	private final MinimalPerfectHash muniHash;
+	private final int[] muniBySlot;
+
+	private final Map<String, Long> municipalitiesPerProvince;
+	private final Map<String, Map<String, Long>> hutsPerMunicipalityPerProvince;
+	private final Map<String, Long> hutsPerAltitudeRange;
+	private final Map<String, Integer> bedsPerProvince;
+	private final Map<String, Optional<Integer>> maxBedsPerAltitudeRange;
+	private final Map<Long, List<String>> municipalityNamesPerCount;
+
+	/**
+	 * Freeze a version of a region.
+	 *
+	 * @param name the name of the region
+	 * @param from the version, with the name maps built
+	 */
+	FrozenRegion(String name, RegionState from) {
+		this.name = name;
+		this.version = from.version;
+		HutStore s = from.store;
+		store = new HutStore();
+
+		// municipalities by name
+		int m = s.muniSize;
+		int[] muniRank = new int[m];
+		store.munis = new Municipality[m];
+		store.muniProvince = new int[m];
+		store.muniAltitude = new int[m];
+		int j = 0;
+		for(int o: from.municipi.values())
+			if(o<m) {
+				muniRank[o] = j;
+				store.munis[j] = s.municipalityAt(o);
+				store.muniProvince[j] = s.provinceOfMunicipality(o);
+				store.muniAltitude[j++] = s.altitudeOfMunicipality(o);
+			}
+		store.muniSize = m;
+
+		// huts by name
+		int n = s.size;
+		store.names = new String[n];
+		store.altitude = new int[n];
+		store.beds = new int[n];
+		store.category = new int[n];
+		store.municipality = new int[n];
+		store.bedsUnknown = new int[(n+31)>>>5];
+		int i = 0;
+		for(MountainHut h: from.mountainHuts()) {
+			store.names[i] = s.hutName(h.id);
+			store.altitude[i] = s.altitudeOf(h.id);
+			store.beds[i] = s.bedsOf(h.id);
+			store.category[i] = s.categoryOf(h.id);
+			if(!s.hasBeds(h.id))
+				store.markBedsUnknown(i);
+			store.municipality[i++] = muniRank[s.municipalityOf(h.id)];
+		}
+		store.size = n;
+		store.provinces = new ArrayList<>(s.provinces);
+		store.categories = new ArrayList<>(s.categories);
+
+		state = new RegionState(store);
+		state.copyRanges(from);
+		state.version = from.version;
+
+		hutHash = new MinimalPerfectHash(store.names);
+		hutBySlot = new int[n];
+		for(int h=0; h<n; h++)
+			hutBySlot[hutHash.slot(store.names[h])] = h;
+		String[] muniNames = new String[m];
+		for(int k=0; k<m; k++)
+			muniNames[k] = store.munis[k].getName();
+		muniHash = new MinimalPerfectHash(muniNames);
+		muniBySlot = new int[m];
+		for(int k=0; k<m; k++)
+			muniBySlot[muniHash.slot(muniNames[k])] = k;
+
+		// all the aggregates in a single scan
+		int provinces = store.provinces.size(), ranges = state.rangeLabel.length+1;
+		long[] munisPerProvince = new long[provinces], hutsPerProvince = new long[provinces];
+		long[] hutsPerMuni = new long[m], hutsPerRange = new long[ranges];
+		int[] beds = new int[provinces], maxBeds = new int[ranges];
+		for(int k=0; k<m; k++)
+			munisPerProvince[store.muniProvince[k]]++;
+		for(int h=0; h<n; h++) {
+			int p = store.provinceOf(h), r = state.rangeIndex(store.effectiveAltitude(h));
+			hutsPerMuni[store.municipality[h]]++;
+			hutsPerProvince[p]++;
+			beds[p] += store.beds[h];
+			if(hutsPerRange[r]++==0 || store.beds[h]>maxBeds[r])
+				maxBeds[r] = store.beds[h];
+		}
+
+		Map<String, Long> mpp = new HashMap<>();
+		Map<String, Integer> bpp = new HashMap<>();
+		for(int p=0; p<provinces; p++) {
+			if(munisPerProvince[p]>0)
+				mpp.put(store.provinces.get(p), munisPerProvince[p]);
+			if(hutsPerProvince[p]>0)
+				bpp.put(store.provinces.get(p), beds[p]);
+		}
+		municipalitiesPerProvince = Collections.unmodifiableMap(mpp);
+		bedsPerProvince = Collections.unmodifiableMap(bpp);
+
+		Map<String, Map<String, Long>> hpm = new HashMap<>();
+		TreeMap<Long, List<String>> names = new TreeMap<>();
+		for(int k=0; k<m; k++)
+			if(hutsPerMuni[k]>0) {
+				hpm.computeIfAbsent(store.provinces.get(store.muniProvince[k]), x->new HashMap<>())
+					.put(muniNames[k], hutsPerMuni[k]);
+				// municipalities in alphabetical order, so the lists are sorted
+				names.computeIfAbsent(hutsPerMuni[k], x->new ArrayList<>()).add(muniNames[k]);
+			}
+		hpm.replaceAll((k, v)->Collections.unmodifiableMap(v));
+		hutsPerMunicipalityPerProvince = Collections.unmodifiableMap(hpm);
+		names.replaceAll((k, v)->Collections.unmodifiableList(v));
+		municipalityNamesPerCount = Collections.unmodifiableMap(names);
+
+		Map<String, Long> hpr = new HashMap<>();
+		Map<String, Optional<Integer>> mbr = new HashMap<>();
+		for(int r=0; r<ranges; r++)
+			if(hutsPerRange[r]>0) {
+				hpr.put(state.rangeName(r), hutsPerRange[r]);
+				mbr.put(state.rangeName(r), Optional.of(maxBeds[r]));
+			}
+		for(String r: state.altitudini)
+			mbr.putIfAbsent(r, Optional.of(0));
+		hutsPerAltitudeRange = Collections.unmodifiableMap(hpr);
+		maxBedsPerAltitudeRange = Collections.unmodifiableMap(mbr);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Version of the region that was frozen.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Same as {@link Region#getAltitudeRange(Integer)}.
+	 *
+	 * @param altitude the geographical altitude
+	 * @return a string representing the range
+	 */
+	public String getAltitudeRange(Integer altitude) {
+		return state.rangeName(state.rangeIndex(altitude==null ? HutStore.MISSING : altitude));
+	}
+
+	/**
+	 * Find a municipality by name.
+	 *
+	 * @param name the name of the municipality
+	 * @return the municipality, or {@code null} if not present
+	 */
+	public Municipality getMunicipality(String name) {
+		int slot = muniHash.slot(name);
+		if(slot<0)
+			return null;
+		Municipality mu = store.munis[muniBySlot[slot]];
+		return mu.getName().equals(name) ? mu : null;
+	}
+
+	/**
+	 * Find a mountain hut by name.
+	 *
+	 * @param name the name of the mountain hut
+	 * @return the mountain hut, or {@code null} if not present
+	 */
+	public MountainHut getMountainHut(String name) {
+		int slot = hutHash.slot(name);
+		if(slot<0)
+			return null;
+		int h = hutBySlot[slot];
+		return store.names[h].equals(name) ? new MountainHut(store, h) : null;
+	}
+
+	/**
+	 * The municipalities, in alphabetical order.
+	 *
+	 * @return a read-only list of the municipalities
+	 */
+	public List<Municipality> getMunicipalities() {
+		return Collections.unmodifiableList(Arrays.asList(store.munis));
+	}
+
+	/**
+	 * The mountain huts, in alphabetical order.
+	 *
+	 * @return a read-only list of the mountain huts
+	 */
+	public List<MountainHut> getMountainHuts() {
+		int n = store.size;
+		return new AbstractList<MountainHut>() {
+			@Override
+			public MountainHut get(int i) {
+				if(i<0 || i>=n)
+					throw new IndexOutOfBoundsException(i);
+				return new MountainHut(store, i);
+			}
+
+			@Override
+			public int size() {
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link Region#countMunicipalitiesPerProvince()}, computed when freezing.
+	 *
+	 * @return a read-only map with the province as key and the number of municipalities as value
+	 */
+	public Map<String, Long> countMunicipalitiesPerProvince() {
+		return municipalitiesPerProvince;
+	}
+
+	/**
+	 * Same as {@link Region#countMountainHutsPerMunicipalityPerProvince()}, computed when freezing.
+	 *
+	 * @return a read-only map with the province as key and, as value, a map with the
+	 *         municipality as key and the number of mountain huts as value
+	 */
+	public Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
+		return hutsPerMunicipalityPerProvince;
+	}
+
+	/**
+	 * Same as {@link Region#countMountainHutsPerAltitudeRange()}, computed when freezing.
+	 *
+	 * @return a read-only map with the altitude range as key and the number of mountain huts as value
+	 */
+	public Map<String, Long> countMountainHutsPerAltitudeRange() {
+		return hutsPerAltitudeRange;
+	}
+
+	/**
+	 * Same as {@link Region#totalBedsNumberPerProvince()}, computed when freezing.
+	 *
+	 * @return a read-only map with the province as key and the total number of beds as value
+	 */
+	public Map<String, Integer> totalBedsNumberPerProvince() {
+		return bedsPerProvince;
+	}
+
+	/**
+	 * Same as {@link Region#maximumBedsNumberPerAltitudeRange()}, computed when freezing.
+	 *
+	 * @return a read-only map with the altitude range as key and the maximum number of beds as value
+	 */
+	public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
+		return maxBedsPerAltitudeRange;
+	}
+
+	/**
+	 * Same as {@link Region#municipalityNamesPerCountOfMountainHuts()}, computed when freezing.
+	 *
+	 * @return a read-only map with the number of mountain huts in a municipality as key
+	 *         and the list of municipality names, in alphabetical order, as value
+	 */
+	public Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
+		return municipalityNamesPerCount;
+	}
+
+	/**
+	 * Same as {@link Region#query(HutQuery...)}.
+	 *
+	 * @param queries the queries
+	 * @return the results, in the same order as the queries
+	 */
+	public List<HutQueryResult> query(HutQuery... queries) {
+		return Region.query(state, queries);
+	}
+
+	/**
+	 * Same as {@link Region#topMountainHuts(HutQuery.Dimension, int, HutRanking)}.
+	 *
+	 * @param groupBy the dimension defining the groups
+	 * @param k the maximum number of huts per group
+	 * @param by the ranking criterion
+	 * @return a map with the group as key and the list of huts, best first, as value
+	 */
+	public Map<String, List<MountainHut>> topMountainHuts(HutQuery.Dimension groupBy, int k, HutRanking by) {
+		TopHuts top = new TopHuts(store, state, groupBy, k, by, row->new MountainHut(store, row));
+		top.scan();
+		return top.result();
+	}
+}
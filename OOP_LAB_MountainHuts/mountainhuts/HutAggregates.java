@@ -0,0 +1,161 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Partial aggregates computed over a slice of the rows of a {@link HutStore}.
+ *
+ * Partials of disjoint slices can be merged, so the same result is
+ * obtained scanning the store sequentially or splitting it among
+ * the threads of a fork-join pool.
+ *
+ */
+class HutAggregates {
+
+	static final int PER_MUNICIPALITY = 1;
+	static final int PER_RANGE = 2;
+	static final int PER_PROVINCE = 4;
+
+	/**
+	 * Rows below this size are scanned by a single task
+	 */
+	static final int SPLIT_THRESHOLD = 1 << 14;
+
+	/**
+	 * Kernels based on the Vector API, {@code null} if they are not in the
+	 * classpath or the {@code jdk.incubator.vector} module is not available
+	 */
+	static final HutKernels VECTOR = load("mountainhuts.HutVectorKernels");
+
+	private static HutKernels load(String name) {
+		try {
+			return (HutKernels) Class.forName(name).getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	protected long[] hutsPerMunicipality;
+	protected long[] hutsPerRange;
+	protected int[] maxBedsPerRange;
+	protected long[] hutsPerProvince;
+	protected int[] bedsPerProvince;
+
+	// null for the scalar loops
+	protected final HutKernels kernels;
+
+	HutAggregates(HutStore s, RegionState r, int what, HutKernels kernels) {
+		this.kernels = kernels;
+		if((what & PER_MUNICIPALITY)!=0)
+			hutsPerMunicipality = new long[s.muniSize];
+		if((what & PER_RANGE)!=0) {
+			hutsPerRange = new long[r.rangeLabel.length+1];
+			maxBedsPerRange = new int[r.rangeLabel.length+1];
+			Arrays.fill(maxBedsPerRange, Integer.MIN_VALUE);
+		}
+		if((what & PER_PROVINCE)!=0) {
+			hutsPerProvince = new long[s.provinces.size()];
+			bedsPerProvince = new int[s.provinces.size()];
+		}
+	}
+
+	/**
+	 * Accumulate the rows in {@code [from, to)}.
+	 */
+	void accumulate(HutStore s, RegionState r, int from, int to) {
+		if(kernels!=null) {
+			kernels.accumulate(this, s, r, from, to);
+			return;
+		}
+		if(hutsPerMunicipality!=null)
+			accumulateMunicipalities(s, from, to);
+		if(hutsPerRange!=null)
+			accumulateRanges(s, r, from, to);
+		if(hutsPerProvince!=null)
+			accumulateProvinces(s, from, to);
+	}
+
+	void accumulateMunicipalities(HutStore s, int from, int to) {
+		for(int i=from; i<to; i++)
+			hutsPerMunicipality[s.municipalityOf(i)]++;
+	}
+
+	void accumulateRanges(HutStore s, RegionState r, int from, int to) {
+		for(int i=from; i<to; i++) {
+			int k=r.rangeIndex(s.effectiveAltitude(i));
+			int b=s.bedsOf(i);
+			hutsPerRange[k]++;
+			if(b>maxBedsPerRange[k])
+				maxBedsPerRange[k]=b;
+		}
+	}
+
+	void accumulateProvinces(HutStore s, int from, int to) {
+		for(int i=from; i<to; i++) {
+			int p=s.provinceOf(i);
+			hutsPerProvince[p]++;
+			bedsPerProvince[p]+=s.bedsOf(i);
+		}
+	}
+
+	/**
+	 * Add the partial aggregates of another slice to this one.
+	 *
+	 * @param o partial aggregates of a disjoint slice
+	 * @return this object
+	 */
+	HutAggregates merge(HutAggregates o) {
+		add(hutsPerMunicipality, o.hutsPerMunicipality);
+		add(hutsPerRange, o.hutsPerRange);
+		add(hutsPerProvince, o.hutsPerProvince);
+		if(bedsPerProvince!=null)
+			for(int i=0; i<bedsPerProvince.length; i++)
+				bedsPerProvince[i]+=o.bedsPerProvince[i];
+		if(maxBedsPerRange!=null)
+			for(int i=0; i<maxBedsPerRange.length; i++)
+				maxBedsPerRange[i]=Math.max(maxBedsPerRange[i], o.maxBedsPerRange[i]);
+		return this;
+	}
+
+	private static void add(long[] a, long[] b) {
+		if(a!=null)
+			for(int i=0; i<a.length; i++)
+				a[i]+=b[i];
+	}
+
+	/**
+	 * Fork-join task splitting the rows until they fall below {@link #SPLIT_THRESHOLD}.
+	 */
+	static class Task extends RecursiveTask<HutAggregates> {
+		private static final long serialVersionUID = 1L;
+
+		private final HutStore s;
+		private final RegionState r;
+		private final HutKernels kernels;
+		private final int what, from, to;
+
+		Task(HutStore s, RegionState r, int what, HutKernels kernels, int from, int to) {
+			this.s = s;
+			this.r = r;
+			this.what = what;
+			this.kernels = kernels;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected HutAggregates compute() {
+			if(to-from<=SPLIT_THRESHOLD) {
+				HutAggregates a = new HutAggregates(s, r, what, kernels);
+				a.accumulate(s, r, from, to);
+				return a;
+			}
+			int mid=(from+to)>>>1;
+			Task left = new Task(s, r, what, kernels, from, mid);
+			left.fork();
+			HutAggregates right = new Task(s, r, what, kernels, mid, to).compute();
+			return left.join().merge(right);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package mountainhuts;
+
+/**
+ * Alternative implementation of the scan of {@link HutAggregates}.
+ *
+ * An implementation must give exactly the same results as
+ * {@link HutAggregates#accumulate}.
+ *
+ */
+interface HutKernels {
+
+	/**
+	 * Accumulate the rows in {@code [from, to)} into the aggregates
+	 * requested when {@code a} was created.
+	 *
+	 * @param a the partial aggregates
+	 * @param s the columns
+	 * @param r the version, for the altitude ranges
+	 * @param from first row
+	 * @param to row after the last one
+	 */
+	void accumulate(HutAggregates a, HutStore s, RegionState r, int from, int to);
+}
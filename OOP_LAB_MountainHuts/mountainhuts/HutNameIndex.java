@@ -0,0 +1,289 @@
+package mountainhuts;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Search index over the names of the mountain huts.
+ *
+ * Names are normalized by removing accents and case and stored in a
+ * radix tree, where each edge is labelled with a run of characters.
+ * A prefix search walks down the tree and then enumerates the subtree in
+ * alphabetical order, lazily. A fuzzy search visits the tree computing one
+ * row of the edit distance matrix per character, and leaves a subtree as
+ * soon as no value of the row is within the maximum distance.
+ *
+ * A {@link #fork()} shares the tree with the original index: each index
+ * changes in place only the nodes it owns and copies the others on the
+ * path to a new name, so the original is never modified.
+ *
+ */
+class HutNameIndex {
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	private static class Node {
+		String edge;
+		Node[] kids = NO_KIDS;
+		int nKids;
+		String[] names; // original names whose normalized form ends here, sorted
+		final Object owner;
+
+		Node(String edge, Object owner) {
+			this.edge = edge;
+			this.owner = owner;
+		}
+
+		Node copy(Object owner) {
+			Node n = new Node(edge, owner);
+			n.kids = Arrays.copyOf(kids, Math.max(nKids, 2));
+			n.nKids = nKids;
+			n.names = names;
+			return n;
+		}
+
+		int find(char c) {
+			int lo = 0, hi = nKids-1;
+			while(lo<=hi) {
+				int mid = (lo+hi)>>>1;
+				char k = kids[mid].edge.charAt(0);
+				if(k<c)
+					lo = mid+1;
+				else if(k>c)
+					hi = mid-1;
+				else
+					return mid;
+			}
+			return -lo-1;
+		}
+
+		void insertKid(int pos, Node n) {
+			if(nKids==kids.length)
+				kids = Arrays.copyOf(kids, Math.max(2, nKids*2));
+			System.arraycopy(kids, pos, kids, pos+1, nKids-pos);
+			kids[pos] = n;
+			nKids++;
+		}
+	}
+
+	private static final Node[] NO_KIDS = new Node[0];
+
+	private final Object owner = new Object();
+	private Node root = new Node("", owner);
+	private int size;
+
+	/**
+	 * Copy of this index that can be extended without changing this one.
+	 *
+	 * @return the copy
+	 */
+	HutNameIndex fork() {
+		HutNameIndex f = new HutNameIndex();
+		f.root = root;
+		f.size = size;
+		return f;
+	}
+
+	private Node own(Node n) {
+		return n.owner==owner ? n : n.copy(owner);
+	}
+
+	/**
+	 * Normalize a name for searching: accents are removed and letters lowered.
+	 *
+	 * @param name the name
+	 * @return the normalized name
+	 */
+	static String normalize(String name) {
+		String d = Normalizer.normalize(name, Normalizer.Form.NFD);
+		return MARKS.matcher(d).replaceAll("").toLowerCase(Locale.ROOT);
+	}
+
+	void add(String name) {
+		String key = normalize(name);
+		Node node = root = own(root);
+		int i = 0;
+		while(i<key.length()) {
+			int pos = node.find(key.charAt(i));
+			if(pos<0) {
+				Node leaf = new Node(key.substring(i), owner);
+				node.insertKid(-pos-1, leaf);
+				node = leaf;
+				break;
+			}
+			Node kid = node.kids[pos] = own(node.kids[pos]);
+			int common = lcp(kid.edge, key, i);
+			if(common<kid.edge.length()) {
+				Node mid = new Node(kid.edge.substring(0, common), owner);
+				kid.edge = kid.edge.substring(common);
+				mid.insertKid(0, kid);
+				node.kids[pos] = mid;
+				kid = mid;
+			}
+			node = kid;
+			i += common;
+		}
+		if(node.names==null) {
+			node.names = new String[] {name};
+		} else {
+			int pos = Arrays.binarySearch(node.names, name);
+			if(pos>=0)
+				return;
+			String[] n = new String[node.names.length+1];
+			System.arraycopy(node.names, 0, n, 0, -pos-1);
+			n[-pos-1] = name;
+			System.arraycopy(node.names, -pos-1, n, -pos, node.names.length+pos+1);
+			node.names = n;
+		}
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Names starting with the given prefix, ignoring accents and case,
+	 * in alphabetical order of the normalized name.
+	 *
+	 * @param prefix the prefix
+	 * @return a stream of names
+	 */
+	Stream<String> prefix(String prefix) {
+		String p = normalize(prefix);
+		Node node = root;
+		int i = 0;
+		while(i<p.length()) {
+			int pos = node.find(p.charAt(i));
+			if(pos<0)
+				return Stream.empty();
+			Node kid = node.kids[pos];
+			int common = lcp(kid.edge, p, i);
+			if(i+common<p.length() && common<kid.edge.length())
+				return Stream.empty();
+			node = kid;
+			i += common;
+		}
+		Iterator<String> it = new SubtreeIterator(node);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Names within the given edit distance of the query, ignoring accents and case.
+	 * The names are ranked by distance and then alphabetically.
+	 *
+	 * @param query the searched name
+	 * @param maxEdits maximum number of insertions, deletions and substitutions
+	 * @return a stream of names
+	 */
+	Stream<String> fuzzy(String query, int maxEdits) {
+		String q = normalize(query);
+		int[][] rows = new int[q.length()+maxEdits+2][q.length()+1];
+		for(int j=0; j<=q.length(); j++)
+			rows[0][j] = j;
+		List<Match> found = new ArrayList<>();
+		visit(root, 0, q, maxEdits, rows, found);
+		found.sort(Comparator.comparingInt((Match x)->x.distance).thenComparing(x->x.key));
+		return found.stream().flatMap(x->Arrays.stream(x.names));
+	}
+
+	private static void visit(Node node, int depth, String q, int maxEdits, int[][] rows, List<Match> found) {
+		int m = q.length(), d = depth;
+		for(int k=0; k<node.edge.length(); k++) {
+			// a prefix longer than the query plus maxEdits can never match
+			if(d+1>=rows.length)
+				return;
+			int[] up = rows[d], row = rows[d+1];
+			char c = node.edge.charAt(k);
+			row[0] = d+1;
+			int min = row[0];
+			for(int j=1; j<=m; j++) {
+				int v = Math.min(up[j], row[j-1]) + 1;
+				int diag = up[j-1] + (q.charAt(j-1)==c ? 0 : 1);
+				if(diag<v)
+					v = diag;
+				row[j] = v;
+				if(v<min)
+					min = v;
+			}
+			d++;
+			if(min>maxEdits)
+				return;
+		}
+		if(node.names!=null && rows[d][m]<=maxEdits)
+			found.add(new Match(node.names, normalize(node.names[0]), rows[d][m]));
+		for(int i=0; i<node.nKids; i++)
+			visit(node.kids[i], d, q, maxEdits, rows, found);
+	}
+
+	private static int lcp(String edge, String s, int from) {
+		int n = Math.min(edge.length(), s.length()-from), i = 0;
+		while(i<n && edge.charAt(i)==s.charAt(from+i))
+			i++;
+		return i;
+	}
+
+	private static class Match {
+		final String[] names;
+		final String key;
+		final int distance;
+
+		Match(String[] names, String key, int distance) {
+			this.names = names;
+			this.key = key;
+			this.distance = distance;
+		}
+	}
+
+	/**
+	 * Pre-order visit of a subtree, producing the names in alphabetical order.
+	 */
+	private static class SubtreeIterator implements Iterator<String> {
+		private final ArrayDeque<Node> stack = new ArrayDeque<>();
+		private String[] names;
+		private int next;
+
+		SubtreeIterator(Node start) {
+			stack.push(start);
+			advance();
+		}
+
+		private void advance() {
+			while((names==null || next==names.length) && !stack.isEmpty()) {
+				Node n = stack.pop();
+				for(int i=n.nKids-1; i>=0; i--)
+					stack.push(n.kids[i]);
+				names = n.names;
+				next = 0;
+			}
+			if(names!=null && next==names.length)
+				names = null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return names!=null;
+		}
+
+		@Override
+		public String next() {
+			if(names==null)
+				throw new NoSuchElementException();
+			String s = names[next++];
+			advance();
+			return s;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Declarative group-by query over the mountain huts of a {@link Region}.
+ *
+ * A query lists the dimensions to group by and the filters the huts must
+ * satisfy; it is executed with {@link Region#query(HutQuery...)} that
+ * computes count, sum, minimum, maximum and average of the beds of each
+ * group in a single scan of the hut columns, shared by all the queries
+ * submitted together.
+ *
+ * <pre>
+ * region.query(new HutQuery()
+ *         .groupBy(HutQuery.Dimension.PROVINCE, HutQuery.Dimension.CATEGORY)
+ *         .whereBeds(1, Integer.MAX_VALUE));
+ * </pre>
+ *
+ */
+public class HutQuery {
+
+	/**
+	 * Attributes the huts can be grouped by.
+	 * The altitude range uses the altitude of the municipality
+	 * when the one of the hut is not available.
+	 */
+	public enum Dimension {
+		PROVINCE, MUNICIPALITY, ALTITUDE_RANGE, CATEGORY
+	}
+
+	/**
+	 * Measures computed on the number of beds of each group.
+	 */
+	public enum Measure {
+		COUNT, SUM, MIN, MAX, AVERAGE
+	}
+
+	protected Dimension[] groupBy = new Dimension[0];
+	protected HashMap<Dimension, List<String>> in = new HashMap<>();
+	protected int minBeds = Integer.MIN_VALUE, maxBeds = Integer.MAX_VALUE;
+	protected int minAltitude = Integer.MIN_VALUE, maxAltitude = Integer.MAX_VALUE;
+
+	/**
+	 * Set the dimensions to group by; no dimension means a single group.
+	 *
+	 * @param dimensions the dimensions, in the order of the group keys
+	 * @return this query
+	 */
+	public HutQuery groupBy(Dimension... dimensions) {
+		this.groupBy = dimensions.clone();
+		return this;
+	}
+
+	/**
+	 * Keep only the huts whose value of the dimension is one of the given ones.
+	 *
+	 * @param d the dimension
+	 * @param values the accepted values
+	 * @return this query
+	 */
+	public HutQuery where(Dimension d, String... values) {
+		in.computeIfAbsent(d, k->new ArrayList<>()).addAll(Arrays.asList(values));
+		return this;
+	}
+
+	/**
+	 * Keep only the huts with a number of beds in {@code [min, max]}.
+	 *
+	 * @return this query
+	 */
+	public HutQuery whereBeds(int min, int max) {
+		this.minBeds = min;
+		this.maxBeds = max;
+		return this;
+	}
+
+	/**
+	 * Keep only the huts with an altitude in {@code [min, max]};
+	 * the altitude of the municipality is used when the one of the hut is not available.
+	 *
+	 * @return this query
+	 */
+	public HutQuery whereAltitude(int min, int max) {
+		this.minAltitude = min;
+		this.maxAltitude = max;
+		return this;
+	}
+
+	/**
+	 * Tells whether the query needs the altitude range of each hut.
+	 */
+	boolean usesRange() {
+		return in.containsKey(Dimension.ALTITUDE_RANGE) || Arrays.asList(groupBy).contains(Dimension.ALTITUDE_RANGE);
+	}
+
+	/**
+	 * Number of distinct codes of a dimension in a store.
+	 */
+	static int cardinality(HutStore s, RegionState r, int d) {
+		switch(d) {
+		case 0: return s.provinces.size();
+		case 1: return s.muniSize;
+		case 2: return r.rangeLabel.length+1;
+		default: return s.categories.size();
+		}
+	}
+
+	/**
+	 * Code of a dimension for a row of a store.
+	 */
+	static int code(HutStore s, RegionState r, int d, int row) {
+		switch(d) {
+		case 0: return s.provinceOf(row);
+		case 1: return s.municipalityOf(row);
+		case 2: return r.rangeIndex(s.effectiveAltitude(row));
+		default: return s.categoryOf(row);
+		}
+	}
+
+	/**
+	 * Textual value of a code of a dimension.
+	 */
+	static String label(HutStore s, RegionState r, int d, int code) {
+		switch(d) {
+		case 0: return s.provinces.get(code);
+		case 1: return s.municipalityName(code);
+		case 2: return code<r.rangeLabel.length ? r.rangeLabel[code] : "0-INF";
+		default: return s.categories.get(code);
+		}
+	}
+
+	/**
+	 * Query bound to the ordinals of a store: filters become lookup
+	 * tables and group keys are mixed radix numbers of the dimension codes.
+	 */
+	static class Compiled {
+		final HutQuery q;
+		final int[] dims;
+		final long[] radix;
+		final boolean[][] accept = new boolean[4][];
+		final HashMap<Long, long[]> groups = new HashMap<>();
+		final long[][] dense;
+		final HutStore s;
+		final RegionState r;
+
+		// indexes of the group accumulators
+		static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+		// above this number of possible keys the groups are kept in a hash map
+		static final long DENSE_LIMIT = 1 << 16;
+
+		Compiled(HutQuery q, HutStore s, RegionState r) {
+			this.q = q;
+			this.s = s;
+			this.r = r;
+			dims = new int[q.groupBy.length];
+			radix = new long[q.groupBy.length];
+			long base = 1;
+			for(int i=dims.length-1; i>=0; i--) {
+				dims[i] = q.groupBy[i].ordinal();
+				radix[i] = base;
+				base *= cardinality(dims[i]);
+			}
+			dense = base<=DENSE_LIMIT ? new long[(int)base][] : null;
+			q.in.forEach((d,values)->{
+				boolean[] ok = new boolean[cardinality(d.ordinal())];
+				for(int c=0; c<ok.length; c++)
+					ok[c] = values.contains(label(d.ordinal(), c));
+				accept[d.ordinal()] = ok;
+			});
+		}
+
+		int cardinality(int d) {
+			return HutQuery.cardinality(s, r, d);
+		}
+
+		String label(int d, int code) {
+			return HutQuery.label(s, r, d, code);
+		}
+
+		/**
+		 * Accumulate a row given the codes of its dimensions.
+		 */
+		void accept(int[] codes, int beds, int altitude) {
+			if(beds<q.minBeds || beds>q.maxBeds)
+				return;
+			if(altitude==HutStore.MISSING ? q.minAltitude!=Integer.MIN_VALUE || q.maxAltitude!=Integer.MAX_VALUE
+					: altitude<q.minAltitude || altitude>q.maxAltitude)
+				return;
+			for(int d=0; d<4; d++)
+				if(accept[d]!=null && !accept[d][codes[d]])
+					return;
+			long key = 0;
+			for(int i=0; i<dims.length; i++)
+				key += codes[dims[i]]*radix[i];
+			long[] g = dense!=null ? dense[(int)key] : groups.get(key);
+			if(g==null) {
+				g = new long[] {0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE};
+				if(dense!=null)
+					dense[(int)key] = g;
+				else
+					groups.put(key, g);
+			}
+			g[COUNT]++;
+			g[SUM] += beds;
+			if(beds<g[MIN])
+				g[MIN] = beds;
+			if(beds>g[MAX])
+				g[MAX] = beds;
+		}
+
+		HutQueryResult result() {
+			if(dense!=null)
+				for(int k=0; k<dense.length; k++)
+					if(dense[k]!=null)
+						groups.put((long)k, dense[k]);
+			List<HutQueryResult.Group> back = new ArrayList<>(groups.size());
+			groups.forEach((key,g)->{
+				String[] k = new String[dims.length];
+				for(int i=0; i<dims.length; i++)
+					k[i] = label(dims[i], (int)(key/radix[i] % cardinality(dims[i])));
+				back.add(new HutQueryResult.Group(Arrays.asList(k), g[COUNT], g[SUM], (int)g[MIN], (int)g[MAX]));
+			});
+			return new HutQueryResult(back);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package mountainhuts;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a {@link HutQuery}: the measures of each group of huts.
+ *
+ */
+public class HutQueryResult {
+
+	/**
+	 * Measures of the beds of a group of huts.
+	 */
+	public static class Group {
+		protected List<String> key;
+		protected long count;
+		protected long sum;
+		protected int min;
+		protected int max;
+
+		Group(List<String> key, long count, long sum, int min, int max) {
+			this.key = Collections.unmodifiableList(key);
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+		}
+
+		/**
+		 * Values of the group-by dimensions, in the order they were given
+		 *
+		 * @return the key of the group
+		 */
+		public List<String> getKey() {
+			return key;
+		}
+
+		/**
+		 * Value of a measure: {@code Long} for count and sum,
+		 * {@code Integer} for minimum and maximum, {@code Double} for the average.
+		 *
+		 * @param m the measure
+		 * @return the value
+		 */
+		public Number get(HutQuery.Measure m) {
+			switch(m) {
+			case COUNT: return count;
+			case SUM: return sum;
+			case MIN: return min;
+			case MAX: return max;
+			default: return (double)sum/count;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + count + "/" + sum + "/" + min + "/" + max;
+		}
+	}
+
+	protected List<Group> groups;
+
+	HutQueryResult(List<Group> groups) {
+		this.groups = groups;
+	}
+
+	/**
+	 * Return the groups with at least a hut satisfying the filters.
+	 *
+	 * @return the groups
+	 */
+	public List<Group> getGroups() {
+		return Collections.unmodifiableList(groups);
+	}
+
+	/**
+	 * Return the value of a measure for each group.
+	 *
+	 * @param m the measure
+	 * @return a map with the group key as key and the measure as value
+	 */
+	public Map<List<String>, Number> get(HutQuery.Measure m) {
+		Map<List<String>, Number> back = new HashMap<>();
+		for(Group g: groups)
+			back.put(g.key, g.get(m));
+		return back;
+	}
+}
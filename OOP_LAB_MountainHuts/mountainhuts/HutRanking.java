@@ -0,0 +1,12 @@
+package mountainhuts;
+
+/**
+ * Criteria to rank mountain huts, from the largest value.
+ *
+ */
+public enum HutRanking {
+	/** number of beds */
+	BEDS,
+	/** altitude, or the altitude of the municipality when the former is not available */
+	ALTITUDE
+}
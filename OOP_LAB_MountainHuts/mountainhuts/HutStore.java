@@ -0,0 +1,288 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Columnar storage of the mountain huts and municipalities of a {@link Region}.
+ *
+ * Every hut is a row identified by its ordinal: altitude, number of beds,
+ * category and municipality are stored in primitive columns so that the
+ * aggregations can scan them without unboxing.
+ * Strings that repeat (provinces, categories) are kept in tables and
+ * referenced by ordinal.
+ * A hut whose number of beds is not known has 0 in the beds column,
+ * which is what the aggregations count for it, and is marked in a bitmap.
+ *
+ * The columns are append-only: a {@link #fork()} shares them with the
+ * original store and writes past its size, so the original keeps
+ * seeing exactly its own rows. The municipalities count their huts:
+ * a fork copies the array of the municipalities, and each municipality,
+ * before changing the count, so the original keeps its own counts.
+ *
+ */
+class HutStore {
+
+	/**
+	 * Value stored in the altitude columns when the altitude is not available
+	 */
+	static final int MISSING = Integer.MIN_VALUE;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// hut columns
+	protected int size;
+	protected String[] names = new String[INITIAL_CAPACITY];
+	protected int[] altitude = new int[INITIAL_CAPACITY];
+	protected int[] beds = new int[INITIAL_CAPACITY];
+	protected int[] category = new int[INITIAL_CAPACITY];
+	protected int[] municipality = new int[INITIAL_CAPACITY];
+	// one bit per hut, set when the number of beds is not available
+	protected int[] bedsUnknown = new int[INITIAL_CAPACITY >>> 5];
+
+	// municipality columns
+	protected int muniSize;
+	protected Municipality[] munis = new Municipality[INITIAL_CAPACITY];
+	protected int[] muniProvince = new int[INITIAL_CAPACITY];
+	protected int[] muniAltitude = new int[INITIAL_CAPACITY];
+
+	// string tables
+	protected ArrayList<String> provinces = new ArrayList<>();
+	protected HashMap<String, Integer> provinceIdx = new HashMap<>();
+	protected ArrayList<String> categories = new ArrayList<>();
+	protected HashMap<String, Integer> categoryIdx = new HashMap<>();
+	// true while the tables are shared with the store this one was forked from
+	protected boolean sharedTables;
+	// true while the array of the municipalities is shared as well
+	protected boolean sharedMunis;
+
+	/**
+	 * Append a municipality and assign it its ordinal.
+	 *
+	 * @param m the municipality
+	 * @return the ordinal of the municipality
+	 */
+	int addMunicipality(Municipality m) {
+		int id = appendMunicipality(m);
+		m.ordinal = id;
+		m.owner = this;
+		return id;
+	}
+
+	private int appendMunicipality(Municipality m) {
+		if(muniSize == munis.length) {
+			int cap = muniSize * 2;
+			munis = Arrays.copyOf(munis, cap);
+			sharedMunis = false;
+			muniProvince = Arrays.copyOf(muniProvince, cap);
+			muniAltitude = Arrays.copyOf(muniAltitude, cap);
+		}
+		int id = muniSize;
+		munis[id] = m;
+		muniProvince[id] = provinceOrdinal(m.getProvince());
+		muniAltitude[id] = m.getAltitude() == null ? MISSING : m.getAltitude();
+		muniSize++;
+		return id;
+	}
+
+	/**
+	 * Store holding a single hut, for the huts created outside of a region.
+	 * The municipality is not registered, so its ordinal does not change.
+	 *
+	 * @return the store, with the hut in row 0
+	 */
+	static HutStore single(String name, Integer alt, String cat, Integer bedsNumber, Municipality m) {
+		HutStore s = new HutStore();
+		s.addHut(name, alt, cat, bedsNumber, m == null ? -1 : s.appendMunicipality(m));
+		return s;
+	}
+
+	/**
+	 * Append a mountain hut row.
+	 *
+	 * @return the ordinal of the new row
+	 */
+	int addHut(String name, Integer alt, String cat, Integer bedsNumber, Municipality m) {
+		int id = addHut(name, alt, cat, bedsNumber, m.ordinal);
+		countHut(m.ordinal);
+		return id;
+	}
+
+	/**
+	 * Count a new hut in its municipality, copying the municipality
+	 * if it is seen by the store this one was forked from.
+	 */
+	private void countHut(int m) {
+		Municipality mu = munis[m];
+		if(mu.owner != this) {
+			if(sharedMunis) {
+				munis = munis.clone();
+				sharedMunis = false;
+			}
+			munis[m] = mu = mu.copy(this);
+		}
+		mu.mountHut++;
+	}
+
+	private int addHut(String name, Integer alt, String cat, Integer bedsNumber, int muni) {
+		if(size == names.length) {
+			int cap = size * 2;
+			names = Arrays.copyOf(names, cap);
+			altitude = Arrays.copyOf(altitude, cap);
+			beds = Arrays.copyOf(beds, cap);
+			category = Arrays.copyOf(category, cap);
+			municipality = Arrays.copyOf(municipality, cap);
+			bedsUnknown = Arrays.copyOf(bedsUnknown, (cap + 31) >>> 5);
+		}
+		int id = size;
+		names[id] = name;
+		altitude[id] = alt == null ? MISSING : alt;
+		beds[id] = bedsNumber == null ? 0 : bedsNumber;
+		if(bedsNumber == null)
+			markBedsUnknown(id);
+		category[id] = categoryOrdinal(cat);
+		municipality[id] = muni;
+		size++;
+		return id;
+	}
+
+	/**
+	 * Copy of this store sharing the columns, to which new rows can be
+	 * appended without changing what this store contains.
+	 *
+	 * @return the copy
+	 */
+	HutStore fork() {
+		return copyTo(new HutStore());
+	}
+
+	protected HutStore copyTo(HutStore s) {
+		s.size = size;
+		s.names = names;
+		s.altitude = altitude;
+		s.beds = beds;
+		s.category = category;
+		s.municipality = municipality;
+		s.bedsUnknown = bedsUnknown;
+		s.muniSize = muniSize;
+		s.munis = munis;
+		s.muniProvince = muniProvince;
+		s.muniAltitude = muniAltitude;
+		s.provinces = provinces;
+		s.provinceIdx = provinceIdx;
+		s.categories = categories;
+		s.categoryIdx = categoryIdx;
+		s.sharedTables = true;
+		s.sharedMunis = true;
+		return s;
+	}
+
+	// accessors of the columns, overridden by the stores that do not keep them in arrays
+
+	int altitudeOf(int i) {
+		return altitude[i];
+	}
+
+	int bedsOf(int i) {
+		return beds[i];
+	}
+
+	int categoryOf(int i) {
+		return category[i];
+	}
+
+	int municipalityOf(int i) {
+		return municipality[i];
+	}
+
+	int provinceOfMunicipality(int m) {
+		return muniProvince[m];
+	}
+
+	int altitudeOfMunicipality(int m) {
+		return muniAltitude[m];
+	}
+
+	/**
+	 * Tells whether the columns are held in the arrays, so that
+	 * they can be read directly, e.g. by the vectorized kernels.
+	 */
+	boolean onHeap() {
+		return true;
+	}
+
+	/**
+	 * Altitude of the hut, or the altitude of its municipality
+	 * when the former is not available.
+	 *
+	 * @param i the hut ordinal
+	 * @return the altitude or {@link #MISSING}
+	 */
+	int effectiveAltitude(int i) {
+		int a = altitudeOf(i);
+		return a != MISSING ? a : altitudeOfMunicipality(municipalityOf(i));
+	}
+
+	/**
+	 * Tells whether the number of beds of a hut is known.
+	 *
+	 * @param i the hut ordinal
+	 * @return {@code false} if the beds column holds 0 in place of a missing value
+	 */
+	boolean hasBeds(int i) {
+		return (bedsUnknown[i >>> 5] & (1 << i)) == 0;
+	}
+
+	void markBedsUnknown(int i) {
+		bedsUnknown[i >>> 5] |= 1 << i;
+	}
+
+	String hutName(int i) {
+		return names[i];
+	}
+
+	Municipality municipalityAt(int m) {
+		return munis[m];
+	}
+
+	String municipalityName(int m) {
+		return munis[m].getName();
+	}
+
+	int provinceOf(int i) {
+		return provinceOfMunicipality(municipalityOf(i));
+	}
+
+	private int provinceOrdinal(String s) {
+		Integer o = provinceIdx.get(s);
+		if(o == null) {
+			ownTables();
+			o = provinces.size();
+			provinces.add(s);
+			provinceIdx.put(s, o);
+		}
+		return o;
+	}
+
+	private int categoryOrdinal(String s) {
+		Integer o = categoryIdx.get(s);
+		if(o == null) {
+			ownTables();
+			o = categories.size();
+			categories.add(s);
+			categoryIdx.put(s, o);
+		}
+		return o;
+	}
+
+	private void ownTables() {
+		if(!sharedTables)
+			return;
+		provinces = new ArrayList<>(provinces);
+		provinceIdx = new HashMap<>(provinceIdx);
+		categories = new ArrayList<>(categories);
+		categoryIdx = new HashMap<>(categoryIdx);
+		sharedTables = false;
+	}
+}
@@ -0,0 +1,215 @@
+package mountainhuts;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A {@link HutStore} loaded from a binary snapshot (see {@link RegionSnapshot}).
+ *
+ * The columns are read in place from the mapped file, so creating the
+ * store takes the same time whatever the number of huts; the names of
+ * huts and municipalities are decoded from the string table, and the
+ * {@link Municipality} objects created, only when first requested.
+ *
+ * The first change copies the columns to the heap and appends to them
+ * as a plain store does; the forks that are not changed keep reading the file.
+ *
+ */
+class MappedHutStore extends HutStore {
+
+	/**
+	 * Sections of a mapped snapshot, shared by a store and its forks.
+	 */
+	static class Mapping {
+		final ByteBuffer buf;
+		final IntBuffer stringOffsets;
+		final int stringBase;
+		final int huts;
+		final int munis;
+		IntBuffer hutNames, hutAltitude, hutBeds, hutCategory, hutMunicipality, hutNoBeds;
+		IntBuffer muniNames, muniProvince, muniAltitude;
+		// decoded when first requested
+		private volatile String[] names;
+		private Municipality[] municipalities;
+		private long[] hutCounts;
+
+		Mapping(ByteBuffer buf, IntBuffer stringOffsets, int stringBase, int huts, int munis) {
+			this.buf = buf;
+			this.stringOffsets = stringOffsets;
+			this.stringBase = stringBase;
+			this.huts = huts;
+			this.munis = munis;
+		}
+
+		/**
+		 * Decode an entry of the string table.
+		 *
+		 * @param idx index of the string
+		 * @return the string
+		 */
+		String string(int idx) {
+			int from = stringOffsets.get(idx);
+			int len = stringOffsets.get(idx+1) - from;
+			byte[] b = new byte[len];
+			buf.get(stringBase+from, b);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+
+		String hutName(int i) {
+			String[] cache = names;
+			if(cache==null) {
+				synchronized(this) {
+					if((cache = names)==null)
+						names = cache = new String[huts];
+				}
+			}
+			// strings are immutable, a race only decodes a name twice
+			String n = cache[i];
+			if(n==null)
+				cache[i] = n = string(hutNames.get(i));
+			return n;
+		}
+
+		synchronized Municipality municipality(int m, List<String> provinces) {
+			if(municipalities==null)
+				municipalities = new Municipality[munis];
+			Municipality mu = municipalities[m];
+			if(mu==null) {
+				int alt = muniAltitude.get(m);
+				mu = new Municipality(string(muniNames.get(m)), provinces.get(muniProvince.get(m)), alt==MISSING ? null : alt);
+				mu.ordinal = m;
+				if(hutCounts==null) {
+					hutCounts = new long[munis];
+					for(int i=0; i<huts; i++)
+						hutCounts[hutMunicipality.get(i)]++;
+				}
+				mu.mountHut = hutCounts[m];
+				municipalities[m] = mu;
+			}
+			return mu;
+		}
+	}
+
+	// null once the columns are on the heap
+	private Mapping map;
+
+	MappedHutStore(Mapping map) {
+		this.map = map;
+		size = map.huts;
+		muniSize = map.munis;
+	}
+
+	private MappedHutStore(MappedHutStore from) {
+		this.map = from.map;
+	}
+
+	@Override
+	HutStore fork() {
+		return copyTo(new MappedHutStore(this));
+	}
+
+	@Override
+	boolean onHeap() {
+		return map==null;
+	}
+
+	/**
+	 * Copy the columns from the file to the heap, before the first change.
+	 */
+	private void toHeap() {
+		if(map==null)
+			return;
+		int hcap = Math.max(size, 1), mcap = Math.max(muniSize, 1);
+		String[] n = new String[hcap];
+		int[] alt = new int[hcap], b = new int[hcap], cat = new int[hcap], mu = new int[hcap];
+		int[] noBeds = new int[(hcap+31)>>>5];
+		map.hutAltitude.get(0, alt, 0, size);
+		map.hutBeds.get(0, b, 0, size);
+		map.hutCategory.get(0, cat, 0, size);
+		map.hutMunicipality.get(0, mu, 0, size);
+		map.hutNoBeds.get(0, noBeds, 0, (size+31)>>>5);
+		for(int i=0; i<size; i++)
+			n[i] = map.hutName(i);
+		Municipality[] ms = new Municipality[mcap];
+		int[] prov = new int[mcap], malt = new int[mcap];
+		map.muniProvince.get(0, prov, 0, muniSize);
+		map.muniAltitude.get(0, malt, 0, muniSize);
+		for(int m=0; m<muniSize; m++)
+			ms[m] = map.municipality(m, provinces);
+		names = n;
+		altitude = alt;
+		beds = b;
+		category = cat;
+		municipality = mu;
+		bedsUnknown = noBeds;
+		munis = ms;
+		sharedMunis = false;
+		muniProvince = prov;
+		muniAltitude = malt;
+		map = null;
+	}
+
+	@Override
+	int addMunicipality(Municipality m) {
+		toHeap();
+		return super.addMunicipality(m);
+	}
+
+	@Override
+	int addHut(String name, Integer alt, String cat, Integer bedsNumber, Municipality m) {
+		toHeap();
+		return super.addHut(name, alt, cat, bedsNumber, m);
+	}
+
+	@Override
+	int altitudeOf(int i) {
+		return map==null ? altitude[i] : map.hutAltitude.get(i);
+	}
+
+	@Override
+	int bedsOf(int i) {
+		return map==null ? beds[i] : map.hutBeds.get(i);
+	}
+
+	@Override
+	int categoryOf(int i) {
+		return map==null ? category[i] : map.hutCategory.get(i);
+	}
+
+	@Override
+	int municipalityOf(int i) {
+		return map==null ? municipality[i] : map.hutMunicipality.get(i);
+	}
+
+	@Override
+	int provinceOfMunicipality(int m) {
+		return map==null ? muniProvince[m] : map.muniProvince.get(m);
+	}
+
+	@Override
+	int altitudeOfMunicipality(int m) {
+		return map==null ? muniAltitude[m] : map.muniAltitude.get(m);
+	}
+
+	@Override
+	boolean hasBeds(int i) {
+		return map==null ? super.hasBeds(i) : (map.hutNoBeds.get(i >>> 5) & (1 << i)) == 0;
+	}
+
+	@Override
+	String hutName(int i) {
+		return map==null ? names[i] : map.hutName(i);
+	}
+
+	@Override
+	Municipality municipalityAt(int m) {
+		return map==null ? munis[m] : map.municipality(m, provinces);
+	}
+
+	@Override
+	String municipalityName(int m) {
+		return municipalityAt(m).getName();
+	}
+}
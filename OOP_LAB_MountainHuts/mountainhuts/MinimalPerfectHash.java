@@ -0,0 +1,153 @@
+package mountainhuts;
+
+/**
+ * Minimal perfect hash function of a fixed set of strings: each of the
+ * {@code n} strings is mapped to a distinct slot in {@code [0, n)}.
+ *
+ * The function is built by hash and displace: the strings are split
+ * into buckets of about four, and for each bucket, the largest first,
+ * a seed is searched that sends all its strings to free slots. A lookup
+ * hashes the string once and reads the seed of its bucket, so the function
+ * takes a single {@code int} per bucket, about one byte per string.
+ *
+ * Strings not in the set are mapped to some slot as well: the caller must
+ * check that the string stored in the slot is the one looked up.
+ *
+ */
+class MinimalPerfectHash {
+
+	private static final int KEYS_PER_BUCKET = 4;
+	private static final int MAX_SEED = 1 << 24;
+	private static final int MAX_SALTS = 64;
+
+	private final int n;
+	private final int[] seeds;
+	private final long salt;
+
+	/**
+	 * Build the function of the given strings, that must be distinct.
+	 *
+	 * @param keys the strings
+	 * @throws IllegalArgumentException if two strings are equal
+	 * @throws IllegalStateException if no function is found, which is
+	 * 			not expected with distinct strings
+	 */
+	MinimalPerfectHash(String[] keys) {
+		n = keys.length;
+		long[] h = new long[n];
+		long s = 0x2545F4914F6CDD1DL;
+		for(int k=0; k<MAX_SALTS; k++, s += 0x9E3779B97F4A7C15L) {
+			for(int i=0; i<n; i++)
+				h[i] = hash(keys[i], s);
+			int[] found = build(keys, h);
+			if(found!=null) {
+				seeds = found;
+				salt = s;
+				return;
+			}
+		}
+		throw new IllegalStateException("No perfect hash found for " + n + " keys");
+	}
+
+	/**
+	 * Slot of a string of the set.
+	 *
+	 * @param key the string
+	 * @return the slot, or -1 if the set is empty
+	 */
+	int slot(String key) {
+		if(n==0)
+			return -1;
+		long h = hash(key, salt);
+		return slot(h, seeds[bucket(h, seeds.length)]);
+	}
+
+	private int[] build(String[] strings, long[] h) {
+		int m = Math.max(1, (n+KEYS_PER_BUCKET-1)/KEYS_PER_BUCKET);
+		// keys grouped by bucket
+		int[] start = new int[m+1];
+		for(long x: h)
+			start[bucket(x, m)+1]++;
+		int largest = 0;
+		for(int b=0; b<m; b++) {
+			largest = Math.max(largest, start[b+1]);
+			start[b+1] += start[b];
+		}
+		int[] keys = new int[n];
+		int[] fill = start.clone();
+		for(int i=0; i<n; i++)
+			keys[fill[bucket(h[i], m)]++] = i;
+		// buckets by decreasing size
+		int[] bySize = new int[largest+2];
+		for(int b=0; b<m; b++)
+			bySize[largest-(start[b+1]-start[b])+1]++;
+		for(int k=0; k<=largest; k++)
+			bySize[k+1] += bySize[k];
+		int[] order = new int[m];
+		for(int b=0; b<m; b++)
+			order[bySize[largest-(start[b+1]-start[b])]++] = b;
+
+		int[] seeds = new int[m];
+		boolean[] taken = new boolean[n];
+		int[] slots = new int[largest];
+		for(int b: order) {
+			int size = start[b+1]-start[b];
+			if(size==0)
+				break;
+			// no seed separates two equal hashes: equal strings, or another salt needed
+			for(int j=start[b]; j<start[b+1]; j++)
+				for(int k=start[b]; k<j; k++)
+					if(h[keys[j]]==h[keys[k]]) {
+						if(strings[keys[j]].equals(strings[keys[k]]))
+							throw new IllegalArgumentException("Duplicate key " + strings[keys[j]]);
+						return null;
+					}
+			int seed = 0;
+			for(;; seed++) {
+				if(seed==MAX_SEED)
+					return null;
+				if(place(h, keys, start[b], size, seed, taken, slots))
+					break;
+			}
+			for(int j=0; j<size; j++)
+				taken[slots[j]] = true;
+			seeds[b] = seed;
+		}
+		return seeds;
+	}
+
+	private boolean place(long[] h, int[] keys, int from, int size, int seed, boolean[] taken, int[] slots) {
+		for(int j=0; j<size; j++) {
+			int s = slot(h[keys[from+j]], seed);
+			if(taken[s])
+				return false;
+			for(int k=0; k<j; k++)
+				if(slots[k]==s)
+					return false;
+			slots[j] = s;
+		}
+		return true;
+	}
+
+	private static int bucket(long h, int m) {
+		return (int)(((h>>>32)*m)>>>32);
+	}
+
+	private int slot(long h, int seed) {
+		long x = mix(h + seed*0x9E3779B97F4A7C15L);
+		return (int)(((x&0xFFFFFFFFL)*n)>>>32);
+	}
+
+	private static long hash(String s, long salt) {
+		long h = salt;
+		for(int i=0; i<s.length(); i++)
+			h = (h ^ s.charAt(i)) * 0x100000001B3L;
+		return mix(h);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -6,23 +6,33 @@ import java.util.Optional;
  * Represents a mountain hut.
  * 
  * It is linked to a {@link Municipality}
+ * 
+ * The object is a view over a row of the {@link HutStore}
+ * of the region, it does not hold the data itself.
  *
  */
 public class MountainHut {
 
-	protected String nome;
-	protected Optional<Integer> altitude;
-	protected String category;
-	protected Integer beds;
-	protected Municipality muni;
-	
+	protected HutStore store;
+	protected int id;
 	
+	/**
+	 * Create a mountain hut that does not belong to a region,
+	 * with its data in a store of its own.
+	 * 
+	 * @param nome the name
+	 * @param altitude the altitude, {@code null} if not available
+	 * @param category the category
+	 * @param beds the number of beds, {@code null} if not available
+	 * @param muni the municipality
+	 */
 	public MountainHut(String nome, Integer altitude, String category, Integer beds, Municipality muni) {
-		this.nome = nome;
-		this.altitude = Optional.ofNullable(altitude);
-		this.category = category;
-		this.beds = beds;
-		this.muni = muni;
+		this(HutStore.single(nome, altitude, category, beds, muni), 0);
+	}
+
+	MountainHut(HutStore store, int id) {
+		this.store = store;
+		this.id = id;
 	}
 
 	/**
@@ -30,7 +40,7 @@ public class MountainHut {
 	 * @return name
 	 */
 	public String getName() {
-		return nome;
+		return store.hutName(id);
 	}
 
 	/**
@@ -40,7 +50,8 @@ public class MountainHut {
 	 * @return optional containing the altitude
 	 */
 	public Optional<Integer> getAltitude() {
-		return altitude;
+		int a = store.altitudeOf(id);
+		return a==HutStore.MISSING ? Optional.empty() : Optional.of(a);
 	}
 
 	/**
@@ -49,15 +60,15 @@ public class MountainHut {
 	 * @return the category
 	 */
 	public String getCategory() {
-		return category;
+		return store.categories.get(store.categoryOf(id));
 	}
 
 	/**
 	 * Number of beds places available in the mountain hut
-	 * @return number of beds
+	 * @return number of beds, {@code null} if not available
 	 */
 	public Integer getBedsNumber() {
-		return beds;
+		return store.hasBeds(id) ? store.bedsOf(id) : null;
 	}
 
 	/**
@@ -66,7 +77,26 @@ public class MountainHut {
 	 * @return municipality
 	 */
 	public Municipality getMunicipality() {
-		return muni;
+		int m = store.municipalityOf(id);
+		return m < 0 ? null : store.municipalityAt(m);
+	}
+
+	/**
+	 * Two objects are equal when they show the same row of the same store,
+	 * e.g. two lookups of a hut in a {@link FrozenRegion}; a {@link Region}
+	 * returns a single object per hut.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof MountainHut))
+			return false;
+		MountainHut h = (MountainHut) o;
+		return store == h.store && id == h.id;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(store) * 31 + id;
 	}
 
 }
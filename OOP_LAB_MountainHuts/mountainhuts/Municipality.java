@@ -1,23 +1,38 @@
 package mountainhuts;
 
-import java.util.HashMap;
-
 /**
  * Represents a municipality
  *
+ * The object belongs to a version of its {@link Region}: a change adding
+ * huts to the municipality works on a copy, so the number of huts is the
+ * one of the version the object was obtained from.
+ *
  */
 public class Municipality {
 
 	protected String nome;
 	protected String provincia;
 	protected Integer altitudine;
-	protected HashMap<String, MountainHut> mountHut;
+	protected long mountHut;
+	protected int ordinal;
+	// store of the version allowed to change the object, null if none
+	HutStore owner;
 	
 	public Municipality(String nome, String provincia, Integer altitudine) {
 		this.nome = nome;
 		this.provincia = provincia;
 		this.altitudine = altitudine;
-		mountHut = new HashMap<String, MountainHut>();
+	}
+
+	/**
+	 * Copy of the municipality that a version can change.
+	 */
+	Municipality copy(HutStore owner) {
+		Municipality m = new Municipality(nome, provincia, altitudine);
+		m.mountHut = mountHut;
+		m.ordinal = ordinal;
+		m.owner = owner;
+		return m;
 	}
 	
 	/**
@@ -49,7 +64,13 @@ public class Municipality {
 		return altitudine;
 	}
 	
+	/**
+	 * Number of mountain huts of the municipality, in the version of the
+	 * region the object was obtained from.
+	 * 
+	 * @return number of huts
+	 */
 	public Long numMountHut() {
-		return (long)mountHut.size();
+		return mountHut;
 	}
 }
@@ -0,0 +1,390 @@
+package mountainhuts;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Inverted index from a number of mountain huts to the names of the
+ * municipalities having that many huts.
+ *
+ * It is updated each time a hut is added to a municipality, moving the
+ * municipality to the next bucket, so reading it requires no computation.
+ * Each bucket keeps the names in alphabetical order.
+ *
+ * The entries are the pairs (count, name), kept in a treap ordered by
+ * count and then by name, whose nodes record the size of their subtree:
+ * a bucket is the range of the entries with the same count, and its
+ * i-th name is found by rank, so moving a municipality costs O(log M).
+ *
+ * A {@link #fork()} shares the tree with the original index: each index
+ * changes in place only the nodes it owns and copies the others on the
+ * path to an entry, so the original is never modified.
+ *
+ */
+class MunicipalityCountIndex {
+
+	private static final class Node {
+		final long count;
+		final String name;
+		final int priority;
+		Node left, right;
+		int size;
+		final Object owner;
+
+		Node(long count, String name, int priority, Node left, Node right, Object owner) {
+			this.count = count;
+			this.name = name;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			this.size = 1 + size(left) + size(right);
+			this.owner = owner;
+		}
+	}
+
+	private Object owner = new Object();
+	private Node root;
+	// number of distinct counts
+	private int buckets;
+
+	/**
+	 * Build the index of a set of municipalities at once, sorting them
+	 * instead of moving each one through the buckets hut by hut.
+	 *
+	 * @param municipalities the municipalities, with their huts
+	 * @return the index
+	 */
+	static MunicipalityCountIndex of(List<Municipality> municipalities) {
+		MunicipalityCountIndex index = new MunicipalityCountIndex();
+		Node[] nodes = new Node[municipalities.size()];
+		int n = 0;
+		for(Municipality m: municipalities) {
+			long count = m.numMountHut();
+			if(count>0)
+				nodes[n++] = new Node(count, m.getName(), priority(count, m.getName()), null, null, index.owner);
+		}
+		Arrays.sort(nodes, 0, n, Comparator.<Node>comparingLong(x->x.count).thenComparing(x->x.name));
+		// the treap of sorted entries is their cartesian tree by priority
+		Node[] spine = new Node[n];
+		int top = 0;
+		for(int i=0; i<n; i++) {
+			Node x = nodes[i], last = null;
+			while(top>0 && spine[top-1].priority<x.priority) {
+				last = spine[--top];
+				last.size = 1 + size(last.left) + size(last.right);
+			}
+			x.left = last;
+			if(top>0)
+				spine[top-1].right = x;
+			spine[top++] = x;
+			if(i==0 || x.count!=nodes[i-1].count)
+				index.buckets++;
+		}
+		while(top>0) {
+			Node last = spine[--top];
+			last.size = 1 + size(last.left) + size(last.right);
+		}
+		index.root = n==0 ? null : spine[0];
+		return index;
+	}
+
+	/**
+	 * Copy of this index that can be updated without changing this one.
+	 *
+	 * @return the copy
+	 */
+	MunicipalityCountIndex fork() {
+		MunicipalityCountIndex f = new MunicipalityCountIndex();
+		f.root = root;
+		f.buckets = buckets;
+		// the shared nodes now belong to neither index
+		owner = new Object();
+		return f;
+	}
+
+	/**
+	 * Record that a municipality went from {@code count} to {@code count+1} huts.
+	 *
+	 * @param name the name of the municipality
+	 * @param count the number of huts before the new one
+	 */
+	void increment(String name, long count) {
+		if(count>0) {
+			root = remove(root, count, name);
+			if(!contains(root, count))
+				buckets--;
+		}
+		if(!contains(root, count+1))
+			buckets++;
+		root = insert(root, count+1, name, priority(count+1, name));
+	}
+
+	private static int priority(long count, String name) {
+		int h = name.hashCode()*31 + Long.hashCode(count);
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	private static int size(Node n) {
+		return n==null ? 0 : n.size;
+	}
+
+	private static int compare(long count, String name, Node n) {
+		return count!=n.count ? Long.compare(count, n.count) : name.compareTo(n.name);
+	}
+
+	/**
+	 * The node with the given children, changed in place if owned by this index.
+	 */
+	private Node with(Node n, Node left, Node right) {
+		if(n.owner!=owner)
+			return new Node(n.count, n.name, n.priority, left, right, owner);
+		n.left = left;
+		n.right = right;
+		n.size = 1 + size(left) + size(right);
+		return n;
+	}
+
+	private Node insert(Node n, long count, String name, int priority) {
+		if(n==null)
+			return new Node(count, name, priority, null, null, owner);
+		int c = compare(count, name, n);
+		if(c==0)
+			return n;
+		if(c<0) {
+			Node l = insert(n.left, count, name, priority);
+			if(l.priority>n.priority)
+				return with(l, l.left, with(n, l.right, n.right));
+			return with(n, l, n.right);
+		}
+		Node r = insert(n.right, count, name, priority);
+		if(r.priority>n.priority)
+			return with(r, with(n, n.left, r.left), r.right);
+		return with(n, n.left, r);
+	}
+
+	private Node remove(Node n, long count, String name) {
+		if(n==null)
+			return null;
+		int c = compare(count, name, n);
+		if(c<0)
+			return with(n, remove(n.left, count, name), n.right);
+		if(c>0)
+			return with(n, n.left, remove(n.right, count, name));
+		return merge(n.left, n.right);
+	}
+
+	/**
+	 * Join two trees, all the entries of {@code a} preceding those of {@code b}.
+	 */
+	private Node merge(Node a, Node b) {
+		if(a==null)
+			return b;
+		if(b==null)
+			return a;
+		if(a.priority>b.priority)
+			return with(a, a.left, merge(a.right, b));
+		return with(b, merge(a, b.left), b.right);
+	}
+
+	private static boolean contains(Node n, long count) {
+		while(n!=null) {
+			if(n.count==count)
+				return true;
+			n = count<n.count ? n.left : n.right;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of entries with a count lower than the given one.
+	 */
+	private static int rank(Node n, long count) {
+		int r = 0;
+		while(n!=null) {
+			if(n.count<count) {
+				r += size(n.left) + 1;
+				n = n.right;
+			} else {
+				n = n.left;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Lowest count not lower than the given one, or -1 if none.
+	 */
+	private static long ceiling(Node n, long count) {
+		long back = -1;
+		while(n!=null) {
+			if(n.count>=count) {
+				back = n.count;
+				n = n.left;
+			} else {
+				n = n.right;
+			}
+		}
+		return back;
+	}
+
+	/**
+	 * Read-only view of the index as it is at the time of the call.
+	 */
+	Map<Long, List<String>> view() {
+		// the viewed nodes must not be changed in place any more
+		owner = new Object();
+		return new View(root, buckets);
+	}
+
+	private static class View extends AbstractMap<Long, List<String>> {
+		private final Node root;
+		private final int buckets;
+
+		View(Node root, int buckets) {
+			this.root = root;
+			this.buckets = buckets;
+		}
+
+		@Override
+		public List<String> get(Object key) {
+			if(!(key instanceof Long))
+				return null;
+			long count = (Long) key;
+			int from = rank(root, count), to = rank(root, count+1);
+			return from==to ? null : new Bucket(root, from, to-from);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof Long && contains(root, (Long) key);
+		}
+
+		@Override
+		public int size() {
+			return buckets;
+		}
+
+		@Override
+		public Set<Map.Entry<Long, List<String>>> entrySet() {
+			return new AbstractSet<Map.Entry<Long, List<String>>>() {
+				@Override
+				public Iterator<Map.Entry<Long, List<String>>> iterator() {
+					return new Iterator<Map.Entry<Long, List<String>>>() {
+						long next = ceiling(root, 0);
+
+						@Override
+						public boolean hasNext() {
+							return next>=0;
+						}
+
+						@Override
+						public Map.Entry<Long, List<String>> next() {
+							if(next<0)
+								throw new NoSuchElementException();
+							long count = next;
+							next = ceiling(root, count+1);
+							return new AbstractMap.SimpleImmutableEntry<>(count, get(count));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return buckets;
+				}
+			};
+		}
+	}
+
+	/**
+	 * The names of a bucket: the entries with ranks in {@code [from, from+size)}.
+	 */
+	private static class Bucket extends AbstractList<String> implements RandomAccess {
+		private final Node root;
+		private final int from;
+		private final int size;
+
+		Bucket(Node root, int from, int size) {
+			this.root = root;
+			this.from = from;
+			this.size = size;
+		}
+
+		@Override
+		public String get(int i) {
+			if(i<0 || i>=size)
+				throw new IndexOutOfBoundsException(i);
+			Node n = root;
+			int r = from+i;
+			while(true) {
+				int l = MunicipalityCountIndex.size(n.left);
+				if(r<l) {
+					n = n.left;
+				} else if(r>l) {
+					r -= l+1;
+					n = n.right;
+				} else {
+					return n.name;
+				}
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			// in-order visit from the first entry, without searching each rank again
+			ArrayDeque<Node> path = new ArrayDeque<>();
+			Node n = root;
+			int r = from;
+			while(n!=null) {
+				int l = MunicipalityCountIndex.size(n.left);
+				if(r<=l) {
+					path.push(n);
+					if(r==l)
+						break;
+					n = n.left;
+				} else {
+					r -= l+1;
+					n = n.right;
+				}
+			}
+			return new Iterator<String>() {
+				int left = size;
+
+				@Override
+				public boolean hasNext() {
+					return left>0;
+				}
+
+				@Override
+				public String next() {
+					if(left==0)
+						throw new NoSuchElementException();
+					Node n = path.pop();
+					for(Node k = n.right; k!=null; k = k.left)
+						path.push(k);
+					left--;
+					return n.name;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package mountainhuts;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of items in alphabetical order of name, with the cursor
+ * to request the following one.
+ *
+ * @param <T> the type of the items
+ */
+public class Page<T> {
+
+	protected List<T> items;
+	protected String next;
+
+	Page(List<T> items, String next) {
+		this.items = Collections.unmodifiableList(items);
+		this.next = next;
+	}
+
+	/**
+	 * Items of the page.
+	 *
+	 * @return the items
+	 */
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * Cursor of the following page, i.e. the name of the last item of this one.
+	 *
+	 * @return the cursor, or {@code null} if this is the last page
+	 */
+	public String getNextCursor() {
+		return next;
+	}
+
+	public boolean hasNext() {
+		return next!=null;
+	}
+}
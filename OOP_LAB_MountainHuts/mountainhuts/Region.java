@@ -5,20 +5,24 @@ import static java.util.stream.Collectors.toList;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+import csv.CsvException;
+import csv.CsvHeader;
+import csv.CsvIngestion;
+
 
 /**
  * Class {@code Region} represents the main facade
@@ -27,13 +31,22 @@ import java.util.stream.Stream;
  * It allows defining and retrieving information about
  * municipalities and mountain huts.
  *
+ * The data is published as a sequence of immutable versions: queries
+ * read the current version without locking, while changes are applied
+ * to a copy that replaces it atomically when complete. A version is
+ * reclaimed by the garbage collector when the last query reading it ends.
+ *
  */
 public class Region{
 
-	protected TreeSet<String> altitudini;
-	protected HashMap<String,Municipality> municipi;
-	protected TreeMap<String, MountainHut> mounHut;
-	
+	protected volatile RegionState state;
+	// version being changed by the current writer, null if none
+	protected RegionState draft;
+	protected int writeDepth;
+
+	protected boolean parallel=false;
+	protected boolean vectorized=false;
+
 	protected String nome;
 	/**
 	 * Create a region with the given name.
@@ -43,9 +56,7 @@ public class Region{
 	 */
 	public Region(String name) {
 		this.nome=name;
-		altitudini= new TreeSet<String>();
-		municipi= new HashMap<String,Municipality>();
-		mounHut= new TreeMap<String,MountainHut>();
+		state= new RegionState();
 	}
 
 	/**
@@ -57,6 +68,65 @@ public class Region{
 		return this.nome;
 	}
 
+	/**
+	 * Return the version of the data currently published;
+	 * it increases every time a change is published.
+	 * 
+	 * @return the version
+	 */
+	public long getVersion() {
+		return state.version;
+	}
+
+	/**
+	 * Select whether the aggregation methods scan the mountain huts
+	 * sequentially or split the scan among the threads of the
+	 * common fork-join pool.
+	 * 
+	 * Both modes return the same results.
+	 * 
+	 * @param parallel {@code true} to enable the parallel mode
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel=parallel;
+	}
+
+	/**
+	 * Tells whether the aggregation methods run in parallel mode.
+	 * 
+	 * @return {@code true} if the parallel mode is enabled
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Select whether the aggregation methods use the kernels based on the
+	 * Vector API, that compare and sum several rows with a single instruction.
+	 * 
+	 * The kernels are compiled separately, from the sources in {@code vector/},
+	 * and need the module {@code jdk.incubator.vector}
+	 * ({@code --add-modules jdk.incubator.vector}); when they are not available
+	 * the scalar loops are used. Both return the same results, and the
+	 * setting combines with {@link #setParallel(boolean)}. A region loaded from a
+	 * {@link RegionSnapshot} reads its columns from the file and uses the scalar
+	 * loops until it is changed.
+	 * 
+	 * @param vectorized {@code true} to use the vectorized kernels
+	 */
+	public void setVectorized(boolean vectorized) {
+		this.vectorized=vectorized;
+	}
+
+	/**
+	 * Tells whether the aggregation methods actually use the vectorized kernels.
+	 * 
+	 * @return {@code true} if the kernels are enabled and available
+	 */
+	public boolean isVectorized() {
+		return vectorized && HutAggregates.VECTOR!=null && state.store.onHeap();
+	}
+
 	/**
 	 * Create the ranges given their textual representation in the format
 	 * "[minValue]-[maxValue]".
@@ -65,9 +135,10 @@ public class Region{
 	 *            an array of textual ranges
 	 */
 	public void setAltitudeRanges(String... ranges) {
-		for(String s: ranges) {
-			altitudini.add(s);
-		}
+		write(s->{
+			s.setAltitudeRanges(ranges);
+			return null;
+		});
 	}
 
 	/**
@@ -79,15 +150,8 @@ public class Region{
 	 * @return a string representing the range
 	 */
 	public String getAltitudeRange(Integer altitude) {
-		String backy="0-INF";
-		for(String s: altitudini) {
-			String range[]=s.split("-");
-			if(altitude<=Integer.parseInt(range[1]) && altitude>=Integer.parseInt(range[0])) {
-				backy=s;
-				break;
-			}	
-		}
-		return backy;
+		RegionState s=state;
+		return s.rangeName(s.rangeIndex(altitude));
 	}
 
 	/**
@@ -103,9 +167,7 @@ public class Region{
 	 * @return the municipality
 	 */
 	public Municipality createOrGetMunicipality(String name, String province, Integer altitude) {
-		if(!municipi.containsKey(name))
-			municipi.put(name, new Municipality(name,province,altitude));
-		return municipi.get(name);
+		return write(s->s.municipality(name, province, altitude));
 	}
 
 	/**
@@ -114,13 +176,13 @@ public class Region{
 	 * @return a collection of municipalities
 	 */
 	public Collection<Municipality> getMunicipalities() {
-		return municipi.values();
+		return state.municipalities();
 	}
 
 	/**
 	 * Create a new mountain hut if it is not already available or find it.
 	 * Duplicates must be detected by comparing the mountain hut names.
-	 *
+	 * 
 	 * @param name
 	 *            the mountain hut name
 	 * @param category
@@ -133,12 +195,7 @@ public class Region{
 	 */
 	public MountainHut createOrGetMountainHut(String name, String category, Integer bedsNumber,
 			Municipality municipality) {
-		if(!municipality.mountHut.containsKey(name)) {
-			MountainHut mH =  new MountainHut(name,null,category,bedsNumber,municipality);
-			municipality.mountHut.put(name, mH);
-			mounHut.put(name, mH);
-		}
-			return municipality.mountHut.get(name);
+		return createOrGetMountainHut(name, null, category, bedsNumber, municipality);
 	}
 
 	/**
@@ -159,12 +216,7 @@ public class Region{
 	 */
 	public MountainHut createOrGetMountainHut(String name, Integer altitude, String category, Integer bedsNumber,
 			Municipality municipality) {
-		if(!mounHut.containsKey(name)) {
-			MountainHut mH=  new MountainHut(name,altitude,category,bedsNumber,municipality);
-			municipality.mountHut.put(name, mH);
-			mounHut.put(name, mH);
-		}
-		return mounHut.get(name);
+		return write(s->s.mountainHut(name, altitude, category, bedsNumber, municipality));
 	}
 
 	/**
@@ -173,7 +225,144 @@ public class Region{
 	 * @return a collection of mountain huts
 	 */
 	public Collection<MountainHut> getMountainHuts() {
-		return mounHut.values();
+		return materialized().mountainHuts();
+	}
+
+	/**
+	 * Return a page of the mountain huts, in alphabetical order.
+	 * 
+	 * The first page is requested with a {@code null} cursor, the following
+	 * ones with the cursor of the previous page: a page starts after the
+	 * last name returned, so changes to the region between two requests
+	 * never cause huts to be repeated or skipped.
+	 * 
+	 * @param cursor the cursor returned with the previous page, {@code null} for the first one
+	 * @param size the maximum number of huts of the page
+	 * @param filter the condition the huts must satisfy
+	 * @return the page
+	 */
+	public Page<MountainHut> getMountainHuts(String cursor, int size, Predicate<? super MountainHut> filter) {
+		return materialized().hutPage(cursor, size, filter);
+	}
+
+	/**
+	 * Return a page of the municipalities, in alphabetical order
+	 * (see {@link #getMountainHuts(String, int, Predicate)}).
+	 * 
+	 * @param cursor the cursor returned with the previous page, {@code null} for the first one
+	 * @param size the maximum number of municipalities of the page
+	 * @param filter the condition the municipalities must satisfy
+	 * @return the page
+	 */
+	public Page<Municipality> getMunicipalities(String cursor, int size, Predicate<? super Municipality> filter) {
+		return materialized().municipalityPage(cursor, size, filter);
+	}
+
+	/**
+	 * Search the mountain huts whose name starts with the given prefix.
+	 * The comparison ignores accents and case.
+	 * 
+	 * @param prefix the prefix of the name
+	 * @param offset number of matching huts to skip
+	 * @param limit maximum number of huts returned
+	 * @return a page of mountain huts, in alphabetical order
+	 */
+	public List<MountainHut> findMountainHuts(String prefix, int offset, int limit) {
+		RegionState s=materialized();
+		return s.nameIndex.prefix(prefix).skip(offset).limit(limit).map(s.mounHut::get).collect(toList());
+	}
+
+	/**
+	 * Search the mountain huts whose name is similar to the given one,
+	 * i.e. within {@code maxEdits} insertions, deletions or substitutions
+	 * of characters, ignoring accents and case.
+	 * The stream can be paginated with {@code skip} and {@code limit}.
+	 * 
+	 * @param name the searched name
+	 * @param maxEdits the maximum edit distance
+	 * @return the matching huts, closest first and then in alphabetical order
+	 */
+	public Stream<MountainHut> fuzzyFindMountainHuts(String name, int maxEdits) {
+		RegionState s=materialized();
+		return s.nameIndex.fuzzy(name, maxEdits).map(s.mounHut::get);
+	}
+
+	/**
+	 * Return the current version with the name indexes built.
+	 * A region loaded from a {@link RegionSnapshot} builds them on the first request.
+	 */
+	protected RegionState materialized() {
+		RegionState s=state;
+		if(s.materialized)
+			return s;
+		synchronized(this) {
+			if(!state.materialized) {
+				RegionState m=state.fork();
+				m.materialize();
+				state=m;
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * Apply a change to the version being written, creating it if needed.
+	 * The version is published when the outermost change ends.
+	 */
+	protected synchronized <T> T write(Function<RegionState, T> change) {
+		if(draft==null) {
+			draft=materialized().fork();
+			draft.version++;
+		}
+		writeDepth++;
+		try {
+			return change.apply(draft);
+		} finally {
+			if(--writeDepth==0) {
+				state=draft;
+				draft=null;
+			}
+		}
+	}
+
+	/**
+	 * Apply several changes and publish them together as a single version.
+	 * 
+	 * Queries keep reading the previous version until all the changes are
+	 * done, so they never see a part of them; if the changes end with an
+	 * exception the ones already applied are published anyway.
+	 * 
+	 * @param changes the changes, that call the {@code createOrGet} methods of the region
+	 */
+	public void update(Consumer<Region> changes) {
+		write(s->{
+			changes.accept(this);
+			return null;
+		});
+	}
+
+	/**
+	 * Replace the content of the region with the one of a file
+	 * (see {@link #fromFile}), keeping the altitude ranges.
+	 * 
+	 * The new version is loaded while the queries keep reading the
+	 * previous one, and then replaces it in a single step.
+	 * Changes published while loading are discarded.
+	 * 
+	 * @param file
+	 *            the path of the file
+	 */
+	public void reload(String file) {
+		RegionState next=new RegionState();
+		load(next, file);
+		synchronized(this) {
+			if(draft!=null)
+				throw new IllegalStateException("Reload during an update");
+			RegionState old=state;
+			next.copyRanges(old);
+			next.version=old.version+1;
+			state=next;
+		}
 	}
 
 	/**
@@ -191,7 +380,8 @@ public class Region{
 	 * </ul>
 	 * 
 	 * The fields are separated by a semicolon (';'). The field {@code "Altitude"}
-	 * may be empty.
+	 * may be empty. The columns are found by name in the header line;
+	 * lines that cannot be read are skipped and reported on the standard error.
 	 * 
 	 * @param name
 	 *            the name of the region
@@ -200,21 +390,48 @@ public class Region{
 	 */
 	public static Region fromFile(String name, String file) {
 		Region r=new Region(name);
-		List<String> rData = readData(file);
-		String intestazione = rData.remove(0);
-		//dovr� trovare cosa fare con questa lista
-		for(String s: rData) {
-			String values[]=s.split(";");
-			Municipality mu=r.createOrGetMunicipality(values[1], values[0], Integer.parseInt(values[2]));
-			if(values[4].equals(""))
-				r.createOrGetMountainHut(values[3],values[5],Integer.parseInt(values[6]),mu);
-			else
-				r.createOrGetMountainHut(values[3],Integer.parseInt(values[4]),values[5],(Integer) Integer.parseInt(values[6]),mu);
-			System.out.println(values[3]+":"+values[4]);
-		}
+		load(r.state, file);
 		return r;
 	}
 
+	/**
+	 * Load the lines of a CSV file into a version that is not published yet.
+	 */
+	private static void load(RegionState s, String file) {
+		s.bulk=true;
+		try {
+			new CsvIngestion<RegionState.Row>(RegionState.Row::of, b->{
+				for(int i=0; i<b.size(); i++) {
+					try {
+						s.add(b.get(i));
+					} catch(RuntimeException e) {
+						b.reject(i, e);
+					}
+				}
+			}, RegionState.COLUMNS)
+				.delimiter(';')
+				.run(Paths.get(file), Charset.defaultCharset());
+		} catch(IOException | CsvException e) {
+			System.err.println(e.getMessage());
+		} finally {
+			s.endBulk();
+		}
+	}
+
+	/**
+	 * Add the municipality and the mountain hut described by a line
+	 * of the CSV file (see {@link #fromFile}).
+	 * 
+	 * @param line a data line, without the line terminator
+	 * @param header the columns of the file, bound to its header line
+	 */
+	protected void addRow(String line, CsvHeader header) {
+		write(s->{
+			s.addRow(line, header);
+			return null;
+		});
+	}
+
 	/**
 	 * Internal class that can be used to read the lines of
 	 * a text file into a list of strings.
@@ -244,9 +461,15 @@ public class Region{
 	 *         value
 	 */
 	public Map<String, Long> countMunicipalitiesPerProvince() {
-		return (municipi.values()).stream()
-						.collect(
-								Collectors.groupingBy(p->p.getProvince(),Collectors.counting()));
+		HutStore s=state.store;
+		long[] count=new long[s.provinces.size()];
+		for(int m=0; m<s.muniSize; m++)
+			count[s.provinceOfMunicipality(m)]++;
+		Map<String, Long> back=new HashMap<>();
+		for(int p=0; p<count.length; p++)
+			if(count[p]>0)
+				back.put(s.provinces.get(p), count[p]);
+		return back;
 	}
 
 	/**
@@ -256,14 +479,15 @@ public class Region{
 	 *         municipality as key and the number of mountain huts as value
 	 */
 	public Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
-		return  mounHut.values().stream()
-						.collect(
-								Collectors.groupingBy(m->m.getMunicipality().getProvince(),
-													  Collectors.groupingBy(m->m.getMunicipality().getName(),
-																			Collectors.counting()
-																			)
-													)
-								);
+		RegionState st=state;
+		HutStore s=st.store;
+		long[] count=aggregate(st, HutAggregates.PER_MUNICIPALITY).hutsPerMunicipality;
+		Map<String, Map<String, Long>> back=new HashMap<>();
+		for(int m=0; m<s.muniSize; m++)
+			if(count[m]>0)
+				back.computeIfAbsent(s.provinces.get(s.provinceOfMunicipality(m)), k->new HashMap<>())
+					.put(s.municipalityName(m), count[m]);
+		return back;
 	}
 
 	/**
@@ -274,13 +498,13 @@ public class Region{
 	 *         as value
 	 */
 	public Map<String, Long> countMountainHutsPerAltitudeRange() {
-		return mounHut.values().stream()
-				.collect(
-						Collectors.groupingBy(
-								m->getAltitudeRange(m.getAltitude().orElse(m.getMunicipality().getAltitude())),
-								Collectors.counting()
-										)
-							);
+		RegionState st=state;
+		long[] count=aggregate(st, HutAggregates.PER_RANGE).hutsPerRange;
+		Map<String, Long> back=new HashMap<>();
+		for(int r=0; r<count.length; r++)
+			if(count[r]>0)
+				back.put(st.rangeName(r), count[r]);
+		return back;
 	}
 
 	/**
@@ -290,12 +514,14 @@ public class Region{
 	 * @return a map with the province as key and the total number of beds as value
 	 */
 	public Map<String, Integer> totalBedsNumberPerProvince() {
-		return  mounHut.values().stream()
-				.collect(
-						Collectors.groupingBy(m->m.getMunicipality().getProvince(),
-												Collectors.summingInt(m->m.getBedsNumber())
-								)
-						);
+		RegionState st=state;
+		HutStore s=st.store;
+		HutAggregates a=aggregate(st, HutAggregates.PER_PROVINCE);
+		Map<String, Integer> back=new HashMap<>();
+		for(int p=0; p<a.hutsPerProvince.length; p++)
+			if(a.hutsPerProvince[p]>0)
+				back.put(s.provinces.get(p), a.bedsPerProvince[p]);
+		return back;
 	}
 
 	/**
@@ -307,16 +533,13 @@ public class Region{
 	 *         as value
 	 */
 	public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
-		Map<String, Optional<Integer>> maxBedPerAlt = mounHut.values().stream()
-				.collect(Collectors.groupingBy(
-								m->getAltitudeRange(m.getAltitude().orElse(m.getMunicipality().getAltitude())),
-								Collectors.mapping(
-										MountainHut::getBedsNumber,
-										Collectors.maxBy(Comparator.naturalOrder())
-										)
-							)
-						);
-		altitudini.stream().forEach(a->maxBedPerAlt.putIfAbsent(a, Optional.ofNullable(0)));
+		RegionState st=state;
+		HutAggregates agg=aggregate(st, HutAggregates.PER_RANGE);
+		Map<String, Optional<Integer>> maxBedPerAlt = new HashMap<>();
+		for(int r=0; r<agg.hutsPerRange.length; r++)
+			if(agg.hutsPerRange[r]>0)
+				maxBedPerAlt.put(st.rangeName(r), Optional.of(agg.maxBedsPerRange[r]));
+		st.altitudini.stream().forEach(a->maxBedPerAlt.putIfAbsent(a, Optional.ofNullable(0)));
 		return maxBedPerAlt;
 	}
 
@@ -324,29 +547,108 @@ public class Region{
 	 * Compute the municipality names per number of mountain huts in a municipality.
 	 * The lists of municipality names must be in alphabetical order.
 	 * 
+	 * The result is a read-only view of an index maintained while
+	 * the mountain huts are added; it shows the version current
+	 * at the time of the call.
+	 * 
 	 * @return a map with the number of mountain huts in a municipality as key and a
 	 *         list of municipality names as value
 	 */
 	
 	public Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
-		Map<Long, List<String>> map= mounHut.values().stream()
-				.map(x->x.getMunicipality().getName()).
-						collect(
-								Collectors.groupingBy(x->x, 
-										TreeMap::new,
-										Collectors.counting()
-								)
-							).
-						entrySet().stream().collect(Collectors.groupingBy(Map.Entry::getValue,
-									Collectors.mapping(Map.Entry::getKey, Collectors.toList())
-								)
-							)
-						;
-		return map;
+		return materialized().countIndex.view();
+	}
+
+	/**
+	 * Execute one or more group-by queries over the mountain huts.
+	 * All the queries are evaluated during the same scan of the huts.
+	 * 
+	 * @param queries the queries
+	 * @return the results, in the same order as the queries
+	 */
+	public List<HutQueryResult> query(HutQuery... queries) {
+		return query(state, queries);
+	}
+
+	/**
+	 * Execute the queries over the huts of a version.
+	 */
+	static List<HutQueryResult> query(RegionState st, HutQuery... queries) {
+		HutStore s=st.store;
+		HutQuery.Compiled[] cq=new HutQuery.Compiled[queries.length];
+		boolean range=false;
+		for(int q=0; q<queries.length; q++) {
+			cq[q]=new HutQuery.Compiled(queries[q], s, st);
+			range|=queries[q].usesRange();
+		}
+		int[] codes=new int[4];
+		for(int i=0; i<s.size; i++) {
+			int alt=s.effectiveAltitude(i);
+			codes[0]=s.provinceOf(i);
+			codes[1]=s.municipalityOf(i);
+			codes[2]=range ? st.rangeIndex(alt) : 0;
+			codes[3]=s.categoryOf(i);
+			for(HutQuery.Compiled c: cq)
+				c.accept(codes, s.bedsOf(i), alt);
+		}
+		List<HutQueryResult> back=new ArrayList<>(cq.length);
+		for(HutQuery.Compiled c: cq)
+			back.add(c.result());
+		return back;
+	}
+
+	/**
+	 * Return the {@code k} best mountain huts of each group, e.g. the five huts
+	 * with most beds per province. Huts with the same value are returned
+	 * in alphabetical order; huts without a value are ignored.
+	 * 
+	 * @param groupBy the dimension defining the groups
+	 * @param k the maximum number of huts per group
+	 * @param by the ranking criterion
+	 * @return a map with the group as key and the list of huts, best first, as value
+	 */
+	public Map<String, List<MountainHut>> topMountainHuts(HutQuery.Dimension groupBy, int k, HutRanking by) {
+		RegionState st=materialized();
+		HutStore s=st.store;
+		TopHuts top=new TopHuts(s, st, groupBy, k, by, row->st.mounHut.get(s.hutName(row)));
+		top.scan();
+		return top.result();
+	}
+
+	/**
+	 * Create an immutable copy of the current version, with lookups by
+	 * name through perfect hashing and the aggregations computed in advance.
+	 * 
+	 * Regions that are no longer changed after loading can be replaced by
+	 * their frozen copy, that is smaller and faster to query.
+	 * 
+	 * @return the frozen copy
+	 */
+	public FrozenRegion freeze() {
+		return new FrozenRegion(nome, materialized());
+	}
+
+	/**
+	 * Scan the mountain huts computing the requested aggregates,
+	 * sequentially or in parallel according to {@link #isParallel()},
+	 * with the vectorized kernels according to {@link #isVectorized()}.
+	 * 
+	 * @param st the version to scan
+	 * @param what combination of the {@code HutAggregates.PER_*} flags
+	 * @return the aggregates of all the huts
+	 */
+	protected HutAggregates aggregate(RegionState st, int what) {
+		HutStore s=st.store;
+		HutKernels k=vectorized && s.onHeap() ? HutAggregates.VECTOR : null;
+		if(parallel && s.size>HutAggregates.SPLIT_THRESHOLD)
+			return ForkJoinPool.commonPool().invoke(new HutAggregates.Task(s, st, what, k, 0, s.size));
+		HutAggregates a=new HutAggregates(s, st, what, k);
+		a.accumulate(s, st, 0, s.size);
+		return a;
 	}
 	
 	public void printer() {
-		mounHut.values().stream().forEach(m->System.out.println(m.getName()+" "+m.getAltitude().orElse(m.muni.getAltitude())));
+		getMountainHuts().stream().forEach(m->System.out.println(m.getName()+" "+m.getAltitude().orElse(m.getMunicipality().getAltitude())));
 	}
 
 }
@@ -0,0 +1,245 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Class {@code RegionFederation} answers the queries of {@link Region}
+ * over many regions at once.
+ *
+ * Each query is run on every region in parallel and the partial
+ * results are merged: counts and sums are added, maxima are combined
+ * and name lists are rebuilt from the merged counts.
+ *
+ * Municipality names are unique within a region but not across regions,
+ * the {@link NameClash} policy tells how such duplicates are treated.
+ * A name clashes when it is found in more than one region, whether or not
+ * the municipalities have huts, so every query resolves it the same way.
+ *
+ */
+public class RegionFederation {
+
+	/**
+	 * Policy applied when the same municipality name is found in more than one region.
+	 */
+	public enum NameClash {
+		/** the municipalities are considered the same one and their counts are added */
+		MERGE,
+		/** clashing names are prefixed with the region name, e.g. {@code "Piemonte/BIELLA"} */
+		QUALIFY,
+		/** the query fails with an {@link IllegalStateException} */
+		REJECT
+	}
+
+	protected LinkedHashMap<String, Region> regioni = new LinkedHashMap<>();
+	protected NameClash clash;
+	protected Executor executor;
+
+	/**
+	 * Create a federation using the common fork-join pool.
+	 *
+	 * @param clash the policy for duplicate municipality names
+	 */
+	public RegionFederation(NameClash clash) {
+		this(clash, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a federation running the per-region queries on the given executor.
+	 *
+	 * @param clash the policy for duplicate municipality names
+	 * @param executor the executor for the per-region queries
+	 */
+	public RegionFederation(NameClash clash, Executor executor) {
+		this.clash = clash;
+		this.executor = executor;
+	}
+
+	/**
+	 * Add a region to the federation.
+	 *
+	 * @param r the region
+	 * @throws IllegalArgumentException if a region with the same name is already present
+	 */
+	public void addRegion(Region r) {
+		if(regioni.containsKey(r.getName()))
+			throw new IllegalArgumentException("Duplicate region " + r.getName());
+		regioni.put(r.getName(), r);
+	}
+
+	/**
+	 * Return the regions of the federation, in insertion order.
+	 *
+	 * @return the regions
+	 */
+	public Collection<Region> getRegions() {
+		return Collections.unmodifiableCollection(regioni.values());
+	}
+
+	/**
+	 * Count the municipalities per province over all the regions.
+	 * Municipalities with the same name in more than one region are
+	 * counted according to the {@link NameClash} policy.
+	 *
+	 * @return a map with the province as key and the number of municipalities as value
+	 * @see Region#countMunicipalitiesPerProvince()
+	 */
+	public Map<String, Long> countMunicipalitiesPerProvince() {
+		List<Map<String, String>> parts = onEach(RegionFederation::provinceOfMunicipalities);
+		Set<String> clashes = clashes(parts);
+		Map<String, Set<String>> names = new HashMap<>();
+		int i=0;
+		for(Region r: regioni.values())
+			parts.get(i++).forEach((mu,prov)->
+				names.computeIfAbsent(prov, k->new HashSet<>()).add(resolve(r, mu, clashes)));
+		Map<String, Long> back = new HashMap<>();
+		names.forEach((prov,munis)->back.put(prov, (long)munis.size()));
+		return back;
+	}
+
+	/**
+	 * Count the mountain huts per municipality within each province over all the regions.
+	 *
+	 * @return a map with the province as key and, as value, a map with the
+	 *         municipality as key and the number of mountain huts as value
+	 * @see Region#countMountainHutsPerMunicipalityPerProvince()
+	 */
+	public Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
+		List<Map<String, Map<String, Long>>> parts = onEach(Region::countMountainHutsPerMunicipalityPerProvince);
+		// also the municipalities without huts clash, as in countMunicipalitiesPerProvince
+		Set<String> clashes = clashes(onEach(RegionFederation::provinceOfMunicipalities));
+		Map<String, Map<String, Long>> back = new HashMap<>();
+		int i=0;
+		for(Region r: regioni.values()) {
+			Map<String, Map<String, Long>> part = parts.get(i++);
+			part.forEach((prov,munis)->munis.forEach((mu,c)->
+				back.computeIfAbsent(prov, k->new HashMap<>()).merge(resolve(r, mu, clashes), c, Long::sum)));
+		}
+		return back;
+	}
+
+	/**
+	 * Count the mountain huts per altitude range over all the regions.
+	 * Each region classifies its huts using its own ranges.
+	 *
+	 * @return a map with the altitude range as key and the number of mountain huts as value
+	 * @see Region#countMountainHutsPerAltitudeRange()
+	 */
+	public Map<String, Long> countMountainHutsPerAltitudeRange() {
+		Map<String, Long> back = new HashMap<>();
+		for(Map<String, Long> m: onEach(Region::countMountainHutsPerAltitudeRange))
+			m.forEach((k,v)->back.merge(k, v, Long::sum));
+		return back;
+	}
+
+	/**
+	 * Compute the total number of beds per province over all the regions.
+	 *
+	 * @return a map with the province as key and the total number of beds as value
+	 * @see Region#totalBedsNumberPerProvince()
+	 */
+	public Map<String, Integer> totalBedsNumberPerProvince() {
+		Map<String, Integer> back = new HashMap<>();
+		for(Map<String, Integer> m: onEach(Region::totalBedsNumberPerProvince))
+			m.forEach((k,v)->back.merge(k, v, Integer::sum));
+		return back;
+	}
+
+	/**
+	 * Compute the maximum number of beds in a single mountain hut per altitude
+	 * range over all the regions.
+	 *
+	 * @return a map with the altitude range as key and the maximum number of beds as value
+	 * @see Region#maximumBedsNumberPerAltitudeRange()
+	 */
+	public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
+		Map<String, Optional<Integer>> back = new HashMap<>();
+		for(Map<String, Optional<Integer>> m: onEach(Region::maximumBedsNumberPerAltitudeRange))
+			m.forEach((k,v)->back.merge(k, v, (a,b)->
+				a.isPresent() && b.isPresent() ? Optional.of(Math.max(a.get(), b.get())) : a.isPresent() ? a : b));
+		return back;
+	}
+
+	/**
+	 * Compute the municipality names per number of mountain huts over all the regions.
+	 * The counts are merged first, according to the {@link NameClash} policy,
+	 * then the names are grouped. The lists are in alphabetical order.
+	 *
+	 * @return a map with the number of mountain huts in a municipality as key and a
+	 *         list of municipality names as value
+	 * @see Region#municipalityNamesPerCountOfMountainHuts()
+	 */
+	public Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
+		TreeMap<String, Long> perName = new TreeMap<>();
+		countMountainHutsPerMunicipalityPerProvince().values()
+			.forEach(m->m.forEach((k,v)->perName.merge(k, v, Long::sum)));
+		Map<Long, List<String>> back = new HashMap<>();
+		perName.forEach((n,c)->back.computeIfAbsent(c, k->new ArrayList<>()).add(n));
+		return back;
+	}
+
+	/**
+	 * Run a query on every region in parallel.
+	 *
+	 * @return the results, in the order of the regions
+	 */
+	protected <T> List<T> onEach(Function<Region, T> query) {
+		List<CompletableFuture<T>> futures = new ArrayList<>();
+		for(Region r: regioni.values())
+			futures.add(CompletableFuture.supplyAsync(()->query.apply(r), executor));
+		List<T> back = new ArrayList<>();
+		for(CompletableFuture<T> f: futures)
+			back.add(f.join());
+		return back;
+	}
+
+	/**
+	 * Province of each municipality of a region, by municipality name.
+	 */
+	private static Map<String, String> provinceOfMunicipalities(Region r) {
+		Map<String, String> back = new HashMap<>();
+		for(Municipality m: r.getMunicipalities())
+			back.put(m.getName(), m.getProvince());
+		return back;
+	}
+
+	/**
+	 * Names of the municipalities found in more than one region.
+	 *
+	 * @param parts the municipalities of each region, by name
+	 */
+	private static Set<String> clashes(List<Map<String, String>> parts) {
+		Set<String> seen = new HashSet<>(), back = new HashSet<>();
+		for(Map<String, String> part: parts)
+			for(String mu: part.keySet())
+				if(!seen.add(mu))
+					back.add(mu);
+		return back;
+	}
+
+	private String resolve(Region r, String municipality, Set<String> clashes) {
+		if(!clashes.contains(municipality))
+			return municipality;
+		switch(clash) {
+		case QUALIFY:
+			return r.getName() + "/" + municipality;
+		case REJECT:
+			throw new IllegalStateException("Municipality " + municipality + " is defined in more than one region");
+		default:
+			return municipality;
+		}
+	}
+}
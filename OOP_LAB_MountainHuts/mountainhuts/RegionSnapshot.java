@@ -0,0 +1,217 @@
+package mountainhuts;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Class {@code RegionSnapshot} saves a loaded {@link Region} in a compact
+ * binary format and loads it back through a memory mapped file.
+ *
+ * The file contains a header, the offsets of the string table, the
+ * int columns (altitude ranges, provinces, categories, municipalities
+ * and huts), the bitmap of the huts without a number of beds and
+ * finally the UTF-8 bytes of all the strings.
+ * All values are big endian.
+ *
+ * Loading does not parse any text and does not depend on the number of
+ * huts: the columns are read in place from the mapping, and names,
+ * {@link Municipality} and {@link MountainHut} objects are created only
+ * when they are first requested.
+ *
+ */
+public class RegionSnapshot {
+
+	static final int MAGIC = 0x4D485554; // "MHUT"
+	static final int VERSION = 2;
+	static final int HEADER_INTS = 9;
+
+	private RegionSnapshot() {}
+
+	/**
+	 * Write the snapshot of a region to a file.
+	 * The version current at the time of the call is written.
+	 *
+	 * @param r the region
+	 * @param file the path of the file
+	 * @throws IOException in case of IO error
+	 */
+	public static void write(Region r, String file) throws IOException {
+		RegionState st = r.state;
+		HutStore s = st.store;
+		LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+		int name = intern(strings, r.getName());
+		int[] ranges = new int[st.rangeLabel.length];
+		for(int i=0; i<ranges.length; i++)
+			ranges[i] = intern(strings, st.rangeLabel[i]);
+		int[] prov = new int[s.provinces.size()];
+		for(int i=0; i<prov.length; i++)
+			prov[i] = intern(strings, s.provinces.get(i));
+		int[] cat = new int[s.categories.size()];
+		for(int i=0; i<cat.length; i++)
+			cat[i] = intern(strings, s.categories.get(i));
+		int[] muniName = new int[s.muniSize];
+		for(int m=0; m<s.muniSize; m++)
+			muniName[m] = intern(strings, s.municipalityName(m));
+		int[] hutName = new int[s.size];
+		for(int i=0; i<s.size; i++)
+			hutName[i] = intern(strings, s.hutName(i));
+
+		ArrayList<byte[]> bytes = new ArrayList<>(strings.size());
+		for(String str: strings.keySet())
+			bytes.add(str.getBytes(StandardCharsets.UTF_8));
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(bytes.size());
+			out.writeInt(ranges.length);
+			out.writeInt(prov.length);
+			out.writeInt(cat.length);
+			out.writeInt(s.muniSize);
+			out.writeInt(s.size);
+			out.writeInt(name);
+			int off = 0;
+			out.writeInt(off);
+			for(byte[] b: bytes) {
+				off += b.length;
+				out.writeInt(off);
+			}
+			writeInts(out, ranges, ranges.length);
+			writeInts(out, prov, prov.length);
+			writeInts(out, cat, cat.length);
+			writeInts(out, muniName, s.muniSize);
+			writeInts(out, s::provinceOfMunicipality, s.muniSize);
+			writeInts(out, s::altitudeOfMunicipality, s.muniSize);
+			writeInts(out, hutName, s.size);
+			writeInts(out, s::altitudeOf, s.size);
+			writeInts(out, s::bedsOf, s.size);
+			writeInts(out, s::categoryOf, s.size);
+			writeInts(out, s::municipalityOf, s.size);
+			int[] noBeds = new int[(s.size+31)>>>5];
+			for(int i=0; i<s.size; i++)
+				if(!s.hasBeds(i))
+					noBeds[i>>>5] |= 1<<i;
+			writeInts(out, noBeds, noBeds.length);
+			for(byte[] b: bytes)
+				out.write(b);
+		}
+	}
+
+	/**
+	 * Load a region from a snapshot file.
+	 *
+	 * The file is mapped in memory and must not be modified
+	 * while the region is in use.
+	 *
+	 * @param file the path of the file
+	 * @return the region
+	 * @throws IOException in case of IO error or if the file is not a valid snapshot
+	 */
+	public static Region load(String file) throws IOException {
+		MappedByteBuffer buf;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel ch = raf.getChannel()) {
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		IntBuffer ints = buf.asIntBuffer();
+		if(ints.limit()<HEADER_INTS || ints.get(0)!=MAGIC)
+			throw new IOException("Not a region snapshot: " + file);
+		if(ints.get(1)!=VERSION)
+			throw new IOException("Unsupported snapshot version " + ints.get(1));
+		int nStr = ints.get(2), nRanges = ints.get(3), nProv = ints.get(4), nCat = ints.get(5);
+		int nMuni = ints.get(6), nHut = ints.get(7);
+		if(nStr<0 || nRanges<0 || nProv<0 || nCat<0 || nMuni<0 || nHut<0)
+			throw new IOException("Corrupted region snapshot: " + file);
+
+		int noBeds = (int)((nHut+31L)>>>5);
+		long length = HEADER_INTS + nStr+1L + nRanges + nProv + nCat + 3L*nMuni + 5L*nHut + noBeds;
+		if(length>ints.limit())
+			throw new IOException("Truncated region snapshot: " + file);
+		int strBytes = ints.get(HEADER_INTS+nStr);
+		if(strBytes<0)
+			throw new IOException("Corrupted region snapshot: " + file);
+		if(length*Integer.BYTES + strBytes > buf.limit())
+			throw new IOException("Truncated region snapshot: " + file);
+		int pos = HEADER_INTS;
+		IntBuffer offsets = slice(ints, pos, nStr+1);
+		pos += nStr+1;
+		IntBuffer ranges = slice(ints, pos, nRanges);
+		pos += nRanges;
+		IntBuffer prov = slice(ints, pos, nProv);
+		pos += nProv;
+		IntBuffer cat = slice(ints, pos, nCat);
+		pos += nCat;
+
+		MappedHutStore.Mapping map = new MappedHutStore.Mapping(buf, offsets, (int)length*Integer.BYTES, nHut, nMuni);
+		map.muniNames = slice(ints, pos, nMuni);
+		pos += nMuni;
+		map.muniProvince = slice(ints, pos, nMuni);
+		pos += nMuni;
+		map.muniAltitude = slice(ints, pos, nMuni);
+		pos += nMuni;
+		map.hutNames = slice(ints, pos, nHut);
+		pos += nHut;
+		map.hutAltitude = slice(ints, pos, nHut);
+		pos += nHut;
+		map.hutBeds = slice(ints, pos, nHut);
+		pos += nHut;
+		map.hutCategory = slice(ints, pos, nHut);
+		pos += nHut;
+		map.hutMunicipality = slice(ints, pos, nHut);
+		pos += nHut;
+		map.hutNoBeds = slice(ints, pos, noBeds);
+
+		MappedHutStore s = new MappedHutStore(map);
+		for(int i=0; i<nProv; i++) {
+			s.provinceIdx.put(map.string(prov.get(i)), i);
+			s.provinces.add(map.string(prov.get(i)));
+		}
+		for(int i=0; i<nCat; i++) {
+			s.categoryIdx.put(map.string(cat.get(i)), i);
+			s.categories.add(map.string(cat.get(i)));
+		}
+
+		RegionState st = new RegionState(s);
+		st.materialized = false;
+		String[] labels = new String[nRanges];
+		for(int i=0; i<nRanges; i++)
+			labels[i] = map.string(ranges.get(i));
+		st.setAltitudeRanges(labels);
+		Region r = new Region(map.string(ints.get(8)));
+		r.state = st;
+		return r;
+	}
+
+	private static int intern(LinkedHashMap<String, Integer> strings, String s) {
+		Integer idx = strings.get(s);
+		if(idx==null) {
+			idx = strings.size();
+			strings.put(s, idx);
+		}
+		return idx;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] a, int n) throws IOException {
+		for(int i=0; i<n; i++)
+			out.writeInt(a[i]);
+	}
+
+	private static void writeInts(DataOutputStream out, IntUnaryOperator column, int n) throws IOException {
+		for(int i=0; i<n; i++)
+			out.writeInt(column.applyAsInt(i));
+	}
+
+	private static IntBuffer slice(IntBuffer ints, int from, int len) {
+		return ints.slice(from, len);
+	}
+}
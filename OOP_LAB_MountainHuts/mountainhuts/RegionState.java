@@ -0,0 +1,345 @@
+package mountainhuts;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import csv.CsvHeader;
+import csv.CsvRecord;
+
+/**
+ * A version of the data of a {@link Region}.
+ *
+ * Once published by the region a state is never modified: writers
+ * {@link #fork()} it and change the copy. Forking is cheap because
+ * the columns of the {@link HutStore} are append-only and shared, each
+ * state seeing only the rows below its own size; the name maps are
+ * concurrent and append-only as well, and map the names to rows, while
+ * the search and count indexes and the municipalities whose huts are
+ * counted are copied only when a writer touches them.
+ *
+ */
+class RegionState {
+
+	/**
+	 * Columns of the CSV file of the huts (see {@link Region#fromFile})
+	 */
+	static final String[] COLUMNS = {"Province", "Municipality", "MunicipalityAltitude",
+			"Name", "Altitude", "Category", "BedsNumber"};
+
+	/**
+	 * A line of the CSV file of the huts.
+	 */
+	static class Row {
+		String province, municipality, name, category;
+		int municipalityAltitude, beds;
+		Integer altitude;
+
+		static Row of(CsvRecord r, CsvHeader h) {
+			Row row = new Row();
+			row.province = r.getString(h.col(0));
+			row.municipality = r.getString(h.col(1));
+			row.municipalityAltitude = r.getInt(h.col(2));
+			row.name = r.getString(h.col(3));
+			row.altitude = r.isEmpty(h.col(4)) ? null : r.getInt(h.col(4));
+			row.category = r.getString(h.col(5));
+			row.beds = r.getInt(h.col(6));
+			return row;
+		}
+	}
+
+	protected long version;
+	protected HutStore store;
+	// ordinal of each municipality
+	protected ConcurrentSkipListMap<String, Integer> municipi;
+	protected ConcurrentSkipListMap<String, MountainHut> mounHut;
+	protected HutNameIndex nameIndex;
+	protected MunicipalityCountIndex countIndex;
+
+	// altitude ranges parsed once, in the order of altitudini
+	protected TreeSet<String> altitudini = new TreeSet<>();
+	protected int[] rangeLow = new int[0];
+	protected int[] rangeHigh = new int[0];
+	protected String[] rangeLabel = new String[0];
+
+	// false while the name maps of a snapshot have not been built yet
+	protected boolean materialized = true;
+	// true while many huts are added at once, the count index is built at the end
+	protected boolean bulk;
+
+	/**
+	 * Create an empty state.
+	 */
+	RegionState() {
+		this(new HutStore());
+	}
+
+	/**
+	 * Create a state over the given store, with empty name maps.
+	 */
+	RegionState(HutStore store) {
+		this.store = store;
+		municipi = new ConcurrentSkipListMap<>();
+		mounHut = new ConcurrentSkipListMap<>();
+		nameIndex = new HutNameIndex();
+		countIndex = new MunicipalityCountIndex();
+	}
+
+	private RegionState(RegionState from) {
+		version = from.version;
+		store = from.store.fork();
+		municipi = from.municipi;
+		mounHut = from.mounHut;
+		nameIndex = from.nameIndex.fork();
+		countIndex = from.countIndex.fork();
+		copyRanges(from);
+		materialized = from.materialized;
+	}
+
+	/**
+	 * Copy of this state that can be modified without affecting the readers of this one.
+	 */
+	RegionState fork() {
+		return new RegionState(this);
+	}
+
+	void copyRanges(RegionState from) {
+		altitudini = from.altitudini;
+		rangeLow = from.rangeLow;
+		rangeHigh = from.rangeHigh;
+		rangeLabel = from.rangeLabel;
+	}
+
+	void setAltitudeRanges(String... ranges) {
+		TreeSet<String> all = new TreeSet<>(altitudini);
+		for(String s: ranges)
+			all.add(s);
+		int n = all.size(), i = 0;
+		int[] low = new int[n], high = new int[n];
+		String[] label = new String[n];
+		for(String s: all) {
+			String range[] = s.split("-");
+			low[i] = Integer.parseInt(range[0]);
+			high[i] = Integer.parseInt(range[1]);
+			label[i++] = s;
+		}
+		altitudini = all;
+		rangeLow = low;
+		rangeHigh = high;
+		rangeLabel = label;
+	}
+
+	/**
+	 * Index of the range including the given altitude.
+	 * The default range "0-INF" has index {@code rangeLabel.length}.
+	 *
+	 * @param altitude the altitude, {@link HutStore#MISSING} if not available
+	 * @return the index of the range
+	 */
+	int rangeIndex(int altitude) {
+		if(altitude!=HutStore.MISSING)
+			for(int i=0; i<rangeLow.length; i++)
+				if(altitude<=rangeHigh[i] && altitude>=rangeLow[i])
+					return i;
+		return rangeLabel.length;
+	}
+
+	String rangeName(int r) {
+		return r<rangeLabel.length ? rangeLabel[r] : "0-INF";
+	}
+
+	Municipality municipality(String name, String province, Integer altitude) {
+		Integer m = municipi.get(name);
+		if(m!=null)
+			return store.municipalityAt(m);
+		Municipality mu = new Municipality(name, province, altitude);
+		municipi.put(name, store.addMunicipality(mu));
+		return mu;
+	}
+
+	/**
+	 * Add a mountain hut, if missing, in the municipality of the region
+	 * with the name of the given one, created if missing as well: the
+	 * given object may come from another region or from an older version.
+	 */
+	MountainHut mountainHut(String name, Integer altitude, String category, Integer bedsNumber, Municipality municipality) {
+		MountainHut mH = mounHut.get(name);
+		if(mH==null)
+			mH = addHut(name, altitude, category, bedsNumber,
+					municipality(municipality.getName(), municipality.getProvince(), municipality.getAltitude()));
+		return mH;
+	}
+
+	private MountainHut addHut(String name, Integer altitude, String category, Integer bedsNumber, Municipality municipality) {
+		MountainHut mH = mounHut.get(name);
+		if(mH==null) {
+			mH = new MountainHut(store, store.addHut(name, altitude, category, bedsNumber, municipality));
+			index(mH);
+		}
+		return mH;
+	}
+
+	/**
+	 * Add the municipality and the mountain hut of a line of the CSV file.
+	 */
+	void add(Row row) {
+		Municipality mu = municipality(row.municipality, row.province, row.municipalityAltitude);
+		addHut(row.name, row.altitude, row.category, row.beds, mu);
+	}
+
+	/**
+	 * Add the municipality and the mountain hut described by a line
+	 * of the CSV file, with the columns bound by the header of the file.
+	 */
+	void addRow(String line, CsvHeader header) {
+		add(Row.of(CsvRecord.parse(line, ';'), header));
+	}
+
+	/**
+	 * Build the name maps of a state loaded from a {@link RegionSnapshot}.
+	 */
+	void materialize() {
+		HutStore s = store;
+		for(int m=0; m<s.muniSize; m++)
+			municipi.put(s.municipalityName(m), m);
+		bulk = true;
+		for(int i=0; i<s.size; i++)
+			index(new MountainHut(s, i));
+		endBulk();
+		materialized = true;
+	}
+
+	/**
+	 * Build the count index of the huts added since {@code bulk} was set.
+	 */
+	void endBulk() {
+		bulk = false;
+		countIndex = MunicipalityCountIndex.of(municipalities());
+	}
+
+	/**
+	 * Add a new hut, already counted by its municipality, to the name maps and the indexes.
+	 */
+	private void index(MountainHut mH) {
+		String name = mH.getName();
+		if(!bulk) {
+			Municipality mu = store.municipalityAt(store.municipalityOf(mH.id));
+			countIndex.increment(mu.getName(), mu.numMountHut()-1);
+		}
+		mounHut.put(name, mH);
+		nameIndex.add(name);
+	}
+
+	/**
+	 * The municipalities of this state, in insertion order.
+	 */
+	List<Municipality> municipalities() {
+		HutStore s = store;
+		int n = s.muniSize;
+		return new AbstractList<Municipality>() {
+			@Override
+			public Municipality get(int m) {
+				if(m<0 || m>=n)
+					throw new IndexOutOfBoundsException(m);
+				return s.municipalityAt(m);
+			}
+
+			@Override
+			public int size() {
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * A page of the values of a name map, starting after the cursor.
+	 * The values not belonging to this state or not accepted
+	 * by the filter are skipped.
+	 */
+	static <V, T> Page<T> page(NavigableMap<String, V> map, String cursor, int size,
+			Predicate<? super V> visible, Function<? super V, T> value, Predicate<? super T> filter) {
+		if(size<=0)
+			throw new IllegalArgumentException("Page size must be positive");
+		NavigableMap<String, V> tail = cursor==null ? map : map.tailMap(cursor, false);
+		ArrayList<T> items = new ArrayList<>(size);
+		String last = null;
+		for(Map.Entry<String, V> e: tail.entrySet()) {
+			if(!visible.test(e.getValue()))
+				continue;
+			T v = value.apply(e.getValue());
+			if(!filter.test(v))
+				continue;
+			if(items.size()==size)
+				return new Page<>(items, last);
+			items.add(v);
+			last = e.getKey();
+		}
+		return new Page<>(items, null);
+	}
+
+	Page<MountainHut> hutPage(String cursor, int size, Predicate<? super MountainHut> filter) {
+		int n = store.size;
+		return page(mounHut, cursor, size, h->h.id<n, h->h, filter);
+	}
+
+	Page<Municipality> municipalityPage(String cursor, int size, Predicate<? super Municipality> filter) {
+		HutStore s = store;
+		int n = s.muniSize;
+		return page(municipi, cursor, size, m->m<n, s::municipalityAt, filter);
+	}
+
+	/**
+	 * The mountain huts of this state in alphabetical order: the huts
+	 * added by later versions to the shared map are skipped.
+	 */
+	Collection<MountainHut> mountainHuts() {
+		int n = store.size;
+		return new AbstractCollection<MountainHut>() {
+			@Override
+			public Iterator<MountainHut> iterator() {
+				Iterator<MountainHut> all = mounHut.values().iterator();
+				return new Iterator<MountainHut>() {
+					MountainHut next = advance();
+
+					private MountainHut advance() {
+						while(all.hasNext()) {
+							MountainHut h = all.next();
+							if(h.id<n)
+								return h;
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next!=null;
+					}
+
+					@Override
+					public MountainHut next() {
+						if(next==null)
+							throw new NoSuchElementException();
+						MountainHut h = next;
+						next = advance();
+						return h;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return n;
+			}
+		};
+	}
+}
@@ -0,0 +1,308 @@
+package mountainhuts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import csv.CsvException;
+import csv.CsvHeader;
+import csv.CsvRecord;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Keeps a {@link Region} up to date with a CSV file that is being appended to.
+ *
+ * The tailer remembers the byte offset up to which the file has been read:
+ * each {@link #poll()} reads only the bytes appended after it and applies the
+ * complete lines through {@link Region#createOrGetMunicipality} and
+ * {@link Region#createOrGetMountainHut}, so the cost of an update depends on
+ * the amount of new data and not on the size of the file.
+ * The lines read by a poll are published together as a single version
+ * of the region (see {@link Region#update}).
+ * A trailing line without terminator is kept until it is completed.
+ * The columns are bound by name to the header line of the file, as in
+ * {@link Region#fromFile}; a tailer that starts past the header reads it
+ * first.
+ *
+ * {@link #start()} runs a thread that polls whenever a {@link WatchService}
+ * reports a change of the file. When a poll fails the thread retries it with
+ * an increasing delay until it succeeds; the error is available from
+ * {@link #getFailure()} meanwhile.
+ *
+ */
+public class RegionTailer implements Closeable {
+
+	static final long MIN_RETRY_MILLIS = 100;
+	static final long MAX_RETRY_MILLIS = 30_000;
+
+	private final Region region;
+	private final Path path;
+	private long offset;
+	private long lines;
+	private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+	private final ArrayList<String> pending = new ArrayList<>();
+	private final ArrayList<Long> pendingNumbers = new ArrayList<>();
+	private final ByteBuffer buf = ByteBuffer.allocate(1<<16);
+	// columns bound to the header of the file, null until it is read
+	private CsvHeader header;
+	// identity of the file read so far, to detect when it is replaced
+	private Object fileKey;
+	private FileTime modified;
+	private volatile IOException failure;
+	private WatchService watcher;
+	private Thread thread;
+
+	/**
+	 * Create a tailer that reads the file from the beginning, header included.
+	 *
+	 * @param region the region to update
+	 * @param file the path of the CSV file
+	 */
+	public RegionTailer(Region region, String file) {
+		this(region, file, 0);
+	}
+
+	/**
+	 * Create a tailer that starts reading at the given byte offset,
+	 * e.g. the size of the file when it was loaded with {@link Region#fromFile}.
+	 *
+	 * @param region the region to update
+	 * @param file the path of the CSV file
+	 * @param offset the offset of the first byte to read, at the beginning of a line
+	 */
+	public RegionTailer(Region region, String file, long offset) {
+		this.region = region;
+		this.path = Paths.get(file);
+		this.offset = offset;
+		this.lines = offset==0 ? 0 : 1;
+	}
+
+	/**
+	 * Offset of the first byte not yet consumed.
+	 *
+	 * @return the offset
+	 */
+	public synchronized long getOffset() {
+		return offset - partial.size();
+	}
+
+	/**
+	 * Error of the last poll, if it failed.
+	 *
+	 * @return the error, or {@code null} if the last poll succeeded
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Read and apply the lines appended since the last call.
+	 *
+	 * The file is assumed to have been replaced, and it is read again from
+	 * the beginning, if it is shorter than the current offset, if it is a
+	 * different file (see {@link BasicFileAttributes#fileKey()}), or if it
+	 * was modified without growing.
+	 *
+	 * @return number of data lines applied
+	 * @throws IOException in case of IO error
+	 */
+	public synchronized int poll() throws IOException {
+		try {
+			int n = read();
+			failure = null;
+			return n;
+		} catch(IOException e) {
+			failure = e;
+			throw e;
+		}
+	}
+
+	private int read() throws IOException {
+		try(FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			long size = ch.size();
+			boolean replaced = size < offset
+					|| fileKey!=null && !fileKey.equals(attrs.fileKey())
+					|| modified!=null && size==offset && !modified.equals(attrs.lastModifiedTime());
+			if(replaced) {
+				offset = 0;
+				lines = 0;
+				partial.reset();
+				header = null;
+			}
+			fileKey = attrs.fileKey();
+			if(header==null && offset>0)
+				readHeader(ch);
+			ch.position(offset);
+			int n;
+			while((n = ch.read(buf)) > 0) {
+				offset += n;
+				buf.flip();
+				consume(buf);
+				buf.clear();
+			}
+			// taken after reading, so that a later change is never mistaken for one already read
+			modified = Files.getLastModifiedTime(path);
+		}
+		return applyPending();
+	}
+
+	/**
+	 * Bind the columns to the header line, at the beginning of the file.
+	 */
+	private void readHeader(FileChannel ch) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		ByteBuffer b = ByteBuffer.allocate(1024);
+		long pos = 0;
+		int n;
+		scan:
+		while(pos<offset && (n = ch.read(b, pos)) > 0) {
+			for(int i=0; i<n; i++)
+				if(b.get(i)=='\n') {
+					line.write(b.array(), 0, i);
+					break scan;
+				}
+			line.write(b.array(), 0, n);
+			pos += n;
+			b.clear();
+		}
+		bind(line.toByteArray(), line.size());
+	}
+
+	private void bind(byte[] line, int len) throws IOException {
+		if(len>0 && line[len-1]=='\r')
+			len--;
+		try {
+			header = CsvHeader.bind(CsvRecord.parse(new String(line, 0, len, Charset.defaultCharset()), ';'),
+					false, RegionState.COLUMNS);
+		} catch(CsvException e) {
+			throw new IOException("Wrong header of " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void consume(ByteBuffer b) throws IOException {
+		byte[] a = b.array();
+		int start = 0, end = b.limit();
+		for(int i=0; i<end; i++) {
+			if(a[i]!='\n')
+				continue;
+			partial.write(a, start, i-start);
+			start = i+1;
+			complete();
+		}
+		partial.write(a, start, end-start);
+	}
+
+	private void complete() throws IOException {
+		byte[] line = partial.toByteArray();
+		partial.reset();
+		if(lines++==0) {
+			bind(line, line.length);
+			return;
+		}
+		int len = line.length;
+		if(len>0 && line[len-1]=='\r')
+			len--;
+		if(len==0) // blank line
+			return;
+		pending.add(new String(line, 0, len, Charset.defaultCharset()));
+		pendingNumbers.add(lines);
+	}
+
+	private int applyPending() {
+		if(pending.isEmpty())
+			return 0;
+		int[] applied = {0};
+		region.update(r->{
+			for(int i=0; i<pending.size(); i++) {
+				try {
+					r.addRow(pending.get(i), header);
+					applied[0]++;
+				} catch(RuntimeException e) {
+					System.err.println("Skipped line " + pendingNumbers.get(i) + ": " + pending.get(i));
+				}
+			}
+		});
+		pending.clear();
+		pendingNumbers.clear();
+		return applied[0];
+	}
+
+	/**
+	 * Start watching the file in a background thread.
+	 * Pending lines are applied immediately.
+	 *
+	 * @throws IOException in case of IO error
+	 */
+	public synchronized void start() throws IOException {
+		if(thread!=null)
+			return;
+		poll();
+		Path dir = path.toAbsolutePath().getParent();
+		watcher = FileSystems.getDefault().newWatchService();
+		dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+		thread = new Thread(this::watch, "tail-" + path.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void watch() {
+		// delay before retrying a failed poll, 0 after a successful one
+		long retry = 0;
+		try {
+			while(true) {
+				WatchKey key = retry==0 ? watcher.take() : watcher.poll(retry, TimeUnit.MILLISECONDS);
+				boolean changed = retry>0;
+				if(key!=null) {
+					for(WatchEvent<?> ev: key.pollEvents())
+						if(path.getFileName().equals(ev.context()))
+							changed = true;
+					if(!key.reset()) {
+						failure = new IOException("Directory of " + path + " no longer accessible");
+						return;
+					}
+				}
+				if(!changed)
+					continue;
+				try {
+					poll();
+					retry = 0;
+				} catch(IOException e) {
+					retry = Math.min(Math.max(retry*2, MIN_RETRY_MILLIS), MAX_RETRY_MILLIS);
+				}
+			}
+		} catch(InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Stop watching the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(watcher!=null)
+			watcher.close();
+		if(thread!=null)
+			thread.interrupt();
+		thread = null;
+	}
+}
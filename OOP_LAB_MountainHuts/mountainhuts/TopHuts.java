@@ -0,0 +1,137 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * Selects the best {@code k} huts of each group in a single scan of a {@link HutStore}.
+ *
+ * Each group keeps a bounded min-heap of row ordinals whose root is the
+ * worst hut retained so far, so the scan costs O(N log K). A heap grows
+ * with its group up to K, so the memory is bounded by both the number
+ * of huts and groups &times; K.
+ * Huts with the same value are ranked by name, in alphabetical order.
+ *
+ */
+class TopHuts {
+
+	private static final int INITIAL_HEAP = 8;
+
+	private final HutStore s;
+	private final RegionState r;
+	private final int dim;
+	private final int k;
+	private final HutRanking by;
+	private final IntFunction<MountainHut> huts;
+	private final int[][] heaps;
+	private final int[] sizes;
+
+	/**
+	 * Prepare the selection.
+	 *
+	 * @param huts returns the hut object of a row, for the result
+	 */
+	TopHuts(HutStore s, RegionState r, HutQuery.Dimension groupBy, int k, HutRanking by, IntFunction<MountainHut> huts) {
+		this.s = s;
+		this.r = r;
+		this.dim = groupBy.ordinal();
+		this.k = k;
+		this.by = by;
+		this.huts = huts;
+		int n = HutQuery.cardinality(s, r, dim);
+		heaps = new int[n][];
+		sizes = new int[n];
+	}
+
+	int value(int row) {
+		if(by==HutRanking.BEDS)
+			return s.hasBeds(row) ? s.bedsOf(row) : HutStore.MISSING;
+		return s.effectiveAltitude(row);
+	}
+
+	/**
+	 * Tells whether row {@code a} ranks before row {@code b}.
+	 */
+	boolean better(int a, int b) {
+		int va = value(a), vb = value(b);
+		if(va!=vb)
+			return va>vb;
+		return s.hutName(a).compareTo(s.hutName(b))<0;
+	}
+
+	void scan() {
+		if(k<=0)
+			return;
+		for(int i=0; i<s.size; i++) {
+			if(value(i)==HutStore.MISSING)
+				continue;
+			int g = HutQuery.code(s, r, dim, i);
+			int[] h = heaps[g];
+			if(h==null)
+				h = heaps[g] = new int[Math.min(k, INITIAL_HEAP)];
+			else if(sizes[g]==h.length && h.length<k)
+				h = heaps[g] = Arrays.copyOf(h, (int)Math.min(k, 2L*h.length));
+			if(sizes[g]<k) {
+				h[sizes[g]] = i;
+				siftUp(h, sizes[g]++);
+			} else if(better(i, h[0])) {
+				h[0] = i;
+				siftDown(h, 0, k);
+			}
+		}
+	}
+
+	private void siftUp(int[] h, int i) {
+		while(i>0) {
+			int p = (i-1)/2;
+			if(!better(h[p], h[i]))
+				break;
+			swap(h, i, p);
+			i = p;
+		}
+	}
+
+	private void siftDown(int[] h, int i, int n) {
+		while(true) {
+			int l = 2*i+1, worst = i;
+			if(l<n && better(h[worst], h[l]))
+				worst = l;
+			if(l+1<n && better(h[worst], h[l+1]))
+				worst = l+1;
+			if(worst==i)
+				return;
+			swap(h, i, worst);
+			i = worst;
+		}
+	}
+
+	private static void swap(int[] h, int i, int j) {
+		int t = h[i];
+		h[i] = h[j];
+		h[j] = t;
+	}
+
+	/**
+	 * Return the huts retained for each group, best first.
+	 */
+	Map<String, List<MountainHut>> result() {
+		Map<String, List<MountainHut>> back = new TreeMap<>();
+		for(int g=0; g<heaps.length; g++) {
+			if(sizes[g]==0)
+				continue;
+			Integer[] rows = new Integer[sizes[g]];
+			for(int j=0; j<rows.length; j++)
+				rows[j] = heaps[g][j];
+			Arrays.sort(rows, (a,b)->a.equals(b) ? 0 : better(a, b) ? -1 : 1);
+			List<MountainHut> list = new ArrayList<>(rows.length);
+			for(int row: rows)
+				list.add(huts.apply(row));
+			back.put(HutQuery.label(s, r, dim, g), list);
+		}
+		return back;
+	}
+}
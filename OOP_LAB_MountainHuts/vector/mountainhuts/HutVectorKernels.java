@@ -0,0 +1,123 @@
+package mountainhuts;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels of {@link HutAggregates} based on the Vector API.
+ *
+ * The rows are processed a vector at a time: the altitude of the
+ * municipality and the province are gathered for all the lanes, each
+ * altitude range or province becomes a mask, and the masks are counted
+ * and used to add or compare the beds of the selected lanes only.
+ * The rows that do not fill a vector go through the scalar loops.
+ *
+ * The sources in {@code vector/} are compiled together with the
+ * {@code mountainhuts} package with
+ * {@code --add-modules jdk.incubator.vector}, and the same option is
+ * needed at run time; {@link HutAggregates#VECTOR} loads this class
+ * by name, so without it the package still compiles and runs.
+ *
+ */
+class HutVectorKernels implements HutKernels {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	/**
+	 * Above this number of provinces a mask for each of them costs more
+	 * than adding the gathered provinces one by one
+	 */
+	static final int MAX_MASKED_GROUPS = 16;
+
+	@Override
+	public void accumulate(HutAggregates a, HutStore s, RegionState r, int from, int to) {
+		int upper = from + SPECIES.loopBound(to-from);
+		if(a.hutsPerMunicipality!=null)
+			a.accumulateMunicipalities(s, from, to);
+		if(a.hutsPerRange!=null) {
+			ranges(a, s, r, from, upper);
+			a.accumulateRanges(s, r, upper, to);
+		}
+		if(a.hutsPerProvince!=null) {
+			if(a.hutsPerProvince.length<=MAX_MASKED_GROUPS)
+				provinces(a, s, from, upper);
+			else
+				gatheredProvinces(a, s, from, upper);
+			a.accumulateProvinces(s, upper, to);
+		}
+	}
+
+	private static void ranges(HutAggregates a, HutStore s, RegionState r, int from, int to) {
+		int n = r.rangeLow.length, len = SPECIES.length();
+		long[] count = new long[n+1];
+		// lanes of the maximum of each range, kept in an array rather than
+		// in an array of vectors, that would box them
+		int[] max = new int[(n+1)*len];
+		Arrays.fill(max, Integer.MIN_VALUE);
+		// the beds outside a mask are replaced by the minimum rather than
+		// using the masked MAX: on JDK 17, the target of the tree, both take
+		// the same time with AVX-512, while C2 of JDK 21.0.1 crashes the VM
+		// compiling the masked MAX for AVX-512
+		IntVector empty = IntVector.broadcast(SPECIES, Integer.MIN_VALUE);
+		for(int i=from; i<to; i+=len) {
+			IntVector alt = IntVector.fromArray(SPECIES, s.altitude, i);
+			VectorMask<Integer> missing = alt.eq(HutStore.MISSING);
+			if(missing.anyTrue())
+				alt = alt.blend(IntVector.fromArray(SPECIES, s.muniAltitude, 0, s.municipality, i), missing);
+			IntVector beds = IntVector.fromArray(SPECIES, s.beds, i);
+			// lanes not assigned to a range yet: the first matching range wins
+			VectorMask<Integer> rest = alt.compare(VectorOperators.NE, HutStore.MISSING);
+			VectorMask<Integer> none = rest.not();
+			for(int k=0; k<n && rest.anyTrue(); k++) {
+				VectorMask<Integer> in = rest
+						.and(alt.compare(VectorOperators.GE, r.rangeLow[k]))
+						.and(alt.compare(VectorOperators.LE, r.rangeHigh[k]));
+				count[k] += in.trueCount();
+				IntVector.fromArray(SPECIES, max, k*len).max(empty.blend(beds, in)).intoArray(max, k*len);
+				rest = rest.andNot(in);
+			}
+			none = none.or(rest);
+			count[n] += none.trueCount();
+			IntVector.fromArray(SPECIES, max, n*len).max(empty.blend(beds, none)).intoArray(max, n*len);
+		}
+		for(int k=0; k<=n; k++) {
+			a.hutsPerRange[k] += count[k];
+			a.maxBedsPerRange[k] = Math.max(a.maxBedsPerRange[k],
+					IntVector.fromArray(SPECIES, max, k*len).reduceLanes(VectorOperators.MAX));
+		}
+	}
+
+	private static void provinces(HutAggregates a, HutStore s, int from, int to) {
+		int n = a.hutsPerProvince.length, len = SPECIES.length();
+		long[] count = new long[n];
+		int[] sum = new int[n*len];
+		for(int i=from; i<to; i+=len) {
+			IntVector prov = IntVector.fromArray(SPECIES, s.muniProvince, 0, s.municipality, i);
+			IntVector beds = IntVector.fromArray(SPECIES, s.beds, i);
+			for(int p=0; p<n; p++) {
+				VectorMask<Integer> in = prov.eq(p);
+				count[p] += in.trueCount();
+				IntVector.fromArray(SPECIES, sum, p*len).add(beds, in).intoArray(sum, p*len);
+			}
+		}
+		for(int p=0; p<n; p++) {
+			a.hutsPerProvince[p] += count[p];
+			a.bedsPerProvince[p] += IntVector.fromArray(SPECIES, sum, p*len).reduceLanes(VectorOperators.ADD);
+		}
+	}
+
+	private static void gatheredProvinces(HutAggregates a, HutStore s, int from, int to) {
+		int[] prov = new int[SPECIES.length()];
+		for(int i=from; i<to; i+=prov.length) {
+			IntVector.fromArray(SPECIES, s.muniProvince, 0, s.municipality, i).intoArray(prov, 0);
+			for(int j=0; j<prov.length; j++) {
+				a.hutsPerProvince[prov[j]]++;
+				a.bedsPerProvince[prov[j]] += s.beds[i+j];
+			}
+		}
+	}
+}
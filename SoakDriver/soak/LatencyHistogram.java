@@ -0,0 +1,105 @@
+package soak;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, safe for concurrent recording.
+ *
+ * Buckets are log-linear: values below 128 have a bucket each, and every
+ * following power of 2 is split into 64 buckets, so a percentile is
+ * reported with an error below 1.6% up to about an hour; longer values are
+ * counted as an hour. The histogram takes about 20 KB whatever the count.
+ *
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BITS = 7;
+	static final int HALF = 1 << (SUB_BITS-1);
+	static final long MAX_VALUE = (1L << 42) - 1;
+	static final int BUCKETS = index(MAX_VALUE)+1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	static int index(long v) {
+		if(v < 2*HALF)
+			return (int)v;
+		int shift = 63-Long.numberOfLeadingZeros(v)-(SUB_BITS-1);
+		return shift*HALF + (int)(v>>>shift);
+	}
+
+	/**
+	 * Highest value counted in a bucket.
+	 */
+	static long highest(int index) {
+		if(index < 2*HALF)
+			return index;
+		int shift = index/HALF-1;
+		return ((long)(index-shift*HALF+1) << shift) - 1;
+	}
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos the latency, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long v = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts.incrementAndGet(index(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		max.accumulateAndGet(v, Math::max);
+	}
+
+	/**
+	 * Add the values of another histogram to this one.
+	 *
+	 * @param other the other histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i=0; i<BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if(c!=0)
+				counts.addAndGet(i, c);
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		max.accumulateAndGet(other.max.get(), Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n==0 ? 0 : (double)sum.get()/n;
+	}
+
+	/**
+	 * Value below or at which the given percentage of the latencies lies.
+	 *
+	 * @param percentile the percentage, e.g. 99.9
+	 * @return the latency in nanoseconds, 0 if there are no values
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if(n==0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100)/100*n));
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen>=rank)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+}
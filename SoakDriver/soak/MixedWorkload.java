@@ -0,0 +1,202 @@
+package soak;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import mountainhuts.HutDataGenerator;
+import mountainhuts.HutQuery;
+import mountainhuts.MountainHut;
+import mountainhuts.Region;
+import src.VaccineException;
+import src.Vaccines;
+
+/**
+ * Mixed traffic on {@link Vaccines} and {@link Region}, as served by one process:
+ * registrations, polling of the statistics and queries on the huts at the
+ * target rate, and a planning of the week at a fixed period.
+ *
+ * {@link Vaccines} is not thread-safe, so it is guarded by a read-write
+ * lock as a service would do: the statistics share the read lock, while
+ * registrations and the planning take the write lock. The queries on the
+ * huts need no lock, since {@link Region} publishes immutable versions.
+ *
+ * The sources are compiled together with {@code Exam20210619_Vaccination/src},
+ * {@code CsvIngestion/csv}, {@code OOP_LAB_MountainHuts/mountainhuts} and the
+ * data generator of the benchmarks,
+ * {@code OOP_LAB_MountainHuts/jmh/mountainhuts/HutDataGenerator.java}.
+ * The command line takes {@code key=value} arguments, all optional:
+ *
+ * <pre>
+ * MixedWorkload rate=2000 warmup=10 seconds=60 threads=8|request
+ *         mix=register:20,stats:10,huts:70 allocate=30
+ *         people=20000 huts=100000 out=report.csv baseline=previous.csv
+ * </pre>
+ *
+ * {@code allocate} is the period in seconds of the planning, 0 to disable it;
+ * {@code out} saves the report and {@code baseline} compares it with the one
+ * of a previous version.
+ *
+ */
+public class MixedWorkload {
+
+	static final String[] RANGES = {"0-1000", "1001-1500", "1501-2000", "2001-2500", "2501-3000"};
+
+	protected final Vaccines vaccines = new Vaccines();
+	protected final Region region;
+	protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final AtomicLong registered = new AtomicLong();
+	private final AtomicLong queries = new AtomicLong();
+	private final String[] prefixes;
+
+	/**
+	 * Create the initial data.
+	 *
+	 * @param people number of persons registered before the start
+	 * @param huts number of huts of the region
+	 * @throws IOException if the huts cannot be written to a temporary file
+	 */
+	public MixedWorkload(int people, int huts) throws IOException {
+		Random rnd = new Random(42);
+		for(int i=0; i<people; i++)
+			vaccines.addPerson("First" + i, "Last" + i, "INIT" + i, 1920 + rnd.nextInt(100));
+		vaccines.setAgeIntervals(30, 40, 50, 60, 70, 80);
+		try {
+			for(int h=1; h<=3; h++) {
+				vaccines.defineHub("Hub " + h);
+				vaccines.setStaff("Hub " + h, 4*h, 3*h, 2*h);
+			}
+			vaccines.setHours(10, 10, 10, 10, 10, 8, 6);
+		} catch(VaccineException e) {
+			throw new IllegalStateException(e);
+		}
+		File f = File.createTempFile("soak-huts-", ".csv");
+		try {
+			new HutDataGenerator(huts, 42).write(huts, f.getPath());
+			region = Region.fromFile("Soak", f.getPath());
+		} finally {
+			Files.deleteIfExists(f.toPath());
+		}
+		region.setAltitudeRanges(RANGES);
+		List<MountainHut> all = List.copyOf(region.getMountainHuts());
+		prefixes = new String[Math.min(256, all.size())];
+		for(int i=0; i<prefixes.length; i++) {
+			String name = all.get(rnd.nextInt(all.size())).getName();
+			prefixes[i] = name.substring(0, Math.min(3, name.length()));
+		}
+	}
+
+	/**
+	 * Build the workload.
+	 *
+	 * @param weights the weights of {@code register}, {@code stats} and {@code huts}
+	 * @param allocate the period of the planning, {@code null} to disable it
+	 * @return the workload
+	 */
+	public Workload workload(Map<String, Integer> weights, Duration allocate) {
+		Workload w = new Workload()
+				.add("register", weights.getOrDefault("register", 0), this::register)
+				.add("stats", weights.getOrDefault("stats", 0), this::stats)
+				.add("huts", weights.getOrDefault("huts", 0), this::huts);
+		if(allocate!=null)
+			w.every("allocate", allocate, this::allocate);
+		return w;
+	}
+
+	void register() {
+		long i = registered.getAndIncrement();
+		lock.writeLock().lock();
+		try {
+			vaccines.addPerson("First" + i, "Last" + i, "SOAK" + i, 1920 + (int)(i%100));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void stats() {
+		lock.readLock().lock();
+		try {
+			vaccines.countPeople();
+			vaccines.propAllocated();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	void huts() {
+		long i = queries.getAndIncrement();
+		switch((int)(i%4)) {
+			case 0:
+				region.countMountainHutsPerAltitudeRange();
+				break;
+			case 1:
+				region.totalBedsNumberPerProvince();
+				break;
+			case 2:
+				region.findMountainHuts(prefixes[(int)(i/4%prefixes.length)], 0, 20);
+				break;
+			default:
+				region.query(new HutQuery().groupBy(HutQuery.Dimension.PROVINCE, HutQuery.Dimension.CATEGORY));
+		}
+	}
+
+	void allocate() {
+		lock.writeLock().lock();
+		try {
+			vaccines.clearAllocation();
+			vaccines.weekAllocate();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Command line entry point, see the arguments above.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> a = new HashMap<>();
+		for(String s: args) {
+			int eq = s.indexOf('=');
+			if(eq<0) {
+				System.err.println("usage: MixedWorkload [key=value]...");
+				return;
+			}
+			a.put(s.substring(0, eq), s.substring(eq+1));
+		}
+		Map<String, Integer> weights = new HashMap<>();
+		for(String m: a.getOrDefault("mix", "register:20,stats:10,huts:70").split(",")) {
+			String[] kv = m.split(":");
+			weights.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+		}
+		int period = Integer.parseInt(a.getOrDefault("allocate", "30"));
+		SoakDriver driver = new SoakDriver()
+				.rate(Double.parseDouble(a.getOrDefault("rate", "1000")))
+				.warmup(Duration.ofSeconds(Long.parseLong(a.getOrDefault("warmup", "10"))))
+				.duration(Duration.ofSeconds(Long.parseLong(a.getOrDefault("seconds", "60"))));
+		String threads = a.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		if(threads.equals("request"))
+			driver.threadPerRequest();
+		else
+			driver.threads(Integer.parseInt(threads));
+
+		MixedWorkload m = new MixedWorkload(Integer.parseInt(a.getOrDefault("people", "20000")),
+				Integer.parseInt(a.getOrDefault("huts", "100000")));
+		SoakReport r = driver.run(m.workload(weights, period>0 ? Duration.ofSeconds(period) : null));
+		System.out.print(r);
+		if(a.containsKey("out"))
+			r.write(Path.of(a.get("out")));
+		if(a.containsKey("baseline")) {
+			System.out.println();
+			System.out.print(r.compare(SoakReport.read(Path.of(a.get("baseline")))));
+		}
+	}
+}
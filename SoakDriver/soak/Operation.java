@@ -0,0 +1,11 @@
+package soak;
+
+/**
+ * An operation of a {@link Workload}; exceptions and errors are counted as errors.
+ *
+ */
+@FunctionalInterface
+public interface Operation {
+
+	void run() throws Exception;
+}
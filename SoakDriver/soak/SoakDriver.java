@@ -0,0 +1,253 @@
+package soak;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load driver replaying a {@link Workload} at a target rate.
+ *
+ * Request {@code i} is intended to start {@code i/rate} seconds after the
+ * start, whether or not the previous requests have completed, and its
+ * latency is measured from that intended start. When the system under test
+ * stalls, the requests that should have been sent meanwhile are late and
+ * their latencies include the wait, so the stall is not hidden by the
+ * driver slowing down (coordinated omission).
+ *
+ * Requests run either on a fixed pool of threads, each taking the next
+ * request when done with its own, or on a thread each, taken from a pool
+ * that grows with the requests in flight up to a cap. Periodic operations
+ * have a thread each and are measured in the same way from their intended
+ * starts. An operation that throws, even an {@link Error}, counts as an
+ * error and its thread goes on with the next request.
+ *
+ * <pre>
+ * SoakReport r = new SoakDriver()
+ *         .rate(2000)
+ *         .warmup(Duration.ofSeconds(10))
+ *         .duration(Duration.ofMinutes(5))
+ *         .threadPerRequest()
+ *         .run(workload);
+ * </pre>
+ *
+ */
+public class SoakDriver {
+
+	protected double rate = 1000;
+	protected Duration warmup = Duration.ofSeconds(10);
+	protected Duration duration = Duration.ofSeconds(60);
+	protected int threads = Runtime.getRuntime().availableProcessors();
+	protected boolean perRequest = false;
+	protected int maxInFlight = 1_000;
+
+	/**
+	 * Target rate of the weighted operations; 1000 per second by default.
+	 *
+	 * @param perSecond requests per second
+	 * @return this driver
+	 */
+	public SoakDriver rate(double perSecond) {
+		if(!(perSecond>0))
+			throw new IllegalArgumentException("Invalid rate " + perSecond);
+		this.rate = perSecond;
+		return this;
+	}
+
+	/**
+	 * Time run before the measurement, not reported; 10 seconds by default.
+	 *
+	 * @param warmup the time
+	 * @return this driver
+	 */
+	public SoakDriver warmup(Duration warmup) {
+		this.warmup = warmup;
+		return this;
+	}
+
+	/**
+	 * Time measured after the warm-up; 60 seconds by default.
+	 *
+	 * @param duration the time
+	 * @return this driver
+	 */
+	public SoakDriver duration(Duration duration) {
+		this.duration = duration;
+		return this;
+	}
+
+	/**
+	 * Run the requests on a fixed pool of threads;
+	 * one per processor by default.
+	 *
+	 * @param n the number of threads
+	 * @return this driver
+	 */
+	public SoakDriver threads(int n) {
+		this.threads = Math.max(1, n);
+		this.perRequest = false;
+		return this;
+	}
+
+	/**
+	 * Run each request on its own thread, so that a stalled request
+	 * does not delay the next ones; idle threads are reused.
+	 *
+	 * @return this driver
+	 */
+	public SoakDriver threadPerRequest() {
+		this.perRequest = true;
+		return this;
+	}
+
+	/**
+	 * Maximum number of requests in flight with a thread per request;
+	 * the later requests wait, and their latency grows. 1000 by default.
+	 *
+	 * @param n the maximum
+	 * @return this driver
+	 */
+	public SoakDriver maxInFlight(int n) {
+		this.maxInFlight = Math.max(1, n);
+		return this;
+	}
+
+	/**
+	 * Replay the workload and wait for the end.
+	 *
+	 * @param w the workload
+	 * @return the latencies and throughputs of the operations
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public SoakReport run(Workload w) throws InterruptedException {
+		List<Workload.Entry> entries = new ArrayList<>(w.weighted);
+		entries.addAll(w.periodic);
+		Run r = new Run(entries);
+		List<Thread> running = new ArrayList<>();
+		for(int k=0; k<w.periodic.size(); k++) {
+			int op = w.weighted.size()+k;
+			long period = w.periodic.get(k).period.toNanos();
+			running.add(start("soak-" + entries.get(op).name, ()->{
+				for(long i=0; ; i++) {
+					long intended = r.start + i*period;
+					if(intended>=r.end)
+						break;
+					r.run(op, intended);
+				}
+			}));
+		}
+		if(w.weighted.isEmpty()) {
+			// nothing to send
+		} else if(perRequest) {
+			Semaphore inFlight = new Semaphore(maxInFlight);
+			AtomicLong created = new AtomicLong();
+			ExecutorService ex = Executors.newCachedThreadPool(task->{
+				Thread t = new Thread(task, "soak-request-" + created.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				for(long i=0; ; i++) {
+					long intended = r.start + (long)(i*1e9/rate);
+					if(intended>=r.end)
+						break;
+					int op = w.select(i);
+					waitUntil(intended);
+					inFlight.acquire();
+					ex.execute(()->{
+						try {
+							r.run(op, intended);
+						} finally {
+							inFlight.release();
+						}
+					});
+				}
+			} finally {
+				ex.shutdown();
+			}
+			// all the requests sent are done when their permits are back
+			inFlight.acquire(maxInFlight);
+		} else {
+			AtomicLong next = new AtomicLong();
+			for(int t=0; t<threads; t++)
+				running.add(start("soak-worker-" + t, ()->{
+					for(;;) {
+						long i = next.getAndIncrement();
+						long intended = r.start + (long)(i*1e9/rate);
+						if(intended>=r.end)
+							break;
+						r.run(w.select(i), intended);
+					}
+				}));
+		}
+		for(Thread t: running)
+			t.join();
+		return r.report();
+	}
+
+	private static Thread start(String name, Runnable task) {
+		Thread t = new Thread(task, name);
+		t.start();
+		return t;
+	}
+
+	private static void waitUntil(long time) {
+		for(long d; (d = time-System.nanoTime())>0; )
+			LockSupport.parkNanos(d);
+	}
+
+	/**
+	 * State of a run, shared by its threads.
+	 */
+	private class Run {
+		final List<Workload.Entry> entries;
+		final LatencyHistogram[] latencies;
+		final AtomicLongArray errors;
+		final long start;
+		final long measured;
+		final long end;
+
+		Run(List<Workload.Entry> entries) {
+			this.entries = entries;
+			latencies = new LatencyHistogram[entries.size()];
+			for(int i=0; i<latencies.length; i++)
+				latencies[i] = new LatencyHistogram();
+			errors = new AtomicLongArray(entries.size());
+			start = System.nanoTime();
+			measured = start + warmup.toNanos();
+			end = measured + duration.toNanos();
+		}
+
+		void run(int op, long intended) {
+			waitUntil(intended);
+			boolean ok;
+			try {
+				entries.get(op).operation.run();
+				ok = true;
+			} catch(Exception | Error e) {
+				// an Error must not end a worker of the fixed pool silently
+				ok = false;
+			}
+			long done = System.nanoTime();
+			if(intended<measured)
+				return;
+			if(ok)
+				latencies[op].record(done-intended);
+			else
+				errors.incrementAndGet(op);
+		}
+
+		SoakReport report() {
+			double seconds = duration.toNanos()/1e9;
+			List<SoakReport.Row> rows = new ArrayList<>();
+			for(int i=0; i<latencies.length; i++)
+				rows.add(new SoakReport.Row(entries.get(i).name, latencies[i], errors.get(i), seconds));
+			return new SoakReport(rows);
+		}
+	}
+}
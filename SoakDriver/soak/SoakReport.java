@@ -0,0 +1,234 @@
+package soak;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Throughput and latency percentiles of the operations of a soak run.
+ *
+ * Reports are saved as CSV files, one line per operation with the
+ * latencies in microseconds, and the report of a new version can be
+ * compared with the one of the previous version.
+ *
+ */
+public class SoakReport {
+
+	public static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	static final String HEADER = "operation,count,errors,throughput,mean_us,p50_us,p90_us,p99_us,p99.9_us,max_us";
+
+	/**
+	 * Figures of an operation.
+	 */
+	public static class Row {
+		protected final String name;
+		protected final long count;
+		protected final long errors;
+		protected final double throughput;
+		protected final double mean;
+		protected final double[] percentiles;
+		protected final double max;
+
+		Row(String name, long count, long errors, double throughput, double mean, double[] percentiles, double max) {
+			this.name = name;
+			this.count = count;
+			this.errors = errors;
+			this.throughput = throughput;
+			this.mean = mean;
+			this.percentiles = percentiles;
+			this.max = max;
+		}
+
+		Row(String name, LatencyHistogram h, long errors, double seconds) {
+			this(name, h.getCount(), errors, h.getCount()/seconds, h.getMean()/1e3,
+					percentiles(h), h.getMax()/1e3);
+		}
+
+		private static double[] percentiles(LatencyHistogram h) {
+			double[] p = new double[PERCENTILES.length];
+			for(int i=0; i<p.length; i++)
+				p[i] = h.getPercentile(PERCENTILES[i])/1e3;
+			return p;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Number of operations completed without errors in the measured time.
+		 *
+		 * @return the count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * Operations completed per second.
+		 *
+		 * @return the throughput
+		 */
+		public double getThroughput() {
+			return throughput;
+		}
+
+		/**
+		 * Latency at one of the {@link SoakReport#PERCENTILES}.
+		 *
+		 * @param i index of the percentile
+		 * @return the latency in microseconds
+		 */
+		public double getPercentile(int i) {
+			return percentiles[i];
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public double getMax() {
+			return max;
+		}
+	}
+
+	protected final List<Row> rows;
+
+	SoakReport(List<Row> rows) {
+		this.rows = Collections.unmodifiableList(rows);
+	}
+
+	public List<Row> getRows() {
+		return rows;
+	}
+
+	/**
+	 * Find the figures of an operation.
+	 *
+	 * @param name the name of the operation
+	 * @return the figures, or {@code null} if the operation is not in the report
+	 */
+	public Row getRow(String name) {
+		for(Row r: rows)
+			if(r.name.equals(name))
+				return r;
+		return null;
+	}
+
+	/**
+	 * Save the report as CSV.
+	 *
+	 * @param file the file
+	 * @throws IOException in case of write errors
+	 */
+	public void write(Path file) throws IOException {
+		try(BufferedWriter out = Files.newBufferedWriter(file)) {
+			out.write(HEADER);
+			out.newLine();
+			for(Row r: rows) {
+				StringBuilder sb = new StringBuilder(r.name)
+						.append(',').append(r.count)
+						.append(',').append(r.errors)
+						.append(',').append(String.format(Locale.ROOT, "%.3f", r.throughput))
+						.append(',').append(format(r.mean));
+				for(double p: r.percentiles)
+					sb.append(',').append(format(p));
+				sb.append(',').append(format(r.max));
+				out.write(sb.toString());
+				out.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Read a report saved by {@link #write}.
+	 *
+	 * @param file the file
+	 * @return the report
+	 * @throws IOException in case of read errors or wrong format
+	 */
+	public static SoakReport read(Path file) throws IOException {
+		List<Row> rows = new ArrayList<>();
+		try(BufferedReader in = Files.newBufferedReader(file)) {
+			String line = in.readLine();
+			if(!HEADER.equals(line))
+				throw new IOException("Not a soak report: " + file);
+			while((line = in.readLine())!=null) {
+				if(line.isBlank())
+					continue;
+				String[] f = line.split(",");
+				if(f.length!=6+PERCENTILES.length)
+					throw new IOException("Wrong line in " + file + ": " + line);
+				double[] p = new double[PERCENTILES.length];
+				for(int i=0; i<p.length; i++)
+					p[i] = Double.parseDouble(f[5+i]);
+				rows.add(new Row(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]), Double.parseDouble(f[3]),
+						Double.parseDouble(f[4]), p, Double.parseDouble(f[f.length-1])));
+			}
+		}
+		return new SoakReport(rows);
+	}
+
+	/**
+	 * Compare this report with the one of a previous version; changes are
+	 * relative to the baseline, so a negative change of a latency is an improvement.
+	 *
+	 * @param baseline the previous report
+	 * @return a table of the changes of the operations in both reports
+	 */
+	public String compare(SoakReport baseline) {
+		StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-16s %12s", "operation", "throughput"));
+		for(double p: PERCENTILES)
+			sb.append(String.format(Locale.ROOT, " %10s", "p" + label(p)));
+		sb.append(String.format(Locale.ROOT, " %10s%n", "max"));
+		for(Row r: rows) {
+			Row b = baseline.getRow(r.name);
+			if(b==null)
+				continue;
+			sb.append(String.format(Locale.ROOT, "%-16s %12s", r.name, change(r.throughput, b.throughput)));
+			for(int i=0; i<PERCENTILES.length; i++)
+				sb.append(String.format(Locale.ROOT, " %10s", change(r.percentiles[i], b.percentiles[i])));
+			sb.append(String.format(Locale.ROOT, " %10s%n", change(r.max, b.max)));
+		}
+		return sb.toString();
+	}
+
+	private static String change(double now, double before) {
+		if(before==0)
+			return now==0 ? "=" : "n/a";
+		return String.format(Locale.ROOT, "%+.1f%%", (now-before)*100/before);
+	}
+
+	private static String format(double v) {
+		return String.format(Locale.ROOT, "%.1f", v);
+	}
+
+	private static String label(double p) {
+		return p==Math.rint(p) ? String.valueOf((int)p) : String.valueOf(p);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-16s %10s %7s %10s %10s", "operation", "count", "errors", "ops/s", "mean us"));
+		for(double p: PERCENTILES)
+			sb.append(String.format(Locale.ROOT, " %10s", "p" + label(p) + " us"));
+		sb.append(String.format(Locale.ROOT, " %10s%n", "max us"));
+		for(Row r: rows) {
+			sb.append(String.format(Locale.ROOT, "%-16s %10d %7d %10.1f %10.1f", r.name, r.count, r.errors, r.throughput, r.mean));
+			for(double p: r.percentiles)
+				sb.append(String.format(Locale.ROOT, " %10.1f", p));
+			sb.append(String.format(Locale.ROOT, " %10.1f%n", r.max));
+		}
+		return sb.toString();
+	}
+}
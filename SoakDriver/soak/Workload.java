@@ -0,0 +1,119 @@
+package soak;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mix of operations replayed by a {@link SoakDriver}.
+ *
+ * Weighted operations share the target rate of the driver in proportion
+ * to their weights; the operation of each request depends only on its
+ * sequence number, so the same mix is replayed in every run. Periodic
+ * operations run on their own schedule, e.g. a planning job every minute.
+ *
+ */
+public class Workload {
+
+	/**
+	 * A named operation with its weight, or its period if periodic.
+	 */
+	public static class Entry {
+		protected final String name;
+		protected final int weight;
+		protected final Duration period;
+		protected final Operation operation;
+
+		Entry(String name, int weight, Duration period, Operation operation) {
+			this.name = name;
+			this.weight = weight;
+			this.period = period;
+			this.operation = operation;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		/**
+		 * Period of a periodic operation.
+		 *
+		 * @return the period, or {@code null} for a weighted operation
+		 */
+		public Duration getPeriod() {
+			return period;
+		}
+	}
+
+	protected final List<Entry> weighted = new ArrayList<>();
+	protected final List<Entry> periodic = new ArrayList<>();
+	private int[] cumulative = new int[0];
+
+	/**
+	 * Add an operation sharing the target rate.
+	 *
+	 * @param name the name of the operation in the report
+	 * @param weight the relative frequency; operations with weight 0 are not run
+	 * @param op the operation
+	 * @return this workload
+	 */
+	public Workload add(String name, int weight, Operation op) {
+		if(weight<0)
+			throw new IllegalArgumentException("Negative weight for " + name);
+		if(weight==0)
+			return this;
+		weighted.add(new Entry(name, weight, null, op));
+		cumulative = new int[weighted.size()];
+		int c = 0;
+		for(int i=0; i<cumulative.length; i++)
+			cumulative[i] = c += weighted.get(i).weight;
+		return this;
+	}
+
+	/**
+	 * Add an operation run at a fixed period, outside of the target rate.
+	 *
+	 * @param name the name of the operation in the report
+	 * @param period the time between the intended starts of two runs
+	 * @param op the operation
+	 * @return this workload
+	 */
+	public Workload every(String name, Duration period, Operation op) {
+		if(period.isZero() || period.isNegative())
+			throw new IllegalArgumentException("Invalid period for " + name);
+		periodic.add(new Entry(name, 0, period, op));
+		return this;
+	}
+
+	public List<Entry> getWeighted() {
+		return Collections.unmodifiableList(weighted);
+	}
+
+	public List<Entry> getPeriodic() {
+		return Collections.unmodifiableList(periodic);
+	}
+
+	/**
+	 * Index of the weighted operation of a request.
+	 *
+	 * @param seq the sequence number of the request
+	 * @return the index in {@link #getWeighted()}
+	 */
+	int select(long seq) {
+		// splitmix64 finalizer, so that consecutive requests are spread over the mix
+		long z = seq + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z ^= z >>> 31;
+		int pick = (int)Long.remainderUnsigned(z, cumulative[cumulative.length-1]);
+		int i = 0;
+		while(cumulative[i]<=pick)
+			i++;
+		return i;
+	}
+}